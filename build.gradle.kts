@@ -76,6 +76,27 @@ with(gtnhGradle.toolchainModule) {
     mcmodInfoProperties.put("jmedition", "\${jm_edition}")
 }
 
+// JMH benchmarks, run with: ./gradlew jmh [-Pjmh.include=<regex>]
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+    runtimeClasspath += output + compileClasspath + sourceSets.main.get().runtimeClasspath
+}
+
+dependencies {
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+tasks.register<JavaExec>("jmh") {
+    group = "JourneyMap"
+    description = "Run the JMH benchmarks"
+    dependsOn(tasks.named("jmhClasses"))
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    // The GC profiler reports the allocation rate (gc.alloc.rate.norm is bytes per operation)
+    args(listOfNotNull(project.findProperty("jmh.include")?.toString()) + listOf("-prof", "gc"))
+}
+
 tasks.processResources {
     filesMatching("license.txt") {
         expand("version" to project.version.toString(), "mcversion" to minecraft_version, "date" to getDate())
@@ -0,0 +1,137 @@
+/*
+ * JourneyMap Mod <journeymap.info> for Minecraft
+ * Copyright (c) 2011-2017  Techbrew Interactive, LLC <techbrew.net>.  All Rights Reserved.
+ */
+
+package journeymap.client.cartography;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per pixel of the RGB operations the renderers use for every block they paint.
+ * Each invocation processes a chunk's worth (256) of random colors.
+ * The *Table benchmarks are the ShadingTable equivalents, at the 16 light levels the renderers use;
+ * setup checks that they give exactly the same results as RGB.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(256)
+public class RGBBenchmark
+{
+    private static final int AMBIENT = 0x00001A;
+    private final int[] colors = new int[256];
+    private final int[] others = new int[256];
+    private final float[] factors = new float[256];
+    private final int[] levels = new int[256];
+    private final float[] levelFactors = new float[16];
+    private ShadingTable brightnessTable;
+    private ShadingTable darkenAmbientTable;
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < colors.length; i++)
+        {
+            colors[i] = random.nextInt(0xFFFFFF);
+            others[i] = random.nextInt(0xFFFFFF);
+            factors[i] = random.nextFloat();
+            levels[i] = random.nextInt(16);
+        }
+
+        for (int i = 0; i < levelFactors.length; i++)
+        {
+            levelFactors[i] = i / 15f + 0.06f;
+        }
+        brightnessTable = ShadingTable.brightness(levelFactors);
+        darkenAmbientTable = ShadingTable.darkenAmbient(AMBIENT, levelFactors);
+
+        for (int i = 0; i < 100000; i++)
+        {
+            int rgb = random.nextInt();
+            int level = random.nextInt(16);
+            check("adjustBrightness", RGB.adjustBrightness(rgb, levelFactors[level]), brightnessTable.apply(rgb, level), rgb, level);
+            check("darkenAmbient", RGB.darkenAmbient(rgb, levelFactors[level], AMBIENT), darkenAmbientTable.apply(rgb, level), rgb, level);
+        }
+    }
+
+    private static void check(String operation, int expected, int actual, int rgb, int level)
+    {
+        if (expected != actual)
+        {
+            throw new IllegalStateException(String.format("ShadingTable %s differs from RGB for %08x at level %s: %08x != %08x",
+                    operation, rgb, level, actual, expected));
+        }
+    }
+
+    @Benchmark
+    public void blendWith(Blackhole bh)
+    {
+        for (int i = 0; i < colors.length; i++)
+        {
+            bh.consume(RGB.blendWith(colors[i], others[i], factors[i]));
+        }
+    }
+
+    @Benchmark
+    public void darkenAmbient(Blackhole bh)
+    {
+        for (int i = 0; i < colors.length; i++)
+        {
+            bh.consume(RGB.darkenAmbient(colors[i], factors[i], AMBIENT));
+        }
+    }
+
+    @Benchmark
+    public void darkenAmbientTable(Blackhole bh)
+    {
+        for (int i = 0; i < colors.length; i++)
+        {
+            bh.consume(darkenAmbientTable.apply(colors[i], levels[i]));
+        }
+    }
+
+    @Benchmark
+    public void adjustBrightness(Blackhole bh)
+    {
+        for (int i = 0; i < colors.length; i++)
+        {
+            bh.consume(RGB.adjustBrightness(colors[i], factors[i] * 2));
+        }
+    }
+
+    @Benchmark
+    public void adjustBrightnessTable(Blackhole bh)
+    {
+        for (int i = 0; i < colors.length; i++)
+        {
+            bh.consume(brightnessTable.apply(colors[i], levels[i]));
+        }
+    }
+
+    @Benchmark
+    public void bevelSlope(Blackhole bh)
+    {
+        for (int i = 0; i < colors.length; i++)
+        {
+            bh.consume(RGB.bevelSlope(colors[i], factors[i] * 2));
+        }
+    }
+
+    @Benchmark
+    public void multiply(Blackhole bh)
+    {
+        for (int i = 0; i < colors.length; i++)
+        {
+            bh.consume(RGB.multiply(colors[i], others[i]));
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * JourneyMap Mod <journeymap.info> for Minecraft
+ * Copyright (c) 2011-2017  Techbrew Interactive, LLC <techbrew.net>.  All Rights Reserved.
+ */
+
+package journeymap.client.cartography.render;
+
+import journeymap.client.cartography.ChunkPainter;
+import journeymap.client.cartography.IChunkRenderer;
+import journeymap.client.model.ChunkFixtures;
+import journeymap.client.model.ChunkMD;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to render one chunk, per renderer and map type, using synthetic chunks from {@link ChunkFixtures}.
+ * Each invocation renders the next chunk of an 8x8 grid, so the renderers' column caches are warm
+ * as they are when chunks around the player are re-rendered.  Painted pixels are written into region-sized
+ * images the way ImageHolder does.  Run with "-prof gc" for the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkRendererBenchmark
+{
+    private static final int GRID_SIZE = 8;
+    private static final long SEED = 42L;
+    private static final int CAVE_SLICE = 2;
+
+    private static final int REGION_SIZE = 512;
+
+    private final ChunkPainter dayPainter = new ChunkPainter();
+    private final ChunkPainter nightPainter = new ChunkPainter();
+    private final ChunkPainter topoPainter = new ChunkPainter();
+    private final ChunkPainter[] slicePainters = new ChunkPainter[16];
+    private final boolean[] sliceOk = new boolean[16];
+    private final BufferedImage dayImage = new BufferedImage(REGION_SIZE, REGION_SIZE, BufferedImage.TYPE_INT_ARGB);
+    private final BufferedImage nightImage = new BufferedImage(REGION_SIZE, REGION_SIZE, BufferedImage.TYPE_INT_ARGB);
+    private final BufferedImage topoImage = new BufferedImage(REGION_SIZE, REGION_SIZE, BufferedImage.TYPE_INT_ARGB);
+
+    private List<ChunkMD> overworld;
+    private List<ChunkMD> nether;
+    private List<ChunkMD> end;
+    private SurfaceRenderer surfaceRenderer;
+    private CaveRenderer caveRenderer;
+    private TopoRenderer topoRenderer;
+    private NetherRenderer netherRenderer;
+    private EndRenderer endRenderer;
+    private int next;
+
+    @Setup
+    public void setup()
+    {
+        ChunkFixtures.install();
+        for (int i = 0; i < slicePainters.length; i++)
+        {
+            slicePainters[i] = new ChunkPainter();
+        }
+        overworld = ChunkFixtures.overworld(GRID_SIZE, SEED);
+        nether = ChunkFixtures.nether(GRID_SIZE, SEED);
+        end = ChunkFixtures.end(GRID_SIZE, SEED);
+
+        surfaceRenderer = new SurfaceRenderer();
+        caveRenderer = new CaveRenderer(new SurfaceRenderer());
+        topoRenderer = new TopoRenderer();
+        netherRenderer = new NetherRenderer();
+        endRenderer = new EndRenderer();
+
+        // Renderers log and return false rather than throw, so make sure they work before timing them.
+        // Some chunks legitimately have nothing to paint, like void in the end.
+        int[] rendered = new int[8];
+        for (int i = 0; i < GRID_SIZE * GRID_SIZE; i++)
+        {
+            rendered[0] += surface() ? 1 : 0;
+            rendered[1] += night() ? 1 : 0;
+            rendered[2] += cave() ? 1 : 0;
+            rendered[3] += topo() ? 1 : 0;
+            rendered[4] += nether() ? 1 : 0;
+            rendered[5] += end() ? 1 : 0;
+            rendered[6] += nightAndTopo() ? 1 : 0;
+            rendered[7] += caveAllSlices() ? 1 : 0;
+        }
+        for (int count : rendered)
+        {
+            if (count == 0)
+            {
+                throw new IllegalStateException("Fixture chunks didn't render: " + Arrays.toString(rendered));
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean surface()
+    {
+        ChunkMD chunkMd = nextChunk(overworld);
+        boolean okay = surfaceRenderer.render(dayPainter.reset(), null, chunkMd);
+        write(dayPainter, dayImage, chunkMd);
+        return okay;
+    }
+
+    /**
+     * Day and night together, which is how the surface is mapped.
+     */
+    @Benchmark
+    public boolean night()
+    {
+        ChunkMD chunkMd = nextChunk(overworld);
+        boolean okay = surfaceRenderer.render(dayPainter.reset(), nightPainter.reset(), chunkMd);
+        write(dayPainter, dayImage, chunkMd);
+        write(nightPainter, nightImage, chunkMd);
+        return okay;
+    }
+
+    /**
+     * Day, night and topo in one pass, which is how the surface is mapped.
+     * Compare with night() + topo().
+     */
+    @Benchmark
+    public boolean nightAndTopo()
+    {
+        ChunkMD chunkMd = nextChunk(overworld);
+        boolean okay = surfaceRenderer.render(dayPainter.reset(), nightPainter.reset(), topoPainter.reset(), topoRenderer, chunkMd);
+        write(dayPainter, dayImage, chunkMd);
+        write(nightPainter, nightImage, chunkMd);
+        write(topoPainter, topoImage, chunkMd);
+        return okay;
+    }
+
+    @Benchmark
+    public boolean cave()
+    {
+        return render(caveRenderer, overworld, CAVE_SLICE);
+    }
+
+    /**
+     * Every slice of the chunk in one pass.  Compare with 16 * cave().
+     */
+    @Benchmark
+    public boolean caveAllSlices()
+    {
+        ChunkMD chunkMd = nextChunk(overworld);
+        for (ChunkPainter painter : slicePainters)
+        {
+            painter.reset();
+        }
+        return caveRenderer.renderSlices(slicePainters, sliceOk, chunkMd, 0, slicePainters.length - 1);
+    }
+
+    @Benchmark
+    public boolean topo()
+    {
+        return render(topoRenderer, overworld, null);
+    }
+
+    @Benchmark
+    public boolean nether()
+    {
+        return render(netherRenderer, nether, CAVE_SLICE);
+    }
+
+    @Benchmark
+    public boolean end()
+    {
+        return render(endRenderer, end, CAVE_SLICE);
+    }
+
+    private boolean render(IChunkRenderer renderer, List<ChunkMD> chunks, Integer vSlice)
+    {
+        ChunkMD chunkMd = nextChunk(chunks);
+        boolean okay = renderer.render(dayPainter.reset(), chunkMd, vSlice);
+        write(dayPainter, dayImage, chunkMd);
+        return okay;
+    }
+
+    private ChunkMD nextChunk(List<ChunkMD> chunks)
+    {
+        next = (next + 1) % chunks.size();
+        return chunks.get(next);
+    }
+
+    private static void write(ChunkPainter painter, BufferedImage regionImage, ChunkMD chunkMd)
+    {
+        painter.writeTo(regionImage, (chunkMd.getCoord().chunkXPos & 31) << 4, (chunkMd.getCoord().chunkZPos & 31) << 4);
+    }
+}
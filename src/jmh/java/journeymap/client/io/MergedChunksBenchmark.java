@@ -0,0 +1,89 @@
+/*
+ * JourneyMap Mod <journeymap.info> for Minecraft
+ * Copyright (c) 2011-2017  Techbrew Interactive, LLC <techbrew.net>.  All Rights Reserved.
+ */
+
+package journeymap.client.io;
+
+import journeymap.client.model.MapType;
+import journeymap.client.model.RegionCoord;
+import net.minecraft.world.ChunkCoordIntPair;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of RegionImageHandler.getMergedChunks with 1, 4 and 16 concurrent callers.
+ * Each call composites a 512x512 tile which straddles four synthetic in-memory regions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergedChunksBenchmark
+{
+    private final File worldDir = new File("build/jmh/world");
+    private final MapType mapType = new MapType(MapType.Name.day, null, 0);
+    private final ChunkCoordIntPair startCoord = new ChunkCoordIntPair(16, 16);
+    private final ChunkCoordIntPair endCoord = new ChunkCoordIntPair(47, 47);
+    private final BufferedImage[] regionImages = new BufferedImage[4];
+    private RegionImageHandler.RegionImageSource source;
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < regionImages.length; i++)
+        {
+            BufferedImage image = new BufferedImage(512, 512, BufferedImage.TYPE_INT_ARGB);
+            for (int y = 0; y < 512; y++)
+            {
+                for (int x = 0; x < 512; x++)
+                {
+                    image.setRGB(x, y, 0xFF000000 | random.nextInt(0xFFFFFF));
+                }
+            }
+            regionImages[i] = image;
+        }
+
+        source = new RegionImageHandler.RegionImageSource()
+        {
+            @Override
+            public BufferedImage getRegionImage(RegionCoord rCoord, MapType mapType)
+            {
+                return regionImages[((rCoord.regionZ & 1) << 1) | (rCoord.regionX & 1)];
+            }
+        };
+    }
+
+    @Benchmark
+    @Threads(1)
+    public BufferedImage merge1()
+    {
+        return merge();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public BufferedImage merge4()
+    {
+        return merge();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public BufferedImage merge16()
+    {
+        return merge();
+    }
+
+    private BufferedImage merge()
+    {
+        return RegionImageHandler.getMergedChunks(worldDir, startCoord, endCoord, mapType, source, null, 512, 512, false, false);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * JourneyMap Mod <journeymap.info> for Minecraft
+ * Copyright (c) 2011-2017  Techbrew Interactive, LLC <techbrew.net>.  All Rights Reserved.
+ */
+
+package journeymap.client.io.nbt;
+
+import journeymap.client.model.ChunkSnapshot;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Cost of reading a saved chunk: the full NBT tree AnvilChunkLoader builds before it makes a Chunk, versus
+ * ChunkSectionReader filling in a pooled snapshot.  Run with the GC profiler to compare bytes allocated per chunk.
+ * The chunk has eight sections plus entities and tile entities for the reader to skip; setup checks that the reader
+ * gets the same blocks, metadata, light and heights as the tree.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkSectionReaderBenchmark
+{
+    private static final int SECTIONS = 8;
+    private byte[] compressed;
+    private ChunkSectionReader reader;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        Random random = new Random(42);
+        NBTTagCompound level = new NBTTagCompound();
+        level.setInteger("xPos", 0);
+        level.setInteger("zPos", 0);
+        level.setLong("LastUpdate", 1234L);
+        level.setByte("TerrainPopulated", (byte) 1);
+
+        NBTTagList sections = new NBTTagList();
+        for (int y = 0; y < SECTIONS; y++)
+        {
+            NBTTagCompound section = new NBTTagCompound();
+            section.setByte("Y", (byte) y);
+            section.setByteArray("Blocks", bytes(random, 4096));
+            if (y == 0)
+            {
+                section.setByteArray("Add", bytes(random, 2048));
+            }
+            section.setByteArray("Data", bytes(random, 2048));
+            section.setByteArray("BlockLight", bytes(random, 2048));
+            section.setByteArray("SkyLight", bytes(random, 2048));
+            sections.appendTag(section);
+        }
+        level.setTag("Sections", sections);
+
+        int[] heights = new int[256];
+        for (int i = 0; i < heights.length; i++)
+        {
+            heights[i] = random.nextInt(SECTIONS * 16);
+        }
+        level.setIntArray("HeightMap", heights);
+        level.setByteArray("Biomes", bytes(random, 256));
+
+        NBTTagList entities = new NBTTagList();
+        NBTTagList tileEntities = new NBTTagList();
+        for (int i = 0; i < 20; i++)
+        {
+            NBTTagCompound entity = new NBTTagCompound();
+            entity.setString("id", "Sheep");
+            entity.setDouble("PosX", random.nextDouble() * 16);
+            entity.setFloat("Health", 8f);
+            entities.appendTag(entity);
+
+            NBTTagCompound tileEntity = new NBTTagCompound();
+            tileEntity.setString("id", "Chest");
+            tileEntity.setInteger("x", random.nextInt(16));
+            tileEntity.setTag("Items", new NBTTagList());
+            tileEntities.appendTag(tileEntity);
+        }
+        level.setTag("Entities", entities);
+        level.setTag("TileEntities", tileEntities);
+
+        NBTTagCompound root = new NBTTagCompound();
+        root.setTag("Level", level);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes));
+        CompressedStreamTools.write(root, out);
+        out.close();
+        compressed = bytes.toByteArray();
+
+        reader = new ChunkSectionReader(null, new ChunkSnapshot.Pool(1));
+        check(CompressedStreamTools.read(stream()).getCompoundTag("Level"), reader.read(stream(), 0, 0, false));
+    }
+
+    private static byte[] bytes(Random random, int length)
+    {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private DataInputStream stream()
+    {
+        return new DataInputStream(new BufferedInputStream(new InflaterInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    private static void check(NBTTagCompound level, ChunkSnapshot snapshot)
+    {
+        NBTTagList sections = level.getTagList("Sections", 10);
+        for (int i = 0; i < sections.tagCount(); i++)
+        {
+            NBTTagCompound section = sections.getCompoundTagAt(i);
+            int baseY = section.getByte("Y") << 4;
+            byte[] blocks = section.getByteArray("Blocks");
+            byte[] add = section.hasKey("Add") ? section.getByteArray("Add") : null;
+            byte[] data = section.getByteArray("Data");
+            byte[] blockLight = section.getByteArray("BlockLight");
+            for (int index = 0; index < 4096; index++)
+            {
+                int x = index & 15;
+                int z = (index >> 4) & 15;
+                int y = baseY + (index >> 8);
+                int id = (blocks[index] & 255) | ((add != null) ? nibble(add, index) << 8 : 0);
+                check("block id", id, snapshot.getBlockId(x, y, z), x, y, z);
+                check("metadata", nibble(data, index), snapshot.getBlockMeta(x, y, z), x, y, z);
+                check("block light", nibble(blockLight, index), snapshot.getSavedLightValue(x, y, z), x, y, z);
+            }
+        }
+
+        int[] heights = level.getIntArray("HeightMap");
+        for (int i = 0; i < heights.length; i++)
+        {
+            check("height", heights[i], snapshot.getHeight(i & 15, i >> 4), i & 15, 0, i >> 4);
+        }
+        snapshot.release();
+    }
+
+    private static int nibble(byte[] data, int index)
+    {
+        int b = data[index >> 1];
+        return ((index & 1) == 0) ? (b & 15) : ((b >> 4) & 15);
+    }
+
+    private static void check(String what, int expected, int actual, int x, int y, int z)
+    {
+        if (expected != actual)
+        {
+            throw new IllegalStateException(String.format("ChunkSectionReader %s differs from NBT at %s,%s,%s: %s != %s",
+                    what, x, y, z, actual, expected));
+        }
+    }
+
+    @Benchmark
+    public void nbtTree(Blackhole bh) throws IOException
+    {
+        bh.consume(CompressedStreamTools.read(stream()));
+    }
+
+    @Benchmark
+    public void sectionReader(Blackhole bh) throws IOException
+    {
+        ChunkSnapshot snapshot = reader.read(stream(), 0, 0, false);
+        bh.consume(snapshot);
+        snapshot.release();
+    }
+}
@@ -0,0 +1,486 @@
+/*
+ * JourneyMap Mod <journeymap.info> for Minecraft
+ * Copyright (c) 2011-2017  Techbrew Interactive, LLC <techbrew.net>.  All Rights Reserved.
+ */
+
+package journeymap.client.model;
+
+import journeymap.client.JourneymapClient;
+import journeymap.client.data.DataCache;
+import journeymap.client.model.mod.ModBlockDelegate;
+import journeymap.client.properties.CoreProperties;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockAir;
+import net.minecraft.block.material.Material;
+import net.minecraft.world.ChunkCoordIntPair;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic chunks and blocks for benchmarks, which need neither a running client nor a world.
+ * Blocks get fixed colors, and biome-colored blocks get a fixed tint instead of a biome lookup.
+ */
+public class ChunkFixtures
+{
+    public static final int SEA_LEVEL = 63;
+
+    private static BlockMD stone;
+    private static BlockMD dirt;
+    private static BlockMD grass;
+    private static BlockMD sand;
+    private static BlockMD water;
+    private static BlockMD leaves;
+    private static BlockMD tallGrass;
+    private static BlockMD lava;
+    private static BlockMD bedrock;
+    private static BlockMD netherrack;
+    private static BlockMD endStone;
+    private static boolean installed;
+
+    private ChunkFixtures()
+    {
+    }
+
+    /**
+     * Installs default core properties and the fixture blocks.  Safe to call more than once.
+     */
+    public static synchronized void install()
+    {
+        if (installed)
+        {
+            return;
+        }
+
+        try
+        {
+            JourneymapClient client = JourneymapClient.getInstance();
+            if (client == null)
+            {
+                client = new JourneymapClient();
+            }
+            Field field = JourneymapClient.class.getDeclaredField("coreProperties");
+            field.setAccessible(true);
+            field.set(client, new CoreProperties());
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("Couldn't install core properties", e);
+        }
+
+        BlockMD.AIRBLOCK = create(new BlockAir()
+        {
+        }, "air", 0x000000, 0f, EnumSet.of(BlockMD.Flag.HasAir));
+        BlockMD.VOIDBLOCK = BlockMD.create(null, 0, "void", 0f, EnumSet.noneOf(BlockMD.Flag.class));
+
+        stone = create(block(Material.rock), "stone", 0x7D7D7D, 1f, EnumSet.noneOf(BlockMD.Flag.class));
+        dirt = create(block(Material.ground), "dirt", 0x866043, 1f, EnumSet.noneOf(BlockMD.Flag.class));
+        grass = create(block(Material.grass), "grass", 0x939393, 1f, EnumSet.of(BlockMD.Flag.Grass));
+        sand = create(block(Material.sand), "sand", 0xDBD3A0, 1f, EnumSet.noneOf(BlockMD.Flag.class));
+        water = create(block(Material.water), "water", 0x2F43F4, .3f, EnumSet.of(BlockMD.Flag.Water, BlockMD.Flag.NoShadow));
+        leaves = create(block(Material.leaves), "leaves", 0x3B6E1B, .8f, EnumSet.of(BlockMD.Flag.Foliage));
+        tallGrass = create(block(Material.plants), "tallgrass", 0x7AB34E, 1f, EnumSet.of(BlockMD.Flag.Plant, BlockMD.Flag.Grass));
+        lava = create(block(Material.lava), "lava", 0xD4590C, 1f, EnumSet.of(BlockMD.Flag.NoShadow));
+        bedrock = create(block(Material.rock), "bedrock", 0x545454, 1f, EnumSet.noneOf(BlockMD.Flag.class));
+        netherrack = create(block(Material.rock), "netherrack", 0x6F3634, 1f, EnumSet.noneOf(BlockMD.Flag.class));
+        endStone = create(block(Material.rock), "end_stone", 0xDDDFA5, 1f, EnumSet.noneOf(BlockMD.Flag.class));
+
+        installed = true;
+    }
+
+    /**
+     * Builds a square grid of overworld chunks and adds them to the DataCache, so neighbors are found when
+     * calculating slopes.  Only the inner chunks are returned, since the outer ring is there for their edges.
+     * Each dimension's grid has its own origin, since the DataCache doesn't key chunks by dimension.
+     */
+    public static List<ChunkMD> overworld(int size, long seed)
+    {
+        return grid(size, seed, Dimension.Overworld);
+    }
+
+    public static List<ChunkMD> nether(int size, long seed)
+    {
+        return grid(size, seed, Dimension.Nether);
+    }
+
+    public static List<ChunkMD> end(int size, long seed)
+    {
+        return grid(size, seed, Dimension.End);
+    }
+
+    private static List<ChunkMD> grid(int size, long seed, Dimension dimension)
+    {
+        install();
+        List<ChunkMD> inner = new ArrayList<ChunkMD>(size * size);
+        for (int cz = -1; cz <= size; cz++)
+        {
+            for (int cx = -1; cx <= size; cx++)
+            {
+                ChunkCoordIntPair coord = new ChunkCoordIntPair(dimension.originChunkX + cx, cz);
+                FixtureChunkMD chunkMd = new FixtureChunkMD(coord, dimension, seed);
+                DataCache.instance().addChunkMD(chunkMd);
+                if (cx >= 0 && cz >= 0 && cx < size && cz < size)
+                {
+                    inner.add(chunkMd);
+                }
+            }
+        }
+        return inner;
+    }
+
+    private static Block block(Material material)
+    {
+        return new Block(material)
+        {
+        };
+    }
+
+    private static BlockMD create(Block block, String name, int color, float alpha, EnumSet<BlockMD.Flag> flags)
+    {
+        BlockMD blockMD = BlockMD.create(block, 0, name, alpha, flags);
+        blockMD.setColor(color);
+        blockMD.setBlockColorHandler(FixedColorHandler.INSTANCE);
+        return blockMD;
+    }
+
+    enum Dimension
+    {
+        Overworld(0, 256, false, 0),
+        Nether(-1, 128, true, 1024),
+        End(1, 256, true, -1024);
+
+        final int id;
+        final int actualHeight;
+        final boolean hasNoSky;
+        final int originChunkX;
+
+        Dimension(int id, int actualHeight, boolean hasNoSky, int originChunkX)
+        {
+            this.id = id;
+            this.actualHeight = actualHeight;
+            this.hasNoSky = hasNoSky;
+            this.originChunkX = originChunkX;
+        }
+    }
+
+    /**
+     * Uses the fixture colors, with a fixed tint for biome-colored blocks.
+     */
+    static class FixedColorHandler implements ModBlockDelegate.IModBlockColorHandler
+    {
+        static final FixedColorHandler INSTANCE = new FixedColorHandler();
+        private static final int GRASS_TINT = 0x91BD59;
+        private static final int FOLIAGE_TINT = 0x77AB2F;
+
+        @Override
+        public Integer getBlockColor(ChunkMD chunkMD, BlockMD blockMD, int globalX, int y, int globalZ)
+        {
+            if (blockMD.isGrass())
+            {
+                return tint(blockMD.getColor(), GRASS_TINT);
+            }
+            else if (blockMD.isFoliage())
+            {
+                return tint(blockMD.getColor(), FOLIAGE_TINT);
+            }
+            return blockMD.getColor();
+        }
+
+        @Override
+        public Integer getTextureColor(BlockMD blockMD)
+        {
+            return blockMD.getColor();
+        }
+
+        private static int tint(int rgb, int tint)
+        {
+            int r = ((rgb >> 16) & 0xFF) * ((tint >> 16) & 0xFF) / 255;
+            int g = ((rgb >> 8) & 0xFF) * ((tint >> 8) & 0xFF) / 255;
+            int b = (rgb & 0xFF) * (tint & 0xFF) / 255;
+            return (r << 16) | (g << 8) | b;
+        }
+    }
+
+    /**
+     * Chunk with generated terrain: rolling hills, water, trees and caves in the overworld;
+     * netherrack with caverns and a lava sea in the nether; floating islands in the end.
+     */
+    static class FixtureChunkMD extends ChunkMD
+    {
+        private final Dimension dimension;
+        private final BlockMD[] blocks;
+        private final byte[] light;
+        private final int[] heights = new int[256];
+
+        FixtureChunkMD(ChunkCoordIntPair coord, Dimension dimension, long seed)
+        {
+            super(coord);
+            this.dimension = dimension;
+            this.blocks = new BlockMD[256 * dimension.actualHeight];
+            this.light = new byte[blocks.length];
+
+            Random random = new Random(seed ^ asLong());
+            for (int z = 0; z < 16; z++)
+            {
+                for (int x = 0; x < 16; x++)
+                {
+                    double wx = toWorldX(x);
+                    double wz = toWorldZ(z);
+                    switch (dimension)
+                    {
+                        case Nether:
+                            generateNether(x, z, wx, wz, random);
+                            break;
+                        case End:
+                            generateEnd(x, z, wx, wz);
+                            break;
+                        default:
+                            generateOverworld(x, z, wx, wz, random);
+                    }
+                }
+            }
+            computeHeightsAndLight();
+        }
+
+        private void generateOverworld(int x, int z, double wx, double wz, Random random)
+        {
+            int surface = 68 + (int) (Math.sin(wx / 23.0) * 9 + Math.cos(wz / 17.0) * 7 + Math.sin((wx + wz) / 7.0) * 2);
+            for (int y = 0; y <= surface; y++)
+            {
+                BlockMD blockMD;
+                if (y == 0)
+                {
+                    blockMD = bedrock;
+                }
+                else if (y < surface - 3)
+                {
+                    blockMD = stone;
+                }
+                else if (y < surface)
+                {
+                    blockMD = (surface <= SEA_LEVEL + 1) ? sand : dirt;
+                }
+                else
+                {
+                    blockMD = (surface <= SEA_LEVEL + 1) ? sand : grass;
+                }
+                set(x, y, z, blockMD);
+            }
+
+            // Caves: two tunnels which wind through the stone
+            for (int y = 8; y < surface - 6; y++)
+            {
+                double tunnel1 = Math.sin(wx / 11.0 + y / 9.0) + Math.cos(wz / 13.0);
+                double tunnel2 = Math.cos(wx / 8.0) + Math.sin(wz / 10.0 - y / 7.0);
+                if (Math.abs(tunnel1) < .25 || Math.abs(tunnel2) < .2)
+                {
+                    set(x, y, z, (y < 12) ? lava : BlockMD.AIRBLOCK);
+                }
+            }
+
+            for (int y = surface + 1; y <= SEA_LEVEL; y++)
+            {
+                set(x, y, z, water);
+            }
+
+            if (surface > SEA_LEVEL + 1)
+            {
+                int roll = random.nextInt(40);
+                if (roll == 0 && x > 1 && x < 14 && z > 1 && z < 14)
+                {
+                    // A blob of leaves is enough of a tree for mapping
+                    for (int y = surface + 3; y < surface + 7; y++)
+                    {
+                        for (int dz = -1; dz <= 1; dz++)
+                        {
+                            for (int dx = -1; dx <= 1; dx++)
+                            {
+                                set(x + dx, y, z + dz, leaves);
+                            }
+                        }
+                    }
+                }
+                else if (roll < 8 && get(x, surface + 1, z) == null)
+                {
+                    set(x, surface + 1, z, tallGrass);
+                }
+            }
+        }
+
+        private void generateNether(int x, int z, double wx, double wz, Random random)
+        {
+            int top = dimension.actualHeight - 1;
+            for (int y = 0; y <= top; y++)
+            {
+                BlockMD blockMD;
+                if (y == 0 || y == top || (y > top - 4 && random.nextInt(2) == 0))
+                {
+                    blockMD = bedrock;
+                }
+                else
+                {
+                    double cavern = Math.sin(wx / 15.0 + y / 12.0) * Math.cos(wz / 14.0 - y / 10.0);
+                    if (cavern > .2)
+                    {
+                        blockMD = (y <= 31) ? lava : null;
+                    }
+                    else
+                    {
+                        blockMD = netherrack;
+                    }
+                }
+                set(x, y, z, blockMD);
+            }
+        }
+
+        private void generateEnd(int x, int z, double wx, double wz)
+        {
+            int thickness = (int) (Math.sin(wx / 40.0) * Math.cos(wz / 33.0) * 28 + Math.sin(wx / 9.0) * 3 + Math.cos(wz / 11.0) * 3);
+            for (int y = 60 - thickness; y < 60 + thickness / 4; y++)
+            {
+                set(x, y, z, endStone);
+            }
+        }
+
+        /**
+         * Heights are the y above the top opaque block.  Sky light falls off by 2 per block below the surface,
+         * and lava lights up the blocks near it.
+         */
+        private void computeHeightsAndLight()
+        {
+            for (int z = 0; z < 16; z++)
+            {
+                for (int x = 0; x < 16; x++)
+                {
+                    int height = 0;
+                    for (int y = dimension.actualHeight - 1; y >= 0; y--)
+                    {
+                        BlockMD blockMD = get(x, y, z);
+                        if (blockMD != null && !blockMD.isAir())
+                        {
+                            height = y + 1;
+                            break;
+                        }
+                    }
+                    heights[(z << 4) + x] = height;
+
+                    int skyLight = dimension.hasNoSky ? 0 : 15;
+                    for (int y = dimension.actualHeight - 1; y >= 0; y--)
+                    {
+                        BlockMD blockMD = get(x, y, z);
+                        int blockLight = (blockMD == lava) ? 15 : 0;
+                        if (y < height && blockMD != null && !blockMD.isAir())
+                        {
+                            skyLight = Math.max(0, skyLight - ((blockMD == water || blockMD == leaves) ? 2 : 15));
+                        }
+                        light[index(x, y, z)] = (byte) Math.max(skyLight, blockLight);
+                    }
+                }
+            }
+        }
+
+        private static int index(int x, int y, int z)
+        {
+            return (y << 8) | (z << 4) | x;
+        }
+
+        private BlockMD get(int x, int y, int z)
+        {
+            return blocks[index(x, y, z)];
+        }
+
+        private void set(int x, int y, int z, BlockMD blockMD)
+        {
+            blocks[index(x, y, z)] = blockMD;
+        }
+
+        private boolean inBounds(int y)
+        {
+            return y >= 0 && y < dimension.actualHeight;
+        }
+
+        @Override
+        public Block getBlock(int x, int y, int z)
+        {
+            return getBlockMD(x, y, z).getBlock();
+        }
+
+        @Override
+        public BlockMD getBlockMD(int x, int y, int z)
+        {
+            BlockMD blockMD = inBounds(y) ? get(x, y, z) : null;
+            return (blockMD == null) ? BlockMD.AIRBLOCK : blockMD;
+        }
+
+        @Override
+        public int getBlockMeta(int x, int y, int z)
+        {
+            return 0;
+        }
+
+        @Override
+        public int getSavedLightValue(int x, int y, int z)
+        {
+            if (!inBounds(y))
+            {
+                return dimension.hasNoSky ? 0 : 15;
+            }
+            return light[index(x, y, z)];
+        }
+
+        @Override
+        public int getHeight(int x, int z)
+        {
+            return heights[(z << 4) + x];
+        }
+
+        @Override
+        public int getPrecipitationHeight(int x, int z)
+        {
+            return heights[(z << 4) + x];
+        }
+
+        @Override
+        public int getLightOpacity(BlockMD blockMD, int localX, int y, int localZ)
+        {
+            if (blockMD.isAir())
+            {
+                return 0;
+            }
+            return (blockMD == water || blockMD == leaves) ? 1 : 255;
+        }
+
+        @Override
+        public boolean canBlockSeeTheSky(int x, int y, int z)
+        {
+            return !dimension.hasNoSky && y >= heights[(z << 4) + x];
+        }
+
+        @Override
+        public boolean hasChunk()
+        {
+            return true;
+        }
+
+        @Override
+        public int getActualHeight()
+        {
+            return dimension.actualHeight;
+        }
+
+        @Override
+        public Boolean getHasNoSky()
+        {
+            return dimension.hasNoSky;
+        }
+
+        @Override
+        public int getDimension()
+        {
+            return dimension.id;
+        }
+    }
+}
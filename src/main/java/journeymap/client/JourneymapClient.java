@@ -495,6 +495,10 @@ public class JourneymapClient implements CommonProxy
         WorldData.dimNames.clear();
         loadConfigProperties();
         DataCache.instance().purge();
+        if (chunkRenderController != null)
+        {
+            chunkRenderController.shutdown();
+        }
         chunkRenderController = new ChunkRenderController();
         Fullscreen.state().requireRefresh();
         Fullscreen.state().follow.set(true);
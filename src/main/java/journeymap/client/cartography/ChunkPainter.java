@@ -9,15 +9,14 @@ import journeymap.common.Journeymap;
 
 import java.awt.AlphaComposite;
 import java.awt.Color;
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Wraps arrays used to set colors and alphas for a chunk image,
- * does the actual update on Graphics2D in a single method to
+ * Wraps arrays used to set colors for a chunk image, and writes the painted
+ * pixels straight into a region image's raster in a single method to
  * try to be as efficient as possible.
  */
 public class ChunkPainter
@@ -27,17 +26,36 @@ public class ChunkPainter
     public static final int COLOR_VOID = RGB.toInteger(17, 12, 25);
     protected static volatile AtomicLong badBlockCount = new AtomicLong(0);
 
-    private final Graphics2D g2D;
-    private final BufferedImage img;
-    private final int[] pixels;
+    private static final int FULL_ROW = 0xFFFF;
 
-    public ChunkPainter(BufferedImage buffer, Graphics2D g2D)
+    private final int[] pixels = new int[256];
+
+    /**
+     * One int per row, with a bit set for each pixel painted.
+     */
+    private final int[] paintedRows = new int[16];
+
+    public ChunkPainter()
+    {
+    }
+
+    /**
+     * Unpaint all pixels so the painter can be reused for another chunk.
+     */
+    public ChunkPainter reset()
     {
-        this.g2D = g2D;
-        this.g2D.setComposite(ALPHA_OPAQUE);
-        this.img = buffer;
-        this.pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
-        Arrays.fill(this.pixels, 0);
+        Arrays.fill(pixels, 0);
+        Arrays.fill(paintedRows, 0);
+        return this;
+    }
+
+    /**
+     * Replace everything painted with what was painted by the other painter.
+     */
+    public void copyFrom(ChunkPainter other)
+    {
+        System.arraycopy(other.pixels, 0, pixels, 0, pixels.length);
+        System.arraycopy(other.paintedRows, 0, paintedRows, 0, paintedRows.length);
     }
 
     /**
@@ -58,6 +76,7 @@ public class ChunkPainter
     public void paintBlock(final int x, final int z, final int color)
     {
         pixels[z * 16 + x] = 0xFF000000 | color;
+        paintedRows[z] |= 1 << x;
     }
 
     /**
@@ -89,17 +108,55 @@ public class ChunkPainter
     }
 
     /**
-     * Paint the blocks.  ChunkPainter can't be used after calling.
+     * Write the painted pixels into the image at x,y, leaving unpainted ones as they were.
+     * Callers must hold whatever lock guards the image.
      */
-    public void finishPainting()
+    public void writeTo(BufferedImage image, int x, int y)
     {
-        try
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB && image.getRaster().getParent() == null
+                && image.getRaster().getDataBuffer() instanceof DataBufferInt)
         {
-            g2D.drawImage(img, 0, 0, null);
-        } finally
+            final int[] dest = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            final int scanSize = image.getWidth();
+            for (int z = 0; z < 16; z++)
+            {
+                final int row = paintedRows[z];
+                if (row == 0)
+                {
+                    continue;
+                }
+
+                final int srcPos = z * 16;
+                final int destPos = (y + z) * scanSize + x;
+                if (row == FULL_ROW)
+                {
+                    System.arraycopy(pixels, srcPos, dest, destPos, 16);
+                }
+                else
+                {
+                    for (int i = 0; i < 16; i++)
+                    {
+                        if ((row & (1 << i)) != 0)
+                        {
+                            dest[destPos + i] = pixels[srcPos + i];
+                        }
+                    }
+                }
+            }
+        }
+        else
         {
-            g2D.dispose();
+            for (int z = 0; z < 16; z++)
+            {
+                final int row = paintedRows[z];
+                for (int i = 0; row != 0 && i < 16; i++)
+                {
+                    if ((row & (1 << i)) != 0)
+                    {
+                        image.setRGB(x + i, y + z, pixels[z * 16 + i]);
+                    }
+                }
+            }
         }
     }
-
 }
@@ -6,188 +6,318 @@
 package journeymap.client.cartography;
 
 import journeymap.client.JourneymapClient;
-import journeymap.client.cartography.render.CaveRenderer;
-import journeymap.client.cartography.render.EndRenderer;
-import journeymap.client.cartography.render.NetherRenderer;
-import journeymap.client.cartography.render.SurfaceRenderer;
-import journeymap.client.cartography.render.TopoRenderer;
-import journeymap.client.io.RegionImageHandler;
+import journeymap.client.data.DataCache;
 import journeymap.client.log.LogFormatter;
-import journeymap.client.model.*;
+import journeymap.client.model.ChunkMD;
+import journeymap.client.model.MapType;
+import journeymap.client.model.RegionCoord;
+import journeymap.client.properties.CoreProperties;
 import journeymap.common.Journeymap;
-import org.apache.logging.log4j.Level;
+import journeymap.common.thread.JMThreadFactory;
+import net.minecraft.world.ChunkCoordIntPair;
+import org.apache.logging.log4j.Logger;
 
-import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Delegates rendering job to one or more renderer.
+ * Spreads chunk rendering across a pool of ChunkRenderWorkers.
+ * <p/>
+ * The calling thread always renders alongside the pooled threads.  All of them pull chunk
+ * coordinates from a shared queue until it is empty, so faster workers pick up the slack of slower ones.
+ * Each ChunkRenderWorker owns its renderers, Strata and paint buffers; results are merged into
+ * the RegionImageSet by the worker that rendered the chunk.
+ * <p/>
+ * Chunks are skipped when their fingerprint matches the one they were last rendered with.  The fingerprint covers
+ * the chunk's content, the content of the neighbors its slopes are shaded from, the mapping options, and the
+ * controller itself, since a new controller is made whenever mapping (re)starts.
  *
  * @author techbrew
  */
 public class ChunkRenderController
 {
-    private final IChunkRenderer netherRenderer;
-    private final IChunkRenderer endRenderer;
-    private final SurfaceRenderer overWorldSurfaceRenderer;
-    private final IChunkRenderer overWorldCaveRenderer;
-    private final TopoRenderer overWorldTopoRenderer;
-    private final BufferedImage reusableBuffer1;
-    private final BufferedImage reusableBuffer2;
-    private final BufferedImage reusableBuffer3;
-    private final BufferedImage reusableBuffer4;
+    private static final Logger logger = Journeymap.getLogger();
+    private static final int IDLE_SECONDS = 30;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final AtomicInteger generations = new AtomicInteger();
+
+    /**
+     * Offsets of the neighbors read when shading slopes: west, north and northwest for surface and caves,
+     * plus east, south and southeast for topo, which compares heights on all four sides.
+     */
+    private static final int[][] neighborOffsets = {{-1, 0}, {0, -1}, {-1, -1}, {1, 0}, {0, 1}, {1, 1}};
+
+    private final int workerCount;
+    private final BlockingQueue<ChunkRenderWorker> idleWorkers;
+    private final ThreadPoolExecutor executor;
+    private final long generation = generations.incrementAndGet() * GOLDEN_GAMMA;
 
     public ChunkRenderController()
     {
-        netherRenderer = new NetherRenderer();
-        endRenderer = new EndRenderer();
-        SurfaceRenderer surfaceRenderer = new SurfaceRenderer();
-        overWorldSurfaceRenderer = surfaceRenderer;
-        overWorldCaveRenderer = new CaveRenderer(surfaceRenderer);
-        //standardRenderer = new ChunkTopoRenderer();
-        overWorldTopoRenderer = new TopoRenderer();
-        reusableBuffer1 = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
-        reusableBuffer2 = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
-        reusableBuffer3 = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
-        reusableBuffer4 = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        this(getConfiguredWorkerCount());
+    }
+
+    public ChunkRenderController(int workerCount)
+    {
+        this.workerCount = Math.max(1, workerCount);
+        this.idleWorkers = new ArrayBlockingQueue<ChunkRenderWorker>(this.workerCount);
+        for (int i = 0; i < this.workerCount; i++)
+        {
+            idleWorkers.add(new ChunkRenderWorker());
+        }
+
+        if (this.workerCount > 1)
+        {
+            // The calling thread is one of the workers, so the pool only needs the rest
+            int poolSize = this.workerCount - 1;
+            executor = new ThreadPoolExecutor(poolSize, poolSize, IDLE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new JMThreadFactory("render"));
+            executor.allowCoreThreadTimeOut(true);
+        }
+        else
+        {
+            executor = null;
+        }
     }
 
-    public boolean renderChunk(RegionCoord rCoord, MapType mapType, ChunkMD chunkMd)
+    /**
+     * Number of render workers per the core properties, where 0 means one less than the available processors.
+     */
+    public static int getConfiguredWorkerCount()
     {
-        if(!JourneymapClient.getInstance().isMapping())
+        int workers = JourneymapClient.getCoreProperties().renderThreads.get();
+        if (workers <= 0)
         {
-            return false;
+            workers = Runtime.getRuntime().availableProcessors() - 1;
         }
+        return Math.max(1, workers);
+    }
 
-        ChunkPainter undergroundG2D = null;
-        ChunkPainter dayG2D = null;
-        ChunkPainter nightG2D = null;
-        ChunkPainter topoG2D = null;
-        boolean renderOkay = false;
+    public int getWorkerCount()
+    {
+        return workerCount;
+    }
 
+    /**
+     * Render a single chunk on the calling thread.
+     */
+    public boolean renderChunk(RegionCoord rCoord, MapType mapType, ChunkMD chunkMd) throws InterruptedException
+    {
+        ChunkRenderWorker worker = idleWorkers.take();
         try
         {
-            RegionImageSet regionImageSet = RegionImageCache.instance().getRegionImageSet(rCoord);
-            if (mapType.isUnderground())
-            {
-                BufferedImage image = regionImageSet.getChunkImage(chunkMd, mapType);
-                if (image != null)
-                {
-                    undergroundG2D = new ChunkPainter(reusableBuffer1, RegionImageHandler.initRenderingHints(image.createGraphics()));
-                    switch (rCoord.dimension)
-                    {
-                        case -1:
-                        {
-                            renderOkay = netherRenderer.render(undergroundG2D, chunkMd, mapType.vSlice);
-                            break;
-                        }
-                        case 1:
-                        {
-                            renderOkay = endRenderer.render(undergroundG2D, chunkMd, mapType.vSlice);
-                            break;
-                        }
-                        default:
-                        {
-                            renderOkay = overWorldCaveRenderer.render(undergroundG2D, chunkMd, mapType.vSlice);
-                        }
-                    }
+            return worker.renderChunk(rCoord, mapType, chunkMd);
+        }
+        finally
+        {
+            idleWorkers.offer(worker);
+        }
+    }
 
-                    if (renderOkay)
-                    {
-                        regionImageSet.setChunkImage(chunkMd, mapType, image);
-                    }
-                }
-            }
-            else if (mapType.isTopo())
+    /**
+     * Render the chunks across all workers, blocking until they are done.
+     *
+     * @return the number of chunks which were available to be rendered
+     */
+    public int renderChunks(File jmWorldDir, MapType mapType, Collection<ChunkCoordIntPair> chunkCoords) throws InterruptedException
+    {
+        return renderChunks(jmWorldDir, mapType, chunkCoords, workerCount);
+    }
+
+    /**
+     * Render the chunks using at most maxWorkers workers, blocking until they are done.
+     * With maxWorkers of 1 the chunks are all rendered on the calling thread.
+     *
+     * @return the number of chunks which were available to be rendered
+     */
+    public int renderChunks(File jmWorldDir, MapType mapType, Collection<ChunkCoordIntPair> chunkCoords, int maxWorkers) throws InterruptedException
+    {
+        final Queue<ChunkCoordIntPair> pending = new ConcurrentLinkedQueue<ChunkCoordIntPair>(chunkCoords);
+        final AtomicInteger count = new AtomicInteger(0);
+        final long seed = mix(generation, getOptionsFingerprint(JourneymapClient.getCoreProperties()));
+
+        int helpers = (executor == null) ? 0 : Math.min(Math.min(workerCount, maxWorkers) - 1, pending.size() - 1);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(Math.max(0, helpers));
+        try
+        {
+            for (int i = 0; i < helpers; i++)
             {
-                MapType topoMapType = MapType.topo(rCoord.dimension);
-                BufferedImage imageTopo = regionImageSet.getChunkImage(chunkMd, topoMapType);
-                if (imageTopo != null)
-                {
-                    topoG2D = new ChunkPainter(reusableBuffer4, RegionImageHandler.initRenderingHints(imageTopo.createGraphics()));
-                    renderOkay = overWorldTopoRenderer.render(topoG2D, chunkMd, null);
-                    if (renderOkay)
-                    {
-                        regionImageSet.setChunkImage(chunkMd, topoMapType, imageTopo);
-                    }
-                }
+                futures.add(executor.submit(new RenderJob(jmWorldDir, mapType, pending, count, seed)));
             }
-            else
-            {
-                BufferedImage imageDay = regionImageSet.getChunkImage(chunkMd, MapType.day(rCoord.dimension));
-                BufferedImage imageNight = regionImageSet.getChunkImage(chunkMd, MapType.night(rCoord.dimension));
 
-                if (imageDay != null)
+            new RenderJob(jmWorldDir, mapType, pending, count, seed).call();
+
+            for (Future<Void> future : futures)
+            {
+                try
                 {
-                    dayG2D = new ChunkPainter(reusableBuffer2, RegionImageHandler.initRenderingHints(imageDay.createGraphics()));
+                    future.get();
                 }
-
-                if (imageNight != null)
+                catch (ExecutionException e)
                 {
-                    nightG2D = new ChunkPainter(reusableBuffer3, RegionImageHandler.initRenderingHints(imageNight.createGraphics()));
+                    logger.error("Unexpected error in render worker: {}", LogFormatter.toString(e.getCause()));
                 }
+            }
+        }
+        finally
+        {
+            for (Future<Void> future : futures)
+            {
+                future.cancel(true);
+            }
+        }
 
-                renderOkay = dayG2D != null && overWorldSurfaceRenderer.render(dayG2D, nightG2D, chunkMd);
+        return count.get();
+    }
 
-                if (renderOkay)
-                {
-                    regionImageSet.setChunkImage(chunkMd, MapType.day(rCoord.dimension), imageDay);
-                    regionImageSet.setChunkImage(chunkMd, MapType.night(rCoord.dimension), imageNight);
+    /**
+     * Fingerprint of everything which affects the chunk's rendered image.  Never 0.
+     *
+     * @param seed mixed into the fingerprint, so changing it invalidates all fingerprints
+     */
+    public static long getFingerprint(ChunkMD chunkMd, long seed)
+    {
+        long fingerprint = mix(seed, chunkMd.getContentHash());
+        int chunkX = chunkMd.getCoord().chunkXPos;
+        int chunkZ = chunkMd.getCoord().chunkZPos;
+        for (int[] offset : neighborOffsets)
+        {
+            // A neighbor that isn't loaded yet hashes to 0, so the chunk is rendered again once it is
+            ChunkMD neighbor = DataCache.instance().getChunkMD(ChunkCoordIntPair.chunkXZ2Int(chunkX + offset[0], chunkZ + offset[1]));
+            fingerprint = mix(fingerprint, (neighbor != null && neighbor.hasChunk()) ? neighbor.getContentHash() : 0);
+        }
+        return (fingerprint == 0) ? 1 : fingerprint;
+    }
 
-                    MapType topoMapType = MapType.topo(rCoord.dimension);
-                    BufferedImage imageTopo = regionImageSet.getChunkImage(chunkMd, topoMapType);
-                    if (imageTopo != null)
-                    {
-                        topoG2D = new ChunkPainter(reusableBuffer4, RegionImageHandler.initRenderingHints(imageTopo.createGraphics()));
-                        if (overWorldTopoRenderer.render(topoG2D, chunkMd, null))
-                        {
-                            regionImageSet.setChunkImage(chunkMd, topoMapType, imageTopo);
-                        }
-                    }
-                }
-            }
+    /**
+     * Fingerprint of the current mapping options, which changes whenever chunks would render differently.
+     */
+    public static long getOptionsFingerprint()
+    {
+        return getOptionsFingerprint(JourneymapClient.getCoreProperties());
+    }
+
+    /**
+     * Fingerprint of the mapping options and block colors, which changes whenever saved map images would
+     * come out differently if mapped again.
+     */
+    public static long getImageFingerprint()
+    {
+        return mix(getOptionsFingerprint(), ColorManager.instance().getPaletteFingerprint());
+    }
 
-            if (renderOkay)
+    /**
+     * The mapping options which change how chunks are rendered, one bit each, followed by the cave slice range.
+     */
+    private static long getOptionsFingerprint(CoreProperties coreProperties)
+    {
+        AtomicBoolean[] options = {coreProperties.caveIgnoreGlass, coreProperties.mapAntialiasing,
+                coreProperties.mapBathymetry, coreProperties.mapCaveLighting, coreProperties.mapCrops,
+                coreProperties.mapPlants, coreProperties.mapPlantShadows, coreProperties.mapSurfaceAboveCaves,
+                coreProperties.mapTransparency};
+        long bits = 0;
+        for (int i = 0; i < options.length; i++)
+        {
+            if (options[i].get())
             {
-                chunkMd.setRendered();
+                bits |= 1L << i;
             }
         }
-        catch (ArrayIndexOutOfBoundsException e)
+        return bits | ((long) coreProperties.caveSliceRange.get() << options.length);
+    }
+
+    private static long mix(long hash, long value)
+    {
+        hash = (hash ^ value) * GOLDEN_GAMMA;
+        return hash ^ (hash >>> 32);
+    }
+
+    /**
+     * Stops the worker threads.  Renders already underway are allowed to finish.
+     */
+    public void shutdown()
+    {
+        if (executor != null)
         {
-            Journeymap.getLogger().log(Level.WARN, LogFormatter.toString(e));
-            return false; // Can happen when server isn't connected, just wait for next tick
+            executor.shutdown();
         }
-        catch (Throwable t)
+    }
+
+    /**
+     * Claims an idle ChunkRenderWorker and renders chunks from the shared queue until it's empty.
+     */
+    class RenderJob implements Callable<Void>
+    {
+        final File jmWorldDir;
+        final MapType mapType;
+        final Queue<ChunkCoordIntPair> pending;
+        final AtomicInteger count;
+        final long seed;
+
+        RenderJob(File jmWorldDir, MapType mapType, Queue<ChunkCoordIntPair> pending, AtomicInteger count, long seed)
         {
-            Journeymap.getLogger().error("Unexpected error in ChunkRenderController: {}", LogFormatter.toString(t));
+            this.jmWorldDir = jmWorldDir;
+            this.mapType = mapType;
+            this.pending = pending;
+            this.count = count;
+            this.seed = seed;
         }
-        finally
+
+        @Override
+        public Void call() throws InterruptedException
         {
-            if (dayG2D != null)
-            {
-                dayG2D.finishPainting();
-            }
-            if (nightG2D != null)
-            {
-                nightG2D.finishPainting();
-            }
-            if (undergroundG2D != null)
-            {
-                undergroundG2D.finishPainting();
-            }
-            if (topoG2D != null)
+            ChunkRenderWorker worker = idleWorkers.take();
+            try
             {
-                topoG2D.finishPainting();
-            }
-        }
+                JourneymapClient jm = JourneymapClient.getInstance();
+                ChunkCoordIntPair coord;
+                while ((coord = pending.poll()) != null)
+                {
+                    if (!jm.isMapping())
+                    {
+                        return null;
+                    }
 
-        if (!renderOkay)
-        {
-            if (Journeymap.getLogger().isDebugEnabled())
+                    if (Thread.interrupted())
+                    {
+                        throw new InterruptedException();
+                    }
+
+                    ChunkMD chunkMd = DataCache.instance().getChunkMD(ChunkCoordIntPair.chunkXZ2Int(coord.chunkXPos, coord.chunkZPos));
+                    if (chunkMd != null && chunkMd.hasChunk())
+                    {
+                        try
+                        {
+                            RegionCoord rCoord = RegionCoord.fromChunkPos(jmWorldDir, mapType, chunkMd.getCoord().chunkXPos, chunkMd.getCoord().chunkZPos);
+                            worker.renderChunk(rCoord, mapType, chunkMd, getFingerprint(chunkMd, seed));
+                            count.incrementAndGet();
+                        }
+                        catch (Throwable t)
+                        {
+                            logger.warn("Error rendering chunk {}: {}", chunkMd, t.getMessage());
+                        }
+                    }
+                }
+                return null;
+            }
+            finally
             {
-                Journeymap.getLogger().debug("Chunk render failed: %s / %s / %s", rCoord, chunkMd, mapType);
+                idleWorkers.offer(worker);
             }
         }
-
-        return renderOkay;
     }
 }
@@ -0,0 +1,212 @@
+/*
+ * JourneyMap Mod <journeymap.info> for Minecraft
+ * Copyright (c) 2011-2017  Techbrew Interactive, LLC <techbrew.net>.  All Rights Reserved.
+ */
+
+package journeymap.client.cartography;
+
+import journeymap.client.JourneymapClient;
+import journeymap.client.cartography.render.CaveRenderer;
+import journeymap.client.cartography.render.EndRenderer;
+import journeymap.client.cartography.render.NetherRenderer;
+import journeymap.client.cartography.render.SurfaceRenderer;
+import journeymap.client.cartography.render.TopoRenderer;
+import journeymap.client.log.LogFormatter;
+import journeymap.client.model.*;
+import journeymap.common.Journeymap;
+import org.apache.logging.log4j.Level;
+
+/**
+ * Delegates rendering job to one or more renderer.  Each worker owns its renderers
+ * and paint buffers, so it must only be used by one thread at a time.
+ *
+ * @author techbrew
+ */
+public class ChunkRenderWorker
+{
+    private final CaveRenderer netherRenderer;
+    private final IChunkRenderer endRenderer;
+    private final SurfaceRenderer overWorldSurfaceRenderer;
+    private final CaveRenderer overWorldCaveRenderer;
+    private final TopoRenderer overWorldTopoRenderer;
+    private final ChunkPainter undergroundPainter = new ChunkPainter();
+    private final ChunkPainter dayPainter = new ChunkPainter();
+    private final ChunkPainter nightPainter = new ChunkPainter();
+    private final ChunkPainter topoPainter = new ChunkPainter();
+    private final ChunkPainter[] slicePainters = new ChunkPainter[16];
+    private final boolean[] sliceOk = new boolean[16];
+
+    public ChunkRenderWorker()
+    {
+        netherRenderer = new NetherRenderer();
+        endRenderer = new EndRenderer();
+        SurfaceRenderer surfaceRenderer = new SurfaceRenderer();
+        overWorldSurfaceRenderer = surfaceRenderer;
+        overWorldCaveRenderer = new CaveRenderer(surfaceRenderer);
+        //standardRenderer = new ChunkTopoRenderer();
+        overWorldTopoRenderer = new TopoRenderer();
+        for (int i = 0; i < slicePainters.length; i++)
+        {
+            slicePainters[i] = new ChunkPainter();
+        }
+    }
+
+    public boolean renderChunk(RegionCoord rCoord, MapType mapType, ChunkMD chunkMd)
+    {
+        return renderChunk(rCoord, mapType, chunkMd, 0);
+    }
+
+    /**
+     * Render the chunk unless its image was already rendered from content with the same fingerprint.
+     *
+     * @param fingerprint from ChunkRenderController.getFingerprint, or 0 to always render
+     * @return true if the chunk image is current
+     */
+    public boolean renderChunk(RegionCoord rCoord, MapType mapType, ChunkMD chunkMd, long fingerprint)
+    {
+        if(!JourneymapClient.getInstance().isMapping())
+        {
+            return false;
+        }
+
+        boolean renderOkay = false;
+        RegionImageSet regionImageSet = null;
+
+        try
+        {
+            regionImageSet = RegionImageCache.instance().getRegionImageSetForUpdate(rCoord);
+            if (regionImageSet.isChunkCurrent(chunkMd, mapType, fingerprint))
+            {
+                chunkMd.setRendered(mapType);
+                return true;
+            }
+
+            final int sliceRange = JourneymapClient.getCoreProperties().caveSliceRange.get();
+            if (mapType.isUnderground() && sliceRange > 0 && rCoord.dimension != 1)
+            {
+                renderOkay = renderCaveSlices(regionImageSet, rCoord, mapType, chunkMd, sliceRange, fingerprint);
+            }
+            else if (mapType.isUnderground())
+            {
+                ChunkPainter undergroundG2D = undergroundPainter.reset();
+                switch (rCoord.dimension)
+                {
+                    case -1:
+                    {
+                        renderOkay = netherRenderer.render(undergroundG2D, chunkMd, mapType.vSlice);
+                        break;
+                    }
+                    case 1:
+                    {
+                        renderOkay = endRenderer.render(undergroundG2D, chunkMd, mapType.vSlice);
+                        break;
+                    }
+                    default:
+                    {
+                        renderOkay = overWorldCaveRenderer.render(undergroundG2D, chunkMd, mapType.vSlice);
+                    }
+                }
+
+                if (renderOkay)
+                {
+                    regionImageSet.setChunkImage(chunkMd, mapType, undergroundG2D);
+                    regionImageSet.setChunkFingerprint(chunkMd, mapType, fingerprint);
+                }
+            }
+            else if (mapType.isTopo())
+            {
+                MapType topoMapType = MapType.topo(rCoord.dimension);
+                ChunkPainter topoG2D = topoPainter.reset();
+                renderOkay = overWorldTopoRenderer.render(topoG2D, chunkMd, null);
+                if (renderOkay)
+                {
+                    regionImageSet.setChunkImage(chunkMd, topoMapType, topoG2D);
+                    regionImageSet.setChunkFingerprint(chunkMd, topoMapType, fingerprint);
+                }
+            }
+            else
+            {
+                // Day, night and topo in one pass
+                ChunkPainter dayG2D = dayPainter.reset();
+                ChunkPainter nightG2D = nightPainter.reset();
+                ChunkPainter topoG2D = topoPainter.reset();
+                renderOkay = overWorldSurfaceRenderer.render(dayG2D, nightG2D, topoG2D, overWorldTopoRenderer, chunkMd);
+
+                if (renderOkay)
+                {
+                    MapType topoMapType = MapType.topo(rCoord.dimension);
+                    regionImageSet.setChunkImage(chunkMd, MapType.day(rCoord.dimension), dayG2D);
+                    regionImageSet.setChunkImage(chunkMd, MapType.night(rCoord.dimension), nightG2D);
+                    regionImageSet.setChunkImage(chunkMd, topoMapType, topoG2D);
+                    regionImageSet.setChunkFingerprint(chunkMd, mapType, fingerprint);
+                    regionImageSet.setChunkFingerprint(chunkMd, topoMapType, fingerprint);
+                }
+            }
+
+            if (renderOkay)
+            {
+                chunkMd.setRendered(mapType);
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException e)
+        {
+            Journeymap.getLogger().log(Level.WARN, LogFormatter.toString(e));
+            return false; // Can happen when server isn't connected, just wait for next tick
+        }
+        catch (Throwable t)
+        {
+            Journeymap.getLogger().error("Unexpected error in ChunkRenderWorker: {}", LogFormatter.toString(t));
+        }
+        finally
+        {
+            if (regionImageSet != null)
+            {
+                regionImageSet.unpin();
+            }
+        }
+
+        if (!renderOkay)
+        {
+            if (Journeymap.getLogger().isDebugEnabled())
+            {
+                Journeymap.getLogger().debug("Chunk render failed: %s / %s / %s", rCoord, chunkMd, mapType);
+            }
+        }
+
+        return renderOkay;
+    }
+
+    /**
+     * Render the slices within sliceRange of the map type's slice in one pass, and write each one that
+     * painted into its region image.
+     *
+     * @return whether the map type's own slice painted
+     */
+    private boolean renderCaveSlices(RegionImageSet regionImageSet, RegionCoord rCoord, MapType mapType, ChunkMD chunkMd, int sliceRange, long fingerprint)
+    {
+        final int vSlice = mapType.vSlice;
+        final int topSlice = Math.max(vSlice, (chunkMd.getActualHeight() - 1) >> 4);
+        final int minSlice = Math.max(0, vSlice - sliceRange);
+        final int maxSlice = Math.min(Math.min(topSlice, slicePainters.length - 1), vSlice + sliceRange);
+
+        for (int slice = minSlice; slice <= maxSlice; slice++)
+        {
+            slicePainters[slice].reset();
+            sliceOk[slice] = false;
+        }
+
+        CaveRenderer caveRenderer = (rCoord.dimension == -1) ? netherRenderer : overWorldCaveRenderer;
+        caveRenderer.renderSlices(slicePainters, sliceOk, chunkMd, minSlice, maxSlice);
+
+        for (int slice = minSlice; slice <= maxSlice; slice++)
+        {
+            if (sliceOk[slice])
+            {
+                MapType sliceMapType = MapType.underground(slice, rCoord.dimension);
+                regionImageSet.setChunkImage(chunkMd, sliceMapType, slicePainters[slice]);
+                regionImageSet.setChunkFingerprint(chunkMd, sliceMapType, fingerprint);
+            }
+        }
+        return sliceOk[vSlice];
+    }
+}
@@ -32,6 +32,7 @@ public class ColorManager
     private final IColorHelper colorHelper = forgeHelper.getColorHelper();
     private String lastResourcePackNames;
     private String lastModNames;
+    private volatile long paletteFingerprint;
 
     public static ColorManager instance()
     {
@@ -103,6 +104,8 @@ public class ColorManager
             // Free memory once colors are loaded into BlockMDs and BlockSpriteMD
             colorHelper.clearBlocksTexture();
 
+            paletteFingerprint = computePaletteFingerprint(currentResourcePackNames, currentModNames);
+
             if (isMapping)
             {
                 JourneymapClient.getInstance().startMapping();
@@ -114,6 +117,28 @@ public class ColorManager
         }
     }
 
+    /**
+     * Fingerprint of the resource packs, mods and block colors in use, which changes whenever blocks
+     * would be colored differently, including when the color palette file has been edited.
+     */
+    public long getPaletteFingerprint()
+    {
+        return paletteFingerprint;
+    }
+
+    private static long computePaletteFingerprint(String resourcePackNames, String modNames)
+    {
+        // Summed so the order blocks are registered in doesn't matter
+        long colors = 0;
+        for (BlockMD blockMD : BlockMD.getAll())
+        {
+            long hash = (31L * String.valueOf(blockMD.getUid()).hashCode() + blockMD.getMeta()) << 32;
+            hash ^= (blockMD.getColor() * 31L) + Float.floatToIntBits(blockMD.getAlpha());
+            colors += hash * 0x9E3779B97F4A7C15L;
+        }
+        return (((31L * resourcePackNames.hashCode()) + modNames.hashCode()) * 31L) + colors;
+    }
+
     /**
      * Load color palette.  Needs to be called on the main thread
      * so the texture atlas can be loaded.
@@ -11,7 +11,7 @@ public interface IChunkRenderer
 {
     public boolean render(final ChunkPainter g2D, final ChunkMD chunkStub, final Integer vSlice);
 
-    public void setStratumColors(Stratum stratum, int lightAttenuation, Integer waterColor, boolean waterAbove, boolean underground, boolean mapCaveLighting);
+    public void setStratumColors(Stratum stratum, int lightAttenuation, int waterColor, boolean waterAbove, boolean underground, boolean mapCaveLighting);
 
     public int getAmbientColor();
 
@@ -11,31 +11,38 @@ import journeymap.client.model.BlockMD;
 import journeymap.client.model.ChunkMD;
 import journeymap.common.Journeymap;
 
-import java.util.Stack;
+import java.util.Arrays;
 
 /**
  * Stack of Stratum with simplistic object pooling to avoid heap thrash, since Stratum are used quite a bit.
+ * The pool is an array whose first {@link #size} entries are in use, so pushing and releasing allocate nothing
+ * once it has grown to fit the deepest column.  Not thread-safe: each renderer owns its own Strata.
  */
 public class Strata
 {
+    /**
+     * Value of the int fields here and in Stratum when they haven't been set.
+     */
+    public static final int UNSET = Integer.MIN_VALUE;
+
     final String name;
     final int initialPoolSize;
     final int poolGrowthIncrement;
     private final boolean underground;
     private boolean mapCaveLighting = JourneymapClient.getCoreProperties().mapCaveLighting.get();
-    private Integer topY = null;
-    private Integer bottomY = null;
-    private Integer topWaterY = null;
-    private Integer bottomWaterY = null;
-    private Integer maxLightLevel = null;
-    private Integer waterColor = null;
-    private Integer renderDayColor = null;
-    private Integer renderNightColor = null;
-    private Integer renderCaveColor = null;
+    private int topY = UNSET;
+    private int bottomY = UNSET;
+    private int topWaterY = UNSET;
+    private int bottomWaterY = UNSET;
+    private int maxLightLevel = UNSET;
+    private int waterColor = UNSET;
+    private int renderDayColor = UNSET;
+    private int renderNightColor = UNSET;
+    private int renderCaveColor = UNSET;
     private int lightAttenuation = 0;
     private boolean blocksFound = false;
-    private Stack<Stratum> unusedStack = new Stack<Stratum>();
-    private Stack<Stratum> stack = new Stack<Stratum>();
+    private Stratum[] pool = new Stratum[0];
+    private int size = 0;
 
     public Strata(String name, int initialPoolSize, int poolGrowthIncrement, boolean underground)
     {
@@ -48,44 +55,50 @@ public class Strata
 
     private Stratum allocate()
     {
-        if (unusedStack.isEmpty())
+        if (size == pool.length)
         {
-            int amount = stack.isEmpty() ? initialPoolSize : poolGrowthIncrement;
+            int amount = size == 0 ? initialPoolSize : poolGrowthIncrement;
             growFreePool(amount);
-            Journeymap.getLogger().debug("Grew Strata pool for '{}' by '{}'. Free: {}, Used: {}", name, amount, unusedStack.size(), stack.size());
+            Journeymap.getLogger().debug("Grew Strata pool for '{}' by '{}'. Free: {}, Used: {}", name, amount, pool.length - size, size);
         }
 
-        stack.push(unusedStack.pop());
-        return stack.peek();
+        return pool[size++];
     }
 
     private void growFreePool(int amount)
     {
-        for (int i = 0; i < amount; i++)
+        int oldLength = pool.length;
+        pool = Arrays.copyOf(pool, oldLength + Math.max(1, amount));
+        for (int i = oldLength; i < pool.length; i++)
         {
-            unusedStack.push(new Stratum());
+            pool[i] = new Stratum();
         }
     }
 
+    private Stratum peek()
+    {
+        return pool[size - 1];
+    }
+
     public void reset()
     {
-        setTopY(null);
-        setBottomY(null);
-        setTopWaterY(null);
-        setBottomWaterY(null);
-        setMaxLightLevel(null);
-        setWaterColor(null);
-        setRenderDayColor(null);
-        setRenderNightColor(null);
-        setRenderCaveColor(null);
+        setTopY(UNSET);
+        setBottomY(UNSET);
+        setTopWaterY(UNSET);
+        setBottomWaterY(UNSET);
+        setMaxLightLevel(UNSET);
+        setWaterColor(UNSET);
+        setRenderDayColor(UNSET);
+        setRenderNightColor(UNSET);
+        setRenderCaveColor(UNSET);
         setLightAttenuation(0);
         setBlocksFound(false);
 
         mapCaveLighting = JourneymapClient.getCoreProperties().mapCaveLighting.get();
 
-        while (!stack.isEmpty())
+        while (size > 0)
         {
-            release(stack.peek());
+            release(peek());
         }
     }
 
@@ -99,16 +112,19 @@ public class Strata
         else
         {
             stratum.clear();
-            unusedStack.add(0, stack.pop());
+            size--;
         }
     }
 
     public Stratum push(ChunkMD chunkMd, BlockMD blockMD, int x, int y, int z)
     {
-        return push(chunkMd, blockMD, x, y, z, null);
+        return push(chunkMd, blockMD, x, y, z, UNSET);
     }
 
-    public Stratum push(ChunkMD chunkMd, BlockMD blockMD, int x, int y, int z, Integer lightLevel)
+    /**
+     * @param lightLevel light level of the block, or UNSET to use the saved light value above it
+     */
+    public Stratum push(ChunkMD chunkMd, BlockMD blockMD, int x, int y, int z, int lightLevel)
     {
         try
         {
@@ -117,18 +133,18 @@ public class Strata
             stratum.set(chunkMd, blockMD, x, y, z, lightLevel);
 
             // Update Strata's basic data
-            setTopY((getTopY() == null) ? y : Math.max(getTopY(), y));
-            setBottomY((getBottomY() == null) ? y : Math.min(getBottomY(), y));
-            setMaxLightLevel((getMaxLightLevel() == null) ? stratum.getLightLevel() : Math.max(getMaxLightLevel(), stratum.getLightLevel()));
+            setTopY((getTopY() == UNSET) ? y : Math.max(getTopY(), y));
+            setBottomY((getBottomY() == UNSET) ? y : Math.min(getBottomY(), y));
+            setMaxLightLevel((getMaxLightLevel() == UNSET) ? stratum.getLightLevel() : Math.max(getMaxLightLevel(), stratum.getLightLevel()));
             setLightAttenuation(getLightAttenuation() + stratum.getLightOpacity());
             setBlocksFound(true);
 
             // Update Strata's water data
             if (blockMD.isWater())
             {
-                setTopWaterY((getTopWaterY() == null) ? y : Math.max(getTopWaterY(), y));
-                setBottomWaterY((getBottomWaterY() == null) ? y : Math.min(getBottomWaterY(), y));
-                if (getWaterColor() == null)
+                setTopWaterY((getTopWaterY() == UNSET) ? y : Math.max(getTopWaterY(), y));
+                setBottomWaterY((getBottomWaterY() == UNSET) ? y : Math.min(getBottomWaterY(), y));
+                if (getWaterColor() == UNSET)
                 {
                     setWaterColor(blockMD.getColor(chunkMd, chunkMd.toWorldX(x), y, chunkMd.toWorldZ(z)));
                 }
@@ -152,7 +168,7 @@ public class Strata
         Stratum stratum = null;
         try
         {
-            stratum = stack.peek();
+            stratum = peek();
             if (stratum.isUninitialized())
             {
                 throw new IllegalStateException("Stratum wasn't initialized for Strata.nextUp()");
@@ -161,7 +177,7 @@ public class Strata
             setLightAttenuation(Math.max(0, getLightAttenuation() - stratum.getLightOpacity()));
 
             // Skip middle water blocks
-            if (ignoreMiddleWater && stratum.isWater() && isWaterAbove(stratum) && !stack.isEmpty())
+            if (ignoreMiddleWater && stratum.isWater() && isWaterAbove(stratum) && size > 0)
             {
                 release(stratum);
                 return nextUp(renderer, true);
@@ -178,22 +194,22 @@ public class Strata
 
     int depth()
     {
-        return stack.isEmpty() ? 0 : getTopY() - getBottomY() + 1;
+        return size == 0 ? 0 : getTopY() - getBottomY() + 1;
     }
 
     public boolean isEmpty()
     {
-        return stack.isEmpty();
+        return size == 0;
     }
 
     boolean hasWater()
     {
-        return getTopWaterY() != null;
+        return getTopWaterY() != UNSET;
     }
 
     boolean isWaterAbove(Stratum stratum)
     {
-        return getTopWaterY() != null && getTopWaterY() > stratum.getY();
+        return getTopWaterY() != UNSET && getTopWaterY() > stratum.getY();
     }
 
     @Override
@@ -203,21 +219,25 @@ public class Strata
                 "name='" + name + '\'' +
                 ", initialPoolSize=" + initialPoolSize +
                 ", poolGrowthIncrement=" + poolGrowthIncrement +
-                ", stack=" + stack.size() +
-                ", unusedStack=" + unusedStack.size() +
-                ", stack=" + stack.size() +
+                ", used=" + size +
+                ", free=" + (pool.length - size) +
                 ", topY=" + getTopY() +
                 ", bottomY=" + getBottomY() +
                 ", topWaterY=" + getTopWaterY() +
                 ", bottomWaterY=" + getBottomWaterY() +
                 ", maxLightLevel=" + getMaxLightLevel() +
-                ", waterColor=" + RGB.toString(getWaterColor()) +
-                ", renderDayColor=" + RGB.toString(getRenderDayColor()) +
-                ", renderNightColor=" + RGB.toString(getRenderNightColor()) +
+                ", waterColor=" + colorString(getWaterColor()) +
+                ", renderDayColor=" + colorString(getRenderDayColor()) +
+                ", renderNightColor=" + colorString(getRenderNightColor()) +
                 ", lightAttenuation=" + getLightAttenuation() +
                 '}';
     }
 
+    private static String colorString(int rgb)
+    {
+        return rgb == UNSET ? "null" : RGB.toString(rgb);
+    }
+
     public boolean isMapCaveLighting()
     {
         return mapCaveLighting;
@@ -228,92 +248,92 @@ public class Strata
         return underground;
     }
 
-    public Integer getTopY()
+    public int getTopY()
     {
         return topY;
     }
 
-    public void setTopY(Integer topY)
+    public void setTopY(int topY)
     {
         this.topY = topY;
     }
 
-    public Integer getBottomY()
+    public int getBottomY()
     {
         return bottomY;
     }
 
-    public void setBottomY(Integer bottomY)
+    public void setBottomY(int bottomY)
     {
         this.bottomY = bottomY;
     }
 
-    public Integer getTopWaterY()
+    public int getTopWaterY()
     {
         return topWaterY;
     }
 
-    public void setTopWaterY(Integer topWaterY)
+    public void setTopWaterY(int topWaterY)
     {
         this.topWaterY = topWaterY;
     }
 
-    public Integer getBottomWaterY()
+    public int getBottomWaterY()
     {
         return bottomWaterY;
     }
 
-    public void setBottomWaterY(Integer bottomWaterY)
+    public void setBottomWaterY(int bottomWaterY)
     {
         this.bottomWaterY = bottomWaterY;
     }
 
-    public Integer getMaxLightLevel()
+    public int getMaxLightLevel()
     {
         return maxLightLevel;
     }
 
-    public void setMaxLightLevel(Integer maxLightLevel)
+    public void setMaxLightLevel(int maxLightLevel)
     {
         this.maxLightLevel = maxLightLevel;
     }
 
-    public Integer getWaterColor()
+    public int getWaterColor()
     {
         return waterColor;
     }
 
-    public void setWaterColor(Integer waterColor)
+    public void setWaterColor(int waterColor)
     {
         this.waterColor = waterColor;
     }
 
-    public Integer getRenderDayColor()
+    public int getRenderDayColor()
     {
         return renderDayColor;
     }
 
-    public void setRenderDayColor(Integer renderDayColor)
+    public void setRenderDayColor(int renderDayColor)
     {
         this.renderDayColor = renderDayColor;
     }
 
-    public Integer getRenderNightColor()
+    public int getRenderNightColor()
     {
         return renderNightColor;
     }
 
-    public void setRenderNightColor(Integer renderNightColor)
+    public void setRenderNightColor(int renderNightColor)
     {
         this.renderNightColor = renderNightColor;
     }
 
-    public Integer getRenderCaveColor()
+    public int getRenderCaveColor()
     {
         return renderCaveColor;
     }
 
-    public void setRenderCaveColor(Integer renderCaveColor)
+    public void setRenderCaveColor(int renderCaveColor)
     {
         this.renderCaveColor = renderCaveColor;
     }
@@ -29,9 +29,9 @@ public class Stratum
     private int lightLevel;
     private int lightOpacity;
     private boolean isWater;
-    private Integer dayColor;
-    private Integer nightColor;
-    private Integer caveColor;
+    private int dayColor = Strata.UNSET;
+    private int nightColor = Strata.UNSET;
+    private int caveColor = Strata.UNSET;
     private boolean uninitialized = true;
 
     Stratum()
@@ -39,7 +39,7 @@ public class Stratum
         this.id = IDGEN.incrementAndGet();
     }
 
-    Stratum set(ChunkMD chunkMd, BlockMD blockMD, int x, int y, int z, Integer lightLevel)
+    Stratum set(ChunkMD chunkMd, BlockMD blockMD, int x, int y, int z, int lightLevel)
     {
         if (chunkMd == null || blockMD == null)
         {
@@ -59,12 +59,12 @@ public class Stratum
             }
             else
             {
-                this.setLightLevel((lightLevel != null) ? lightLevel : chunkMd.getSavedLightValue(x, y + 1, z));
+                this.setLightLevel((lightLevel != Strata.UNSET) ? lightLevel : chunkMd.getSavedLightValue(x, y + 1, z));
             }
             this.setLightOpacity(chunkMd.getLightOpacity(blockMD, x, y, z));
-            setDayColor(null);
-            setNightColor(null);
-            setCaveColor(null);
+            setDayColor(Strata.UNSET);
+            setNightColor(Strata.UNSET);
+            setCaveColor(Strata.UNSET);
             this.uninitialized = false;
 
             // System.out.println("    SET " + this);
@@ -124,9 +124,9 @@ public class Stratum
                             ", lightLevel=" + getLightLevel() +
                             ", lightOpacity=" + getLightOpacity() +
                             ", isWater=" + isWater() +
-                            ", dayColor=" + (getDayColor() == null ? null : new Color(getDayColor())) +
-                            ", nightColor=" + (getNightColor() == null ? null : new Color(getNightColor())) +
-                            ", caveColor=" + (getCaveColor() == null ? null : new Color(getCaveColor())));
+                            ", dayColor=" + (getDayColor() == Strata.UNSET ? null : new Color(getDayColor())) +
+                            ", nightColor=" + (getNightColor() == Strata.UNSET ? null : new Color(getNightColor())) +
+                            ", caveColor=" + (getCaveColor() == Strata.UNSET ? null : new Color(getCaveColor())));
         }
         else
         {
@@ -214,32 +214,32 @@ public class Stratum
         this.isWater = isWater;
     }
 
-    public Integer getDayColor()
+    public int getDayColor()
     {
         return dayColor;
     }
 
-    public void setDayColor(Integer dayColor)
+    public void setDayColor(int dayColor)
     {
         this.dayColor = dayColor;
     }
 
-    public Integer getNightColor()
+    public int getNightColor()
     {
         return nightColor;
     }
 
-    public void setNightColor(Integer nightColor)
+    public void setNightColor(int nightColor)
     {
         this.nightColor = nightColor;
     }
 
-    public Integer getCaveColor()
+    public int getCaveColor()
     {
         return caveColor;
     }
 
-    public void setCaveColor(Integer caveColor)
+    public void setCaveColor(int caveColor)
     {
         this.caveColor = caveColor;
     }
@@ -260,9 +260,9 @@ public class Stratum
         this.setWater(false);
         this.setLightLevel(-1);
         this.setLightOpacity(-1);
-        setDayColor(null);
-        setNightColor(null);
-        setCaveColor(null);
+        setDayColor(Strata.UNSET);
+        setNightColor(Strata.UNSET);
+        setCaveColor(Strata.UNSET);
 
         // TODO REMOVE
         // System.out.println("CLEARED " + this);
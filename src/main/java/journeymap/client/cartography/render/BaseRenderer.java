@@ -6,11 +6,13 @@
 package journeymap.client.cartography.render;
 
 
-import com.google.common.cache.*;
+import com.google.common.cache.RemovalListener;
 import journeymap.client.JourneymapClient;
 import journeymap.client.cartography.IChunkRenderer;
 import journeymap.client.cartography.MutableChunkCoordIntPair;
 import journeymap.client.cartography.RGB;
+import journeymap.client.cartography.ShadingTable;
+import journeymap.client.cartography.Strata;
 import journeymap.client.cartography.Stratum;
 import journeymap.client.data.DataCache;
 import journeymap.client.model.BlockCoordIntPair;
@@ -23,10 +25,6 @@ import net.minecraft.world.ChunkCoordIntPair;
 import org.apache.commons.lang3.NotImplementedException;
 
 import java.awt.*;
-import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
 
 /**
  * Base class for methods reusable across renderers.
@@ -35,7 +33,7 @@ import java.util.HashMap;
  */
 public abstract class BaseRenderer implements IChunkRenderer, RemovalListener<ChunkCoordIntPair, ChunkMD>
 {
-    public static final String PROP_WATER_HEIGHT = "waterHeight";
+    public static final int PROP_WATER_HEIGHT = ColumnPropertiesCache.register("waterHeight");
     private static final MutableChunkCoordIntPair coordinates = new MutableChunkCoordIntPair(0, 0);
     protected static final AlphaComposite ALPHA_OPAQUE = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1F);
     protected static final int COLOR_BLACK = Color.black.getRGB();
@@ -43,7 +41,7 @@ public abstract class BaseRenderer implements IChunkRenderer, RemovalListener<Ch
     protected static final int DEFAULT_FOG = RGB.toInteger(0, 0, .1f);
     protected final DataCache dataCache = DataCache.instance();
     protected CoreProperties coreProperties;
-    protected BlockColumnPropertiesCache columnPropertiesCache = null;
+    protected ColumnPropertiesCache columnPropertiesCache = null;
     // Updated in updateOptions()
     protected boolean mapBathymetry;
     protected boolean mapTransparency;
@@ -55,8 +53,16 @@ public abstract class BaseRenderer implements IChunkRenderer, RemovalListener<Ch
     protected int ambientColor;
 
 
-    protected ArrayList<BlockCoordIntPair> primarySlopeOffsets = new ArrayList<BlockCoordIntPair>(3);
-    protected ArrayList<BlockCoordIntPair> secondarySlopeOffsets = new ArrayList<BlockCoordIntPair>(4);
+    protected BlockCoordIntPair[] primarySlopeOffsets = new BlockCoordIntPair[]{
+            new BlockCoordIntPair(0, -1), // North
+            new BlockCoordIntPair(-1, -1), // NorthWest
+            new BlockCoordIntPair(-1, 0)}; // West
+    protected BlockCoordIntPair[] secondarySlopeOffsets = new BlockCoordIntPair[]{
+            new BlockCoordIntPair(-1, -2), // North of NorthWest
+            new BlockCoordIntPair(-2, -1), // West of NorthWest
+            new BlockCoordIntPair(-2, -2), // NorthWest of NorthWest
+            new BlockCoordIntPair(-2, 0), // SouthWest of NorthWest
+            new BlockCoordIntPair(0, -2)}; // West of West
     protected String cachePrefix = "";
 
     // Need to go in properties
@@ -79,6 +85,11 @@ public abstract class BaseRenderer implements IChunkRenderer, RemovalListener<Ch
     protected int tweakNetherAmbientColor; // Range: int rgb
     protected int tweakEndAmbientColor; // Range: int rgb
 
+    // Lazy-built in ensureShadingTables()
+    private ShadingTable daylightTable;
+    private ShadingTable nightLightTable;
+    private int nightLightTableAmbient;
+
     public BaseRenderer()
     {
         updateOptions();
@@ -102,17 +113,6 @@ public abstract class BaseRenderer implements IChunkRenderer, RemovalListener<Ch
         this.tweakCaveAmbientColor = 0x000000;
         this.tweakNetherAmbientColor = 0x330808;
         this.tweakEndAmbientColor = 0x00001A;
-
-        // Slope offsets
-        primarySlopeOffsets.add(new BlockCoordIntPair(0, -1)); // North
-        primarySlopeOffsets.add(new BlockCoordIntPair(-1, -1)); // NorthWest
-        primarySlopeOffsets.add(new BlockCoordIntPair(-1, 0)); // West
-
-        secondarySlopeOffsets.add(new BlockCoordIntPair(-1, -2)); // North of NorthWest
-        secondarySlopeOffsets.add(new BlockCoordIntPair(-2, -1)); // West of NorthWest
-        secondarySlopeOffsets.add(new BlockCoordIntPair(-2, -2)); // NorthWest of NorthWest
-        secondarySlopeOffsets.add(new BlockCoordIntPair(-2, 0)); // SouthWest of NorthWest
-        secondarySlopeOffsets.add(new BlockCoordIntPair(0, -2)); // West of West
     }
 
     /**
@@ -140,7 +140,7 @@ public abstract class BaseRenderer implements IChunkRenderer, RemovalListener<Ch
     }
 
     @Override
-    public void setStratumColors(Stratum stratum, int lightAttenuation, Integer waterColor, boolean waterAbove, boolean underground, boolean mapCaveLighting)
+    public void setStratumColors(Stratum stratum, int lightAttenuation, int waterColor, boolean waterAbove, boolean underground, boolean mapCaveLighting)
     {
         if (stratum.isUninitialized())
         {
@@ -170,7 +170,7 @@ public abstract class BaseRenderer implements IChunkRenderer, RemovalListener<Ch
             basicColor = RGB.adjustBrightness(basicColor, tweakBrightenLightsourceBlock); // magic #
         }
 
-        if ((waterAbove) && waterColor != null)
+        if ((waterAbove) && waterColor != Strata.UNSET)
         {
             // Blend day color with watercolor above, adjustBrightness for daylight filtered down
             int adjustedWaterColor = RGB.multiply(waterColor, tweakDarkenWaterColorMultiplier);
@@ -182,9 +182,21 @@ public abstract class BaseRenderer implements IChunkRenderer, RemovalListener<Ch
         }
         else
         {
-            // Just adjustBrightness based on light levels
-            stratum.setDayColor(RGB.adjustBrightness(basicColor, daylightDiff));
-            stratum.setNightColor(RGB.darkenAmbient(basicColor, nightLightDiff, getAmbientColor()));
+            // Just adjustBrightness based on light levels, using the tables when the light level is in range
+            final int lightLevel = stratum.getLightLevel();
+            final int daylightIndex = Math.max(1, Math.max(lightLevel, 15 - lightAttenuation));
+            final int nightLightIndex = (lightLevel > tweakMoonlightLevel) ? lightLevel : 0;
+            if (daylightIndex <= 15 && nightLightIndex <= 15)
+            {
+                ensureShadingTables();
+                stratum.setDayColor(daylightTable.apply(basicColor, daylightIndex));
+                stratum.setNightColor(nightLightTable.apply(basicColor, nightLightIndex));
+            }
+            else
+            {
+                stratum.setDayColor(RGB.adjustBrightness(basicColor, daylightDiff));
+                stratum.setNightColor(RGB.darkenAmbient(basicColor, nightLightDiff, getAmbientColor()));
+            }
         }
 
         if (underground)
@@ -194,16 +206,46 @@ public abstract class BaseRenderer implements IChunkRenderer, RemovalListener<Ch
     }
 
 
+    /**
+     * Build the light level tables used by setStratumColors, or rebuild the night table if the ambient color changed.
+     * Index 0 of the night table is moonlight; 1-15 are the stratum's own light level.
+     */
+    protected void ensureShadingTables()
+    {
+        if (daylightTable == null)
+        {
+            float[] factors = new float[16];
+            for (int i = 0; i < factors.length; i++)
+            {
+                factors[i] = i / 15f + tweakBrightenDaylightDiff;
+            }
+            daylightTable = ShadingTable.brightness(factors);
+        }
+
+        final int ambient = getAmbientColor();
+        if (nightLightTable == null || nightLightTableAmbient != ambient)
+        {
+            float[] factors = new float[16];
+            factors[0] = tweakMoonlightLevel / 15f;
+            for (int i = 1; i < factors.length; i++)
+            {
+                factors[i] = i / 15f;
+            }
+            nightLightTable = ShadingTable.darkenAmbient(ambient, factors);
+            nightLightTableAmbient = ambient;
+        }
+    }
+
     /**
      * Initialize surface slopes in chunk.  This is the black magic
      * that serves as the stand-in for true bump-mapping.
      */
-    protected Float[][] populateSlopes(final ChunkMD chunkMd, Integer vSlice,
-                                       final HeightsCache chunkHeights,
-                                       final SlopesCache chunkSlopes)
+    protected float[] populateSlopes(final ChunkMD chunkMd, Integer vSlice,
+                                     final HeightsCache chunkHeights,
+                                     final SlopesCache chunkSlopes)
     {
 
-        Float[][] slopes = chunkSlopes.getUnchecked(chunkMd.getCoord());
+        float[] slopes = chunkSlopes.get(chunkMd);
         int y = 0, sliceMinY = 0, sliceMaxY = 0;
         boolean isSurface = (vSlice == null);
         float slope, primarySlope, secondarySlope;
@@ -264,7 +306,7 @@ public abstract class BaseRenderer implements IChunkRenderer, RemovalListener<Ch
                     slope = 1f;
                 }
 
-                slopes[x][z] = Math.min(shadingSlopeMax, Math.max(shadingSlopeMin, slope));
+                slopes[ColumnCache.index(x, z)] = Math.min(shadingSlopeMax, Math.max(shadingSlopeMin, slope));
             }
         }
 
@@ -273,10 +315,10 @@ public abstract class BaseRenderer implements IChunkRenderer, RemovalListener<Ch
     }
 
     /**
-     * Get block height within slice.  Should lazy-populate sliceHeights. Can return null.
+     * Get block height within slice.  Should lazy-populate sliceHeights.
      */
-    protected Integer getSliceBlockHeight(final ChunkMD chunkMd, final int x, final Integer vSlice, final int z, final int sliceMinY, final int sliceMaxY,
-                                          final HeightsCache chunkHeights)
+    protected int getSliceBlockHeight(final ChunkMD chunkMd, final int x, final Integer vSlice, final int z, final int sliceMinY, final int sliceMaxY,
+                                      final HeightsCache chunkHeights)
     {
         throw new NotImplementedException("getSliceBlockHeight");
     }
@@ -311,7 +353,7 @@ public abstract class BaseRenderer implements IChunkRenderer, RemovalListener<Ch
         }
     }
 
-    protected float calculateSlope(final ChunkMD chunkMd, final Collection<BlockCoordIntPair> offsets, final int x, final int y, final int z, boolean isSurface,
+    protected float calculateSlope(final ChunkMD chunkMd, final BlockCoordIntPair[] offsets, final int x, final int y, final int z, boolean isSurface,
                                    Integer vSlice, int sliceMinY, int sliceMaxY,
                                    final HeightsCache chunkHeights)
     {
@@ -326,8 +368,9 @@ public abstract class BaseRenderer implements IChunkRenderer, RemovalListener<Ch
         int defaultHeight = y;
 
         float offsetHeight;
-        for (BlockCoordIntPair offset : offsets)
+        for (int i = 0; i < offsets.length; i++)
         {
+            final BlockCoordIntPair offset = offsets[i];
             if (isSurface)
             {
                 offsetHeight = getSurfaceBlockHeight(chunkMd, x, z, offset, defaultHeight, chunkHeights);
@@ -338,7 +381,7 @@ public abstract class BaseRenderer implements IChunkRenderer, RemovalListener<Ch
             }
             slopeSum += ((y * 1f) / offsetHeight);
         }
-        float slope = slopeSum / offsets.size();
+        float slope = slopeSum / offsets.length;
         if (Float.isNaN(slope))
         {
             slope = 1f;
@@ -357,7 +400,7 @@ public abstract class BaseRenderer implements IChunkRenderer, RemovalListener<Ch
 
         final int sliceMinY = Math.max((vSlice << 4), 0);
         final int hardSliceMaxY = ((vSlice + 1) << 4) - 1;
-        int sliceMaxY = Math.min(hardSliceMaxY, chunkMd.getWorld().getActualHeight());
+        int sliceMaxY = Math.min(hardSliceMaxY, chunkMd.getActualHeight());
         if (sliceMinY >= sliceMaxY)
         {
             sliceMaxY = sliceMinY + 2;
@@ -370,15 +413,16 @@ public abstract class BaseRenderer implements IChunkRenderer, RemovalListener<Ch
                              final HeightsCache chunkHeights,
                              final SlopesCache chunkSlopes)
     {
-        Float[][] slopes = chunkSlopes.getIfPresent(chunkMd.getCoord());
+        final int index = ColumnCache.index(x, z);
+        float[] slopes = chunkSlopes.getIfPresent(chunkMd);
 
-        if (slopes == null || slopes[x][z] == null)
+        if (slopes == null || Float.isNaN(slopes[index]))
         {
             slopes = populateSlopes(chunkMd, vSlice, chunkHeights, chunkSlopes);
         }
 
-        Float slope = slopes[x][z];
-        if (slope == null || slope.isNaN())
+        float slope = slopes[index];
+        if (Float.isNaN(slope))
         {
             Journeymap.getLogger().warn("Bad slope for {} at {},{}: {}", chunkMd, x, z, slope);
             slope = 1f;
@@ -410,19 +454,13 @@ public abstract class BaseRenderer implements IChunkRenderer, RemovalListener<Ch
      * Returns the value in the height map at this x, z coordinate in the chunk, disregarding
      * blocks that shouldn't be used as the top block.
      */
-    public Integer getSurfaceBlockHeight(final ChunkMD chunkMd, int x, int z, final HeightsCache chunkHeights)
+    public int getSurfaceBlockHeight(final ChunkMD chunkMd, int x, int z, final HeightsCache chunkHeights)
     {
-        Integer[][] heights = chunkHeights.getUnchecked(chunkMd.getCoord());
-        if (heights == null)
-        {
-            // Not in cache anymore
-            return null;
-        }
-        Integer y;
+        final int[] heights = chunkHeights.get(chunkMd);
+        final int index = ColumnCache.index(x, z);
+        int y = heights[index];
 
-        y = heights[x][z];
-
-        if (y != null)
+        if (y != HeightsCache.UNSET)
         {
             // Already set
             return y;
@@ -452,24 +490,7 @@ public abstract class BaseRenderer implements IChunkRenderer, RemovalListener<Ch
                 }
                 else if (!blockMD.isAir())// && !blockMD.hasFlag(BlockMD.Flag.NoShadow))
                 {
-                    if (mapPlants && blockMD.hasFlag(BlockMD.Flag.Plant))
-                    {
-                        if (!mapPlantShadows)
-                        {
-                            y--;
-                        }
-                    }
-                    else if (mapCrops && blockMD.hasFlag(BlockMD.Flag.Crop))
-                    {
-                        if (!mapPlantShadows)
-                        {
-                            y--;
-                        }
-                    }
-                    else if (!blockMD.isLava() && blockMD.hasNoShadow())
-                    {
-                        y--;
-                    }
+                    y -= getSurfaceHeightOffset(blockMD);
                     break;
                 }
                 y--;
@@ -484,12 +505,33 @@ public abstract class BaseRenderer implements IChunkRenderer, RemovalListener<Ch
         //why is height 4 set on a chunk to the left?
         y = Math.max(0, y);
 
-        heights[x][z] = y;
+        heights[index] = y;
 
         return y;
     }
 
 
+    /**
+     * How far below the first solid block in a column the surface height should be:
+     * 1 for blocks that shouldn't cast a shadow, otherwise 0.
+     */
+    protected int getSurfaceHeightOffset(final BlockMD blockMD)
+    {
+        if (mapPlants && blockMD.hasFlag(BlockMD.Flag.Plant))
+        {
+            return mapPlantShadows ? 0 : 1;
+        }
+        else if (mapCrops && blockMD.hasFlag(BlockMD.Flag.Crop))
+        {
+            return mapPlantShadows ? 0 : 1;
+        }
+        else if (!blockMD.isLava() && blockMD.hasNoShadow())
+        {
+            return 1;
+        }
+        return 0;
+    }
+
     /**
      * Get the height of the block at the coordinates + offsets.  Uses chunkMd.slopes.
      */
@@ -512,15 +554,7 @@ public abstract class BaseRenderer implements IChunkRenderer, RemovalListener<Ch
 
         if (targetChunkMd != null)
         {
-            Integer height = getSurfaceBlockHeight(targetChunkMd, blockX & 15, blockZ & 15, chunkHeights);
-            if (height == null)
-            {
-                return defaultVal;
-            }
-            else
-            {
-                return height;
-            }
+            return getSurfaceBlockHeight(targetChunkMd, blockX & 15, blockZ & 15, chunkHeights);
         }
         else
         {
@@ -528,144 +562,13 @@ public abstract class BaseRenderer implements IChunkRenderer, RemovalListener<Ch
         }
     }
 
-    /**
-     * Get a CacheBuilder with common configuration already set.
-     *
-     * @return
-     */
-    private CacheBuilder<Object, Object> getCacheBuilder()
-    {
-        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
-        if (JourneymapClient.getCoreProperties().recordCacheStats.get())
-        {
-            builder.recordStats();
-        }
-        return builder;
-    }
-
-    protected void setColumnProperty(String name, Serializable value, ChunkMD chunkMD, int x, int z)
+    protected void setColumnProperty(int propertyId, int value, ChunkMD chunkMD, int x, int z)
     {
-        getColumnProperties(chunkMD, x, z, true).put(name, value);
+        columnPropertiesCache.setProperty(chunkMD, propertyId, x, z, value);
     }
 
-    protected <V extends Serializable> V getColumnProperty(String name, V defaultValue, ChunkMD chunkMD, int x, int z)
+    protected int getColumnProperty(int propertyId, int defaultValue, ChunkMD chunkMD, int x, int z)
     {
-        HashMap<String, Serializable> props = getColumnProperties(chunkMD, x, z);
-        V value = null;
-        if (props != null)
-        {
-            value = (V) props.get(name);
-        }
-        return (value != null) ? value : defaultValue;
+        return columnPropertiesCache.getProperty(chunkMD, propertyId, x, z, defaultValue);
     }
-
-    protected HashMap<String, Serializable> getColumnProperties(ChunkMD chunkMD, int x, int z)
-    {
-        return getColumnProperties(chunkMD, x, z, false);
-    }
-
-    protected HashMap<String, Serializable> getColumnProperties(ChunkMD chunkMD, int x, int z, boolean forceCreation)
-    {
-        try
-        {
-            HashMap<String, Serializable>[][] propArr = columnPropertiesCache.get(chunkMD.getCoord());
-            HashMap<String, Serializable> props = propArr[x][z];
-            if (props == null && forceCreation)
-            {
-                props = new HashMap<String, Serializable>();
-                propArr[x][z] = props;
-            }
-            return props;
-        }
-        catch (Exception e)
-        {
-            Journeymap.getLogger().warn(e.getMessage());
-            return null;
-        }
-    }
-
-    /**
-     * Cache for storing block heights in a 2-dimensional array, keyed to chunk coordinates.
-     */
-    public class HeightsCache extends ForwardingLoadingCache<ChunkCoordIntPair, Integer[][]>
-    {
-        final LoadingCache<ChunkCoordIntPair, Integer[][]> internal;
-
-        protected HeightsCache(String name)
-        {
-            this.internal = getCacheBuilder().build(new CacheLoader<ChunkCoordIntPair, Integer[][]>()
-            {
-                @Override
-                public Integer[][] load(ChunkCoordIntPair key) throws Exception
-                {
-                    //JourneyMap.getLogger().info("Initialized heights for chunk " + key);
-                    return new Integer[16][16];
-                }
-            });
-            DataCache.instance().addPrivateCache(name, this);
-        }
-
-        @Override
-        protected LoadingCache<ChunkCoordIntPair, Integer[][]> delegate()
-        {
-            return internal;
-        }
-    }
-
-    /**
-     * Cache for storing block slopes in a 2-dimensional array, keyed to chunk coordinates.
-     */
-    public class SlopesCache extends ForwardingLoadingCache<ChunkCoordIntPair, Float[][]>
-    {
-        final LoadingCache<ChunkCoordIntPair, Float[][]> internal;
-
-        protected SlopesCache(String name)
-        {
-            this.internal = getCacheBuilder().build(new CacheLoader<ChunkCoordIntPair, Float[][]>()
-            {
-                @Override
-                public Float[][] load(ChunkCoordIntPair key) throws Exception
-                {
-                    //JourneyMap.getLogger().info("Initialized slopes for chunk " + key);
-                    return new Float[16][16];
-                }
-            });
-            DataCache.instance().addPrivateCache(name, this);
-        }
-
-        @Override
-        protected LoadingCache<ChunkCoordIntPair, Float[][]> delegate()
-        {
-            return internal;
-        }
-    }
-
-    /**
-     * Cache for storing block properties in a 2-dimensional array, keyed to chunk coordinates.
-     */
-    public class BlockColumnPropertiesCache extends ForwardingLoadingCache<ChunkCoordIntPair, HashMap<String, Serializable>[][]>
-    {
-        final LoadingCache<ChunkCoordIntPair, HashMap<String, Serializable>[][]> internal;
-
-        protected BlockColumnPropertiesCache(String name)
-        {
-            this.internal = getCacheBuilder().build(new CacheLoader<ChunkCoordIntPair, HashMap<String, Serializable>[][]>()
-            {
-                @Override
-                public HashMap<String, Serializable>[][] load(ChunkCoordIntPair key) throws Exception
-                {
-                    //JourneyMap.getLogger().info("Initialized column properties for chunk " + key);
-                    return new HashMap[16][16];
-                }
-            });
-            DataCache.instance().addPrivateCache(name, this);
-        }
-
-        @Override
-        protected LoadingCache<ChunkCoordIntPair, HashMap<String, Serializable>[][]> delegate()
-        {
-            return internal;
-        }
-    }
-
 }
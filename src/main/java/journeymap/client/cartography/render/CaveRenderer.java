@@ -24,6 +24,7 @@ public class CaveRenderer extends BaseRenderer implements IChunkRenderer
     private final Object chunkLock = new Object();
     private final HeightsCache[] chunkSliceHeights = new HeightsCache[16];
     private final SlopesCache[] chunkSliceSlopes = new SlopesCache[16];
+    private final ChunkPainter prePassPainter = new ChunkPainter();
     protected CoreProperties coreProperties;
     protected SurfaceRenderer surfaceRenderer;
     protected StatTimer renderCaveTimer = StatTimer.get("CaveRenderer.render");
@@ -61,9 +62,10 @@ public class CaveRenderer extends BaseRenderer implements IChunkRenderer
 
     /**
      * Render chunk image for caves in the overworld.
+     * Not synchronized: each ChunkRenderWorker has its own renderer instances.
      */
     @Override
-    public synchronized boolean render(final ChunkPainter g2D, final ChunkMD chunkMd, final Integer vSlice)
+    public boolean render(final ChunkPainter g2D, final ChunkMD chunkMd, final Integer vSlice)
     {
         if (vSlice == null)
         {
@@ -72,21 +74,65 @@ public class CaveRenderer extends BaseRenderer implements IChunkRenderer
         }
 
         updateOptions();
-        boolean ok = false;
 
         // Surface prepass
-        if (mapSurfaceAboveCaves)
+        if (hasSurfacePrePass(chunkMd))
         {
-            if (!chunkMd.getHasNoSky() && surfaceRenderer != null)
+            if (!surfaceRenderer.render(g2D, null, chunkMd, vSlice, true))
             {
-                ok = surfaceRenderer.render(g2D, null, chunkMd, vSlice, true);
-                if (!ok)
-                {
-                    Journeymap.getLogger().debug("The surface chunk didn't paint: {}", chunkMd.toString());
-                }
+                Journeymap.getLogger().debug("The surface chunk didn't paint: {}", chunkMd.toString());
+            }
+        }
+
+        return renderSlice(g2D, chunkMd, vSlice);
+    }
+
+    /**
+     * Render chunk images for a range of slices in one pass, painting each slice with painters[vSlice]
+     * and recording whether it painted in sliceOk[vSlice].  The surface prepass is rendered once and shared
+     * by all the slices.
+     * Not synchronized: each ChunkRenderWorker has its own renderer instances.
+     *
+     * @return true if any slice painted
+     */
+    public boolean renderSlices(final ChunkPainter[] painters, final boolean[] sliceOk, final ChunkMD chunkMd, final int minSlice, final int maxSlice)
+    {
+        updateOptions();
+
+        // Surface prepass, without the slice cutoff
+        final boolean prePass = hasSurfacePrePass(chunkMd);
+        if (prePass)
+        {
+            if (!surfaceRenderer.render(prePassPainter.reset(), null, chunkMd, null, true))
+            {
+                Journeymap.getLogger().debug("The surface chunk didn't paint: {}", chunkMd.toString());
+            }
+        }
+
+        boolean ok = false;
+        for (int vSlice = minSlice; vSlice <= maxSlice; vSlice++)
+        {
+            if (prePass)
+            {
+                surfaceRenderer.copyCavePrePass(prePassPainter, painters[vSlice], chunkMd, vSlice);
             }
+            sliceOk[vSlice] = renderSlice(painters[vSlice], chunkMd, vSlice);
+            ok = sliceOk[vSlice] || ok;
         }
+        return ok;
+    }
+
+    private boolean hasSurfacePrePass(final ChunkMD chunkMd)
+    {
+        return mapSurfaceAboveCaves && surfaceRenderer != null && !chunkMd.getHasNoSky();
+    }
 
+    /**
+     * Render the slice over whatever the surface prepass painted.
+     */
+    protected boolean renderSlice(final ChunkPainter g2D, final ChunkMD chunkMd, final int vSlice)
+    {
+        boolean ok;
         renderCaveTimer.start();
 
         try
@@ -333,7 +379,7 @@ public class CaveRenderer extends BaseRenderer implements IChunkRenderer
                 stratum = strata.nextUp(this, true);
 
                 // Simple surface render
-                if (strata.getRenderCaveColor() == null)
+                if (strata.getRenderCaveColor() == Strata.UNSET)
                 {
                     strata.setRenderCaveColor(stratum.getCaveColor());
                 }
@@ -348,7 +394,7 @@ public class CaveRenderer extends BaseRenderer implements IChunkRenderer
             } // end color stack
 
             // Shouldn't happen
-            if (strata.getRenderCaveColor() == null)
+            if (strata.getRenderCaveColor() == Strata.UNSET)
             {
                 painter.paintBadBlock(x, y, z);
                 return false;
@@ -380,18 +426,14 @@ public class CaveRenderer extends BaseRenderer implements IChunkRenderer
      * Get block height within slice.
      */
     @Override
-    protected Integer getSliceBlockHeight(final ChunkMD chunkMd, final int x, final Integer vSlice, final int z, final int sliceMinY, final int sliceMaxY,
-                                          final HeightsCache chunkHeights)
+    protected int getSliceBlockHeight(final ChunkMD chunkMd, final int x, final Integer vSlice, final int z, final int sliceMinY, final int sliceMaxY,
+                                      final HeightsCache chunkHeights)
     {
-        Integer[][] blockSliceHeights = chunkHeights.getUnchecked(chunkMd.getCoord());
-        if (blockSliceHeights == null)
-        {
-            return null;
-        }
+        final int[] blockSliceHeights = chunkHeights.get(chunkMd);
+        final int index = ColumnCache.index(x, z);
+        int y = blockSliceHeights[index];
 
-        Integer y = blockSliceHeights[x][z];
-
-        if (y != null)
+        if (y != HeightsCache.UNSET)
         {
             return y;
         }
@@ -442,7 +484,7 @@ public class CaveRenderer extends BaseRenderer implements IChunkRenderer
 
         y = Math.max(0, y);
 
-        blockSliceHeights[x][z] = y;
+        blockSliceHeights[index] = y;
         return y;
     }
 
@@ -460,11 +502,12 @@ public class CaveRenderer extends BaseRenderer implements IChunkRenderer
         synchronized (chunkLock)
         {
             ChunkCoordIntPair coord = notification.getKey();
+            long chunkKey = ChunkCoordIntPair.chunkXZ2Int(coord.chunkXPos, coord.chunkZPos);
             for (HeightsCache heightsCache : chunkSliceHeights)
             {
                 if (heightsCache != null)
                 {
-                    heightsCache.invalidate(coord);
+                    heightsCache.evict(chunkKey);
                 }
             }
 
@@ -472,12 +515,10 @@ public class CaveRenderer extends BaseRenderer implements IChunkRenderer
             {
                 if (slopesCache != null)
                 {
-                    slopesCache.invalidate(coord);
+                    slopesCache.evict(chunkKey);
                 }
             }
 
-            columnPropertiesCache.invalidate(coord);
-
             //JourneyMap.getLogger().info("Invalidated data related to chunk " + coord);
         }
     }
@@ -0,0 +1,150 @@
+/*
+ * JourneyMap Mod <journeymap.info> for Minecraft
+ * Copyright (c) 2011-2017  Techbrew Interactive, LLC <techbrew.net>.  All Rights Reserved.
+ */
+
+package journeymap.client.cartography.render;
+
+import gnu.trove.iterator.TLongIterator;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.procedure.TObjectProcedure;
+import gnu.trove.set.hash.TLongHashSet;
+import journeymap.client.model.ChunkMD;
+
+import java.util.ArrayDeque;
+
+/**
+ * Stores one primitive value per block column (16x16) for each chunk, keyed by the chunk's packed long coordinate.
+ * Arrays of evicted chunks are recycled, so a warmed-up cache doesn't allocate while mapping.
+ * <p/>
+ * A cache belongs to a single renderer, which is only used by one thread at a time.  The one exception is
+ * {@link #evict(long)}, which may be called from any thread (e.g. from a ChunkMD RemovalListener): evictions are
+ * queued and applied by the owner in {@link #applyEvictions()}, so arrays are never recycled while in use.
+ *
+ * @param <A> primitive array type
+ */
+public abstract class ColumnCache<A>
+{
+    private final String name;
+    private final TLongObjectHashMap<A> columns = new TLongObjectHashMap<A>(64);
+    private final ArrayDeque<A> pool = new ArrayDeque<A>(64);
+    private final TLongHashSet pendingEvictions = new TLongHashSet();
+
+    protected ColumnCache(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Index into a column array for chunk-local coordinates.
+     */
+    public static int index(int x, int z)
+    {
+        return (z << 4) + x;
+    }
+
+    /**
+     * Get the column array for the chunk, creating it with all values unset if needed.
+     */
+    public A get(ChunkMD chunkMd)
+    {
+        long key = chunkMd.asLong();
+        A arr = columns.get(key);
+        if (arr == null)
+        {
+            arr = pool.poll();
+            if (arr == null)
+            {
+                arr = create();
+            }
+            else
+            {
+                reset(arr);
+            }
+            columns.put(key, arr);
+        }
+        return arr;
+    }
+
+    /**
+     * Get the column array for the chunk, or null if it hasn't been created.
+     */
+    public A getIfPresent(ChunkMD chunkMd)
+    {
+        return columns.get(chunkMd.asLong());
+    }
+
+    /**
+     * Queue the chunk's columns for eviction.  Safe to call from any thread.
+     */
+    public void evict(long chunkKey)
+    {
+        synchronized (pendingEvictions)
+        {
+            pendingEvictions.add(chunkKey);
+        }
+    }
+
+    /**
+     * Recycle the arrays of chunks queued by {@link #evict(long)}.
+     */
+    public void applyEvictions()
+    {
+        synchronized (pendingEvictions)
+        {
+            if (pendingEvictions.isEmpty())
+            {
+                return;
+            }
+
+            TLongIterator iter = pendingEvictions.iterator();
+            while (iter.hasNext())
+            {
+                A arr = columns.remove(iter.next());
+                if (arr != null)
+                {
+                    pool.add(arr);
+                }
+            }
+            pendingEvictions.clear();
+        }
+    }
+
+    /**
+     * Recycle all arrays.
+     */
+    public void invalidateAll()
+    {
+        columns.forEachValue(new TObjectProcedure<A>()
+        {
+            @Override
+            public boolean execute(A arr)
+            {
+                pool.add(arr);
+                return true;
+            }
+        });
+        columns.clear();
+    }
+
+    public int size()
+    {
+        return columns.size();
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + "{chunks=" + columns.size() + ", pooled=" + pool.size() + "}";
+    }
+
+    /**
+     * Allocate a new array with all values unset.
+     */
+    protected abstract A create();
+
+    /**
+     * Unset all values in a recycled array.
+     */
+    protected abstract void reset(A arr);
+}
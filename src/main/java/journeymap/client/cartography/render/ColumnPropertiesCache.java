@@ -0,0 +1,97 @@
+/*
+ * JourneyMap Mod <journeymap.info> for Minecraft
+ * Copyright (c) 2011-2017  Techbrew Interactive, LLC <techbrew.net>.  All Rights Reserved.
+ */
+
+package journeymap.client.cartography.render;
+
+import journeymap.client.model.ChunkMD;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per-column renderer properties, keyed to chunk coordinates.  Each property registered with
+ * {@link #register(String)} gets a fixed slot of 256 ints in the chunk's array, so values are
+ * stored without maps or boxing.  Unset values are {@link #UNSET}.
+ */
+public class ColumnPropertiesCache extends ColumnCache<int[]>
+{
+    public static final int UNSET = Integer.MIN_VALUE;
+    private static final List<String> propertyNames = new ArrayList<String>(4);
+    private final int slots;
+
+    /**
+     * Properties must be registered before the caches using them are created.
+     */
+    public ColumnPropertiesCache(String name)
+    {
+        super(name);
+        synchronized (propertyNames)
+        {
+            this.slots = Math.max(1, propertyNames.size());
+        }
+    }
+
+    /**
+     * Register a property and get its id.  Registering the same name twice returns the same id.
+     */
+    public static int register(String propertyName)
+    {
+        synchronized (propertyNames)
+        {
+            int id = propertyNames.indexOf(propertyName);
+            if (id < 0)
+            {
+                propertyNames.add(propertyName);
+                id = propertyNames.size() - 1;
+            }
+            return id;
+        }
+    }
+
+    public static String getPropertyName(int propertyId)
+    {
+        synchronized (propertyNames)
+        {
+            return propertyNames.get(propertyId);
+        }
+    }
+
+    /**
+     * Get a property value for the column, or the default if it isn't set.
+     */
+    public int getProperty(ChunkMD chunkMd, int propertyId, int x, int z, int defaultValue)
+    {
+        int[] arr = getIfPresent(chunkMd);
+        if (arr == null)
+        {
+            return defaultValue;
+        }
+        int value = arr[(propertyId << 8) + index(x, z)];
+        return (value == UNSET) ? defaultValue : value;
+    }
+
+    /**
+     * Set a property value for the column.
+     */
+    public void setProperty(ChunkMD chunkMd, int propertyId, int x, int z, int value)
+    {
+        get(chunkMd)[(propertyId << 8) + index(x, z)] = value;
+    }
+
+    @Override
+    protected int[] create()
+    {
+        int[] arr = new int[slots << 8];
+        reset(arr);
+        return arr;
+    }
+
+    @Override
+    protected void reset(int[] arr)
+    {
+        Arrays.fill(arr, UNSET);
+    }
+}
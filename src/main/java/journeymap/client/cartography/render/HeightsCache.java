@@ -0,0 +1,35 @@
+/*
+ * JourneyMap Mod <journeymap.info> for Minecraft
+ * Copyright (c) 2011-2017  Techbrew Interactive, LLC <techbrew.net>.  All Rights Reserved.
+ */
+
+package journeymap.client.cartography.render;
+
+import java.util.Arrays;
+
+/**
+ * Block heights per column, keyed to chunk coordinates.  Unset values are {@link #UNSET}.
+ */
+public class HeightsCache extends ColumnCache<int[]>
+{
+    public static final int UNSET = Integer.MIN_VALUE;
+
+    public HeightsCache(String name)
+    {
+        super(name);
+    }
+
+    @Override
+    protected int[] create()
+    {
+        int[] arr = new int[256];
+        reset(arr);
+        return arr;
+    }
+
+    @Override
+    protected void reset(int[] arr)
+    {
+        Arrays.fill(arr, UNSET);
+    }
+}
@@ -39,18 +39,14 @@ public class NetherRenderer extends CaveRenderer implements IChunkRenderer
      * Get block height within slice.
      */
     @Override
-    protected Integer getSliceBlockHeight(final ChunkMD chunkMd, final int x, final Integer vSlice, final int z, final int sliceMinY, final int sliceMaxY,
-                                          final HeightsCache chunkHeights)
+    protected int getSliceBlockHeight(final ChunkMD chunkMd, final int x, final Integer vSlice, final int z, final int sliceMinY, final int sliceMaxY,
+                                      final HeightsCache chunkHeights)
     {
-        Integer[][] blockSliceHeights = chunkHeights.getUnchecked(chunkMd.getCoord());
-        if (blockSliceHeights == null)
-        {
-            return null;
-        }
-
-        Integer y = blockSliceHeights[x][z];
+        final int[] blockSliceHeights = chunkHeights.get(chunkMd);
+        final int index = ColumnCache.index(x, z);
+        int y = blockSliceHeights[index];
 
-        if (y != null)
+        if (y != HeightsCache.UNSET)
         {
             return y;
         }
@@ -96,7 +92,7 @@ public class NetherRenderer extends CaveRenderer implements IChunkRenderer
 
         y = Math.max(0, y);
 
-        blockSliceHeights[x][z] = y;
+        blockSliceHeights[index] = y;
         return y;
     }
 
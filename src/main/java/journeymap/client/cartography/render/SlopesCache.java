@@ -0,0 +1,33 @@
+/*
+ * JourneyMap Mod <journeymap.info> for Minecraft
+ * Copyright (c) 2011-2017  Techbrew Interactive, LLC <techbrew.net>.  All Rights Reserved.
+ */
+
+package journeymap.client.cartography.render;
+
+import java.util.Arrays;
+
+/**
+ * Block slopes per column, keyed to chunk coordinates.  Unset values are NaN.
+ */
+public class SlopesCache extends ColumnCache<float[]>
+{
+    public SlopesCache(String name)
+    {
+        super(name);
+    }
+
+    @Override
+    protected float[] create()
+    {
+        float[] arr = new float[256];
+        reset(arr);
+        return arr;
+    }
+
+    @Override
+    protected void reset(float[] arr)
+    {
+        Arrays.fill(arr, Float.NaN);
+    }
+}
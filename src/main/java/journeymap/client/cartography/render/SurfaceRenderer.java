@@ -23,6 +23,7 @@ public class SurfaceRenderer extends BaseRenderer implements IChunkRenderer
     protected final SlopesCache chunkSurfaceSlopes;
     protected StatTimer renderSurfaceTimer = StatTimer.get("SurfaceRenderer.renderSurface");
     protected StatTimer renderSurfacePrepassTimer = StatTimer.get("SurfaceRenderer.renderSurface.CavePrepass");
+    protected StatTimer renderSurfaceTopoTimer = StatTimer.get("SurfaceRenderer.renderSurface.Topo");
     protected Strata strata = new Strata("Surface", 40, 8, false);
     protected float maxDepth = 8;
 
@@ -35,7 +36,7 @@ public class SurfaceRenderer extends BaseRenderer implements IChunkRenderer
     {
         // TODO: Write the caches to disk and we'll have some useful data available.
         this.cachePrefix = cachePrefix;
-        columnPropertiesCache = new BlockColumnPropertiesCache(cachePrefix + "ColumnProps");
+        columnPropertiesCache = new ColumnPropertiesCache(cachePrefix + "ColumnProps");
         chunkSurfaceHeights = new HeightsCache(cachePrefix + "Heights");
         chunkSurfaceSlopes = new SlopesCache(cachePrefix + "Slopes");
         DataCache.instance().addChunkMDListener(this);
@@ -67,8 +68,9 @@ public class SurfaceRenderer extends BaseRenderer implements IChunkRenderer
 
     /**
      * Render blocks in the chunk for the standard world.
+     * Not synchronized: each ChunkRenderWorker has its own renderer instances.
      */
-    public synchronized boolean render(final ChunkPainter dayG2d, final ChunkPainter nightG2d, final ChunkMD chunkMd, final Integer vSlice, final boolean cavePrePass)
+    public boolean render(final ChunkPainter dayG2d, final ChunkPainter nightG2d, final ChunkMD chunkMd, final Integer vSlice, final boolean cavePrePass)
     {
         StatTimer timer = cavePrePass ? renderSurfacePrepassTimer : renderSurfaceTimer;
 
@@ -78,14 +80,19 @@ public class SurfaceRenderer extends BaseRenderer implements IChunkRenderer
 
             updateOptions();
 
+            // Recycle columns of chunks evicted since the last render
+            chunkSurfaceHeights.applyEvictions();
+            chunkSurfaceSlopes.applyEvictions();
+            columnPropertiesCache.applyEvictions();
+
             // Initialize ChunkSub slopes if needed
-            if (chunkSurfaceSlopes.getIfPresent(chunkMd.getCoord()) == null)
+            if (chunkSurfaceSlopes.getIfPresent(chunkMd) == null)
             {
                 populateSlopes(chunkMd, null, chunkSurfaceHeights, chunkSurfaceSlopes);
             }
 
             // Render the chunk image
-            return renderSurface(dayG2d, nightG2d, chunkMd, vSlice, cavePrePass);
+            return renderSurface(dayG2d, nightG2d, null, null, chunkMd, vSlice, cavePrePass);
         }
         catch (Throwable e)
         {
@@ -99,19 +106,160 @@ public class SurfaceRenderer extends BaseRenderer implements IChunkRenderer
         }
     }
 
+    /**
+     * Render day, night and topo images in one pass over the chunk's columns.
+     * Surface and topo heights are found with a single scan down each column.
+     */
+    public boolean render(final ChunkPainter dayG2d, final ChunkPainter nightG2d, final ChunkPainter topoG2d, final TopoRenderer topoRenderer, final ChunkMD chunkMd)
+    {
+        StatTimer timer = renderSurfaceTopoTimer;
+
+        try
+        {
+            timer.start();
+
+            updateOptions();
+            topoRenderer.prepare(chunkMd);
+
+            // Recycle columns of chunks evicted since the last render
+            chunkSurfaceHeights.applyEvictions();
+            chunkSurfaceSlopes.applyEvictions();
+            columnPropertiesCache.applyEvictions();
+
+            populateHeights(chunkMd, topoRenderer);
+
+            // Initialize ChunkSub slopes if needed
+            if (chunkSurfaceSlopes.getIfPresent(chunkMd) == null)
+            {
+                populateSlopes(chunkMd, null, chunkSurfaceHeights, chunkSurfaceSlopes);
+            }
+            topoRenderer.ensureSlopes(chunkMd);
+
+            // Render the chunk images
+            return renderSurface(dayG2d, nightG2d, topoG2d, topoRenderer, chunkMd, null, false);
+        }
+        catch (Throwable e)
+        {
+            Journeymap.getLogger().error("Unexpected error rendering surface and topo for chunk " + chunkMd.getCoord() + ": " + LogFormatter.toString(e));
+            return false;
+        }
+        finally
+        {
+            strata.reset();
+            timer.stop();
+        }
+    }
+
+    /**
+     * Find the surface and topo heights of each column with one walk down from the precipitation height.
+     * Gives the same results as getSurfaceBlockHeight on each renderer: the walks are identical until the
+     * surface stops at its first solid block, after which topo keeps going past NoTopo blocks.
+     */
+    protected void populateHeights(final ChunkMD chunkMd, final TopoRenderer topoRenderer)
+    {
+        final int[] heights = chunkSurfaceHeights.get(chunkMd);
+        final int[] topoHeights = topoRenderer.getHeights(chunkMd);
+
+        for (int x = 0; x < 16; x++)
+        {
+            for (int z = 0; z < 16; z++)
+            {
+                final int index = ColumnCache.index(x, z);
+                if (heights[index] != HeightsCache.UNSET && topoHeights[index] != HeightsCache.UNSET)
+                {
+                    continue;
+                }
+
+                int y = Math.max(0, chunkMd.getPrecipitationHeight(x, z));
+                int surfaceY = -1;
+                int topoY = -1;
+
+                try
+                {
+                    boolean propUnsetWaterHeight = true;
+                    boolean topoPropUnsetWaterHeight = true;
+
+                    while (y > 0)
+                    {
+                        BlockMD blockMD = BlockMD.getBlockMD(chunkMd, x, y, z);
+                        if (blockMD.isWater())
+                        {
+                            if (surfaceY < 0)
+                            {
+                                if (!mapBathymetry)
+                                {
+                                    surfaceY = y;
+                                }
+                                else if (propUnsetWaterHeight)
+                                {
+                                    setColumnProperty(PROP_WATER_HEIGHT, y, chunkMd, x, z);
+                                    propUnsetWaterHeight = false;
+                                }
+                            }
+                            if (topoY < 0)
+                            {
+                                if (!topoRenderer.mapBathymetry)
+                                {
+                                    topoY = y;
+                                }
+                                else if (topoPropUnsetWaterHeight)
+                                {
+                                    topoRenderer.setColumnProperty(PROP_WATER_HEIGHT, y, chunkMd, x, z);
+                                    topoPropUnsetWaterHeight = false;
+                                }
+                            }
+                        }
+                        else if (!blockMD.isAir())
+                        {
+                            if (surfaceY < 0)
+                            {
+                                surfaceY = y - getSurfaceHeightOffset(blockMD);
+                            }
+                            if (topoY < 0 && !blockMD.hasFlag(BlockMD.Flag.NoTopo))
+                            {
+                                topoY = y;
+                            }
+                        }
+
+                        if (surfaceY >= 0 && topoY >= 0)
+                        {
+                            break;
+                        }
+                        y--;
+                    }
+                }
+                catch (Exception e)
+                {
+                    Journeymap.getLogger().warn("Couldn't get safe surface block height at {},{}: {}", x, z, e);
+                }
+
+                if (heights[index] == HeightsCache.UNSET)
+                {
+                    heights[index] = Math.max(0, surfaceY < 0 ? y : surfaceY);
+                }
+                if (topoHeights[index] == HeightsCache.UNSET)
+                {
+                    topoHeights[index] = Math.max(0, topoY < 0 ? y : topoY);
+                }
+            }
+        }
+    }
+
 
     /**
      * Render blocks in the chunk for the surface.
      */
-    protected boolean renderSurface(final ChunkPainter dayG2d, final ChunkPainter nightG2d, final ChunkMD chunkMd, final Integer vSlice, final boolean cavePrePass)
+    protected boolean renderSurface(final ChunkPainter dayG2d, final ChunkPainter nightG2d, final ChunkPainter topoG2d, final TopoRenderer topoRenderer,
+                                    final ChunkMD chunkMd, final Integer vSlice, final boolean cavePrePass)
     {
         boolean chunkOk = false;
 
         try
         {
-            int sliceMaxY = 0;
+            // Without a slice, the cave prepass paints every column; see copyCavePrePass()
+            int sliceMaxY = Integer.MAX_VALUE;
 
-            if (cavePrePass)
+            if (cavePrePass && vSlice != null)
             {
                 int[] sliceBounds = getVSliceBounds(chunkMd, vSlice);
                 sliceMaxY = sliceBounds[1];
@@ -122,6 +270,11 @@ public class SurfaceRenderer extends BaseRenderer implements IChunkRenderer
                 blockLoop:
                 for (int z = 0; z < 16; z++)
                 {
+                    if (topoG2d != null)
+                    {
+                        topoRenderer.paintColumn(topoG2d, chunkMd, null, x, z, false);
+                    }
+
                     strata.reset();
                     BlockMD topBlockMd = null;
 
@@ -214,6 +367,28 @@ public class SurfaceRenderer extends BaseRenderer implements IChunkRenderer
         return chunkOk;
     }
 
+    /**
+     * Copy a cave prepass rendered without a slice into the painter for one slice, then black out
+     * the columns whose surface is too far above the slice, as a prepass for that slice would have.
+     */
+    void copyCavePrePass(final ChunkPainter prePass, final ChunkPainter painter, final ChunkMD chunkMd, final int vSlice)
+    {
+        painter.copyFrom(prePass);
+
+        final int sliceMaxY = getVSliceBounds(chunkMd, vSlice)[1];
+        for (int x = 0; x < 16; x++)
+        {
+            for (int z = 0; z < 16; z++)
+            {
+                int standardY = Math.max(0, getSurfaceBlockHeight(chunkMd, x, z, chunkSurfaceHeights));
+                if (standardY > sliceMaxY && (standardY - sliceMaxY) > maxDepth)
+                {
+                    painter.paintBlackBlock(x, z);
+                }
+            }
+        }
+    }
+
     /**
      * Create a BlockStack.
      */
@@ -280,7 +455,7 @@ public class SurfaceRenderer extends BaseRenderer implements IChunkRenderer
             while (!strata.isEmpty())
             {
                 stratum = strata.nextUp(this, true);
-                if (strata.getRenderDayColor() == null || strata.getRenderNightColor() == null)
+                if (strata.getRenderDayColor() == Strata.UNSET || strata.getRenderNightColor() == Strata.UNSET)
                 {
                     strata.setRenderDayColor(stratum.getDayColor());
                     if (!cavePrePass)
@@ -302,7 +477,7 @@ public class SurfaceRenderer extends BaseRenderer implements IChunkRenderer
             } // end color stack
 
             // Shouldn't happen
-            if (strata.getRenderDayColor() == null)
+            if (strata.getRenderDayColor() == Strata.UNSET)
             {
                 dayG2d.paintBadBlock(x, y, z);
                 nightG2d.paintBadBlock(x, y, z);
@@ -312,7 +487,7 @@ public class SurfaceRenderer extends BaseRenderer implements IChunkRenderer
             if (nightG2d != null)
             {
                 // Shouldn't happen
-                if (strata.getRenderNightColor() == null)
+                if (strata.getRenderNightColor() == Strata.UNSET)
                 {
                     nightG2d.paintBadBlock(x, y, z);
                     return false;
@@ -361,9 +536,10 @@ public class SurfaceRenderer extends BaseRenderer implements IChunkRenderer
         synchronized (chunkLock)
         {
             ChunkCoordIntPair coord = notification.getKey();
-            chunkSurfaceHeights.invalidate(coord);
-            chunkSurfaceSlopes.invalidate(coord);
-            columnPropertiesCache.invalidate(coord);
+            long chunkKey = ChunkCoordIntPair.chunkXZ2Int(coord.chunkXPos, coord.chunkZPos);
+            chunkSurfaceHeights.evict(chunkKey);
+            chunkSurfaceSlopes.evict(chunkKey);
+            columnPropertiesCache.evict(chunkKey);
         }
     }
 }
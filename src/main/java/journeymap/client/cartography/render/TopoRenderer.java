@@ -11,7 +11,6 @@ import journeymap.client.cartography.IChunkRenderer;
 import journeymap.client.cartography.RGB;
 import journeymap.client.cartography.Strata;
 import journeymap.client.data.DataCache;
-import journeymap.client.forge.helper.ForgeHelper;
 import journeymap.client.log.LogFormatter;
 import journeymap.client.log.StatTimer;
 import journeymap.client.model.BlockCoordIntPair;
@@ -19,7 +18,6 @@ import journeymap.client.model.BlockMD;
 import journeymap.client.model.ChunkMD;
 import journeymap.common.Journeymap;
 import net.minecraft.world.ChunkCoordIntPair;
-import net.minecraft.world.World;
 import org.apache.logging.log4j.Level;
 
 import java.awt.*;
@@ -30,6 +28,10 @@ public class TopoRenderer extends BaseRenderer implements IChunkRenderer
     protected final Object chunkLock = new Object();
     final Integer[] waterPalette;
     final Integer[] landPalette;
+    private final BlockCoordIntPair offsetN = new BlockCoordIntPair(0, -1);
+    private final BlockCoordIntPair offsetW = new BlockCoordIntPair(-1, 0);
+    private final BlockCoordIntPair offsetS = new BlockCoordIntPair(0, 1);
+    private final BlockCoordIntPair offsetE = new BlockCoordIntPair(1, 0);
     private final HeightsCache chunkSurfaceHeights;
     private final SlopesCache chunkSurfaceSlopes;
     private final int waterPaletteRange;
@@ -96,7 +98,7 @@ public class TopoRenderer extends BaseRenderer implements IChunkRenderer
 
         // TODO: Write the caches to disk and we'll have some useful data available.
         this.cachePrefix = "Topo";
-        columnPropertiesCache = new BlockColumnPropertiesCache(cachePrefix + "ColumnProps");
+        columnPropertiesCache = new ColumnPropertiesCache(cachePrefix + "ColumnProps");
         chunkSurfaceHeights = new HeightsCache(cachePrefix + "Heights");
         chunkSurfaceSlopes = new SlopesCache(cachePrefix + "Slopes");
         DataCache.instance().addChunkMDListener(this);
@@ -104,10 +106,7 @@ public class TopoRenderer extends BaseRenderer implements IChunkRenderer
 
     protected void updateOptions()
     {
-        World world = ForgeHelper.INSTANCE.getClient().theWorld;
-        int seaLevel = world.getActualHeight() / 2;
         orthoStep = 3;
-        orthoRange = world.getActualHeight() >> orthoStep;
     }
 
     /**
@@ -122,13 +121,8 @@ public class TopoRenderer extends BaseRenderer implements IChunkRenderer
         {
             timer.start();
 
-            updateOptions();
-
-            // Initialize ChunkSub slopes if needed
-            if (chunkSurfaceSlopes.getIfPresent(chunkMd.getCoord()) == null)
-            {
-                populateSlopes(chunkMd, null, chunkSurfaceHeights, chunkSurfaceSlopes);
-            }
+            prepare(chunkMd);
+            ensureSlopes(chunkMd);
 
             // Render the chunk image
             return renderSurface(painter, chunkMd, vSlice, false);
@@ -145,6 +139,39 @@ public class TopoRenderer extends BaseRenderer implements IChunkRenderer
         }
     }
 
+    /**
+     * Update options and caches before painting the chunk.
+     */
+    void prepare(final ChunkMD chunkMd)
+    {
+        updateOptions();
+        orthoRange = chunkMd.getActualHeight() >> orthoStep;
+
+        // Recycle columns of chunks evicted since the last render
+        chunkSurfaceHeights.applyEvictions();
+        chunkSurfaceSlopes.applyEvictions();
+        columnPropertiesCache.applyEvictions();
+    }
+
+    /**
+     * Initialize ChunkSub slopes if needed
+     */
+    void ensureSlopes(final ChunkMD chunkMd)
+    {
+        if (chunkSurfaceSlopes.getIfPresent(chunkMd) == null)
+        {
+            populateSlopes(chunkMd, null, chunkSurfaceHeights, chunkSurfaceSlopes);
+        }
+    }
+
+    /**
+     * Topo heights for the chunk, so SurfaceRenderer can fill them in during its own scan.
+     */
+    int[] getHeights(final ChunkMD chunkMd)
+    {
+        return chunkSurfaceHeights.get(chunkMd);
+    }
+
     /**
      * Render blocks in the chunk for the surface.
      */
@@ -154,62 +181,11 @@ public class TopoRenderer extends BaseRenderer implements IChunkRenderer
 
         try
         {
-            int sliceMaxY = 0;
-
             for (int x = 0; x < 16; x++)
             {
-                blockLoop:
                 for (int z = 0; z < 16; z++)
                 {
-                    BlockMD topBlockMd = null;
-
-                    int standardY = Math.max(0, getSurfaceBlockHeight(chunkMd, x, z, chunkSurfaceHeights));
-
-                    int roofY = 0;
-                    int y = standardY;
-
-                    roofY = Math.max(0, chunkMd.getPrecipitationHeight(x, z));
-                    if (standardY < roofY)
-                    {
-                        // Is transparent roof above standard height?
-                        int checkY = roofY;
-                        while (checkY > standardY)
-                        {
-                            topBlockMd = BlockMD.getBlockMD(chunkMd, x, checkY, z);
-                            if (topBlockMd.isTransparentRoof())
-                            {
-                                y = Math.max(standardY, checkY);
-                                break;
-                            }
-                            else
-                            {
-                                checkY--;
-                            }
-                        }
-                    }
-
-                    if (roofY == 0 || standardY == 0)
-                    {
-                        painter.paintVoidBlock(x, z);
-                        chunkOk = true;
-                        continue blockLoop;
-                    }
-
-                    // Bathymetry - need to use water height instead of standardY, so we get the color blend
-                    if (mapBathymetry)
-                    {
-                        standardY = getColumnProperty(PROP_WATER_HEIGHT, standardY, chunkMd, x, z);
-                    }
-
-                    topBlockMd = chunkMd.getTopBlockMD(x, standardY, z);
-
-                    if (topBlockMd == null)
-                    {
-                        painter.paintBadBlock(x, standardY, z);
-                        continue blockLoop;
-                    }
-
-                    chunkOk = paintStrata(null, painter, chunkMd, topBlockMd, vSlice, x, standardY, z, cavePrePass) || chunkOk;
+                    chunkOk = paintColumn(painter, chunkMd, vSlice, x, z, cavePrePass) || chunkOk;
                 }
             }
         }
@@ -224,19 +200,45 @@ public class TopoRenderer extends BaseRenderer implements IChunkRenderer
         return true;  // todo: return chunkok
     }
 
-    public Integer getSurfaceBlockHeight(final ChunkMD chunkMd, int x, int z, final HeightsCache chunkHeights)
+    /**
+     * Paint one column.  Expects prepare() and ensureSlopes() to have been called for the chunk.
+     */
+    boolean paintColumn(final ChunkPainter painter, final ChunkMD chunkMd, final Integer vSlice, final int x, final int z, final boolean cavePrePass)
     {
-        Integer[][] heights = chunkHeights.getUnchecked(chunkMd.getCoord());
-        if (heights == null)
+        int standardY = Math.max(0, getSurfaceBlockHeight(chunkMd, x, z, chunkSurfaceHeights));
+        int roofY = Math.max(0, chunkMd.getPrecipitationHeight(x, z));
+
+        if (roofY == 0 || standardY == 0)
         {
-            // Not in cache anymore
-            return null;
+            painter.paintVoidBlock(x, z);
+            return true;
         }
-        Integer y;
 
-        y = heights[x][z];
+        // Bathymetry - need to use water height instead of standardY, so we get the color blend
+        if (mapBathymetry)
+        {
+            standardY = getColumnProperty(PROP_WATER_HEIGHT, standardY, chunkMd, x, z);
+        }
+
+        BlockMD topBlockMd = chunkMd.getTopBlockMD(x, standardY, z);
 
-        if (y != null)
+        if (topBlockMd == null)
+        {
+            painter.paintBadBlock(x, standardY, z);
+            return false;
+        }
+
+        return paintStrata(null, painter, chunkMd, topBlockMd, vSlice, x, standardY, z, cavePrePass);
+    }
+
+    @Override
+    public int getSurfaceBlockHeight(final ChunkMD chunkMd, int x, int z, final HeightsCache chunkHeights)
+    {
+        final int[] heights = chunkHeights.get(chunkMd);
+        final int index = ColumnCache.index(x, z);
+        int y = heights[index];
+
+        if (y != HeightsCache.UNSET)
         {
             // Already set
             return y;
@@ -280,7 +282,7 @@ public class TopoRenderer extends BaseRenderer implements IChunkRenderer
         //why is height 4 set on a chunk to the left?
         y = Math.max(0, y);
 
-        heights[x][z] = y;
+        heights[index] = y;
 
         return y;
     }
@@ -288,18 +290,14 @@ public class TopoRenderer extends BaseRenderer implements IChunkRenderer
     /**
      * Initialize surface slopes in chunk if needed.
      */
-    protected Float[][] populateSlopes(final ChunkMD chunkMd, Integer vSlice,
-                                       final HeightsCache chunkHeights,
-                                       final SlopesCache chunkSlopes)
+    @Override
+    protected float[] populateSlopes(final ChunkMD chunkMd, Integer vSlice,
+                                     final HeightsCache chunkHeights,
+                                     final SlopesCache chunkSlopes)
     {
-        BlockCoordIntPair offsetN = new BlockCoordIntPair(0, -1);
-        BlockCoordIntPair offsetW = new BlockCoordIntPair(-1, 0);
-        BlockCoordIntPair offsetS = new BlockCoordIntPair(0, 1);
-        BlockCoordIntPair offsetE = new BlockCoordIntPair(1, 0);
-
-        Float[][] slopes = chunkSlopes.getUnchecked(chunkMd.getCoord());
+        float[] slopes = chunkSlopes.get(chunkMd);
         float h;
-        Float slope;
+        float slope;
         float hN, hW, hE, hS;
         float nearZero = 0.0001f;
         for (int z = 0; z < 16; z++)
@@ -327,13 +325,13 @@ public class TopoRenderer extends BaseRenderer implements IChunkRenderer
                     slope = ((h / hN) + (h / hW) + (h / hE) + (h / hS)) / 4f;
                 }
 
-                if (slope == null || slope.isNaN() || slope.isInfinite())
+                if (Float.isNaN(slope) || Float.isInfinite(slope))
                 {
                     Journeymap.getLogger().warn("Bad topo slope for {} at {},{}: {}", chunkMd, x, z, slope);
                     slope = 1f;
                 }
 
-                slopes[x][z] = slope;
+                slopes[ColumnCache.index(x, z)] = slope;
             }
         }
         return slopes;
@@ -390,9 +388,10 @@ public class TopoRenderer extends BaseRenderer implements IChunkRenderer
         synchronized (chunkLock)
         {
             ChunkCoordIntPair coord = notification.getKey();
-            chunkSurfaceHeights.invalidate(coord);
-            chunkSurfaceSlopes.invalidate(coord);
-            columnPropertiesCache.invalidate(coord);
+            long chunkKey = ChunkCoordIntPair.chunkXZ2Int(coord.chunkXPos, coord.chunkZPos);
+            chunkSurfaceHeights.evict(chunkKey);
+            chunkSurfaceSlopes.evict(chunkKey);
+            columnPropertiesCache.evict(chunkKey);
         }
     }
 }
@@ -16,6 +16,7 @@ import gnu.trove.map.TLongObjectMap;
 import gnu.trove.map.hash.TLongObjectHashMap;
 import journeymap.client.JourneymapClient;
 import journeymap.client.log.LogFormatter;
+import journeymap.client.model.BiomeTintCache;
 import journeymap.client.model.ChunkMD;
 import journeymap.client.model.EntityDTO;
 import journeymap.client.model.MapType;
@@ -161,22 +162,28 @@ public class DataCache
         return builder;
     }
 
+    /**
+     * Register a cache to be purged along with the managed caches.  Each render worker
+     * has its own renderers, so several private caches may share a name.
+     */
     public void addPrivateCache(String name, Cache cache)
     {
-        if (privateCaches.containsValue(name))
+        synchronized (privateCaches)
         {
-            Journeymap.getLogger().warn("Overriding private cache: {}", name);
+            privateCaches.put(cache, name);
         }
-        privateCaches.put(cache, name);
     }
 
     public Cache getPrivateCache(String name)
     {
-        for (Map.Entry<Cache, String> entry : privateCaches.entrySet())
+        synchronized (privateCaches)
         {
-            if (entry.getValue().equals(name))
+            for (Map.Entry<Cache, String> entry : privateCaches.entrySet())
             {
-                return entry.getKey();
+                if (entry.getValue().equals(name))
+                {
+                    return entry.getKey();
+                }
             }
         }
         return null;
@@ -516,6 +523,7 @@ public class DataCache
                 }
             }
         }
+        BiomeTintCache.instance().invalidateAll();
 
         synchronized (privateCaches)
         {
@@ -9,6 +9,8 @@ import cpw.mods.fml.common.eventhandler.SubscribeEvent;
 import cpw.mods.fml.relauncher.Side;
 import cpw.mods.fml.relauncher.SideOnly;
 import journeymap.client.data.DataCache;
+import journeymap.client.model.BiomeTintCache;
+import journeymap.client.task.multi.DirtyChunkTracker;
 import net.minecraft.world.ChunkCoordIntPair;
 import net.minecraftforge.event.world.ChunkEvent;
 
@@ -40,5 +42,20 @@ public class ChunkUpdateHandler implements EventHandlerManager.EventHandler
     {
         ChunkCoordIntPair coord = event.getChunk().getChunkCoordIntPair();
         DataCache.instance().invalidateChunkMD(coord);
+        if (event.world.isRemote)
+        {
+            BiomeTintCache.instance().invalidate(coord);
+        }
+    }
+
+    @SideOnly(Side.CLIENT)
+    @SubscribeEvent
+    public void onChunkEvent(ChunkEvent.Load event)
+    {
+        if (event.world.isRemote)
+        {
+            ChunkCoordIntPair coord = event.getChunk().getChunkCoordIntPair();
+            DirtyChunkTracker.instance().markDirty(coord.chunkXPos, coord.chunkZPos);
+        }
     }
 }
@@ -16,6 +16,7 @@ import journeymap.client.JourneymapClient;
 import journeymap.client.forge.helper.ForgeHelper;
 import journeymap.client.log.JMLogger;
 import journeymap.client.log.StatTimer;
+import journeymap.client.model.ImageWriteService;
 import journeymap.client.task.multi.MapPlayerTask;
 import journeymap.client.ui.UIManager;
 import net.minecraft.client.Minecraft;
@@ -93,6 +94,7 @@ public class MiniMapOverlayHandler implements EventHandlerManager.EventHandler
                     {
                         event.left.add(line);
                     }
+                    event.left.add(DEBUG_PREFIX + ImageWriteService.instance().getReportString() + DEBUG_SUFFIX);
                 }
             }
         }
@@ -16,6 +16,7 @@ import journeymap.client.forge.helper.ForgeHelper;
 import journeymap.client.log.LogFormatter;
 import journeymap.client.model.Waypoint;
 import journeymap.client.properties.WaypointProperties;
+import journeymap.client.task.multi.DirtyChunkTracker;
 import journeymap.client.waypoint.WaypointStore;
 import journeymap.common.Journeymap;
 import net.minecraft.client.Minecraft;
@@ -92,7 +93,7 @@ public class StateTickHandler implements EventHandlerManager.EventHandler
                 counter = 0;
                 mc.mcProfiler.endSection();
             }
-            else if (counter == 10)
+            else if (counter == 10 || DirtyChunkTracker.instance().hasDirtyChunks())
             {
                 mc.mcProfiler.startSection("multithreadTasks");
                 if (JourneymapClient.getInstance().isMapping() && mc.theWorld != null)
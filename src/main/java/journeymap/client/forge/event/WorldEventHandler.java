@@ -12,6 +12,7 @@ import cpw.mods.fml.relauncher.Side;
 import cpw.mods.fml.relauncher.SideOnly;
 import journeymap.client.JourneymapClient;
 import journeymap.client.feature.FeatureManager;
+import journeymap.client.task.multi.DirtyChunkTracker;
 import net.minecraftforge.event.world.WorldEvent;
 
 import java.util.EnumSet;
@@ -36,10 +37,24 @@ public class WorldEventHandler implements EventHandlerManager.EventHandler
         return EnumSet.of(EventHandlerManager.BusType.MinecraftForgeBus);
     }
 
+    @SideOnly(Side.CLIENT)
+    @SubscribeEvent
+    public void invoke(WorldEvent.Load event)
+    {
+        if (event.world.isRemote)
+        {
+            DirtyChunkTracker.instance().attach(event.world);
+        }
+    }
+
     @SideOnly(Side.CLIENT)
     @SubscribeEvent
     public void invoke(WorldEvent.Unload event)
     {
+        if (DirtyChunkTracker.instance().isAttached(event.world))
+        {
+            DirtyChunkTracker.instance().detach();
+        }
         JourneymapClient.getInstance().stopMapping();
         FeatureManager.instance().reset();
     }
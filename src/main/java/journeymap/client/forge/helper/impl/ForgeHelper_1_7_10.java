@@ -470,12 +470,15 @@ public class ForgeHelper_1_7_10 implements IForgeHelper
 
     class JmBlockAccess implements IBlockAccess
     {
-        private Chunk getChunk(int x, int z)
+        /**
+         * The ChunkMD rather than its Chunk, since chunks read from saved data only have a snapshot.
+         */
+        private ChunkMD getChunkMD(int x, int z)
         {
             ChunkMD chunkMD = DataCache.instance().getChunkMD(ChunkCoordIntPair.chunkXZ2Int(x >> 4, z >> 4));
             if (chunkMD != null && chunkMD.hasChunk())
             {
-                return chunkMD.getChunk();
+                return chunkMD;
             }
             return null;
         }
@@ -485,10 +488,10 @@ public class ForgeHelper_1_7_10 implements IForgeHelper
         {
             if (x >= -30000000 && z >= -30000000 && x < 30000000 && z < 30000000 && y >= 0 && y < 256)
             {
-                Chunk chunk = getChunk(x, z);
-                if (chunk != null)
+                ChunkMD chunkMD = getChunkMD(x, z);
+                if (chunkMD != null)
                 {
-                    return chunk.getBlock(x & 15, y, z & 15);
+                    return chunkMD.getBlock(x & 15, y, z & 15);
                 }
             }
             return Blocks.air;
@@ -513,12 +516,12 @@ public class ForgeHelper_1_7_10 implements IForgeHelper
             {
                 if (y >= 0 && y < 256)
                 {
-                    Chunk chunk = getChunk(x, z);
-                    if (chunk != null)
+                    ChunkMD chunkMD = getChunkMD(x, z);
+                    if (chunkMD != null)
                     {
                         x &= 15;
                         z &= 15;
-                        return chunk.getBlockMetadata(x, y, z);
+                        return chunkMD.getBlockMeta(x, y, z);
                     }
                 }
             }
@@ -572,8 +575,7 @@ public class ForgeHelper_1_7_10 implements IForgeHelper
                 return _default;
             }
 
-            Chunk chunk = getChunk(x >> 4, z >> 4);
-            if (chunk == null || chunk.isEmpty())
+            if (getChunkMD(x, z) == null)
             {
                 return _default;
             }
@@ -0,0 +1,157 @@
+/*
+ * JourneyMap Mod <journeymap.info> for Minecraft
+ * Copyright (c) 2011-2017  Techbrew Interactive, LLC <techbrew.net>.  All Rights Reserved.
+ */
+
+package journeymap.client.io;
+
+import gnu.trove.iterator.TLongLongIterator;
+import gnu.trove.map.hash.TLongLongHashMap;
+import journeymap.client.log.LogFormatter;
+import journeymap.common.Journeymap;
+import net.minecraft.world.ChunkCoordIntPair;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+
+/**
+ * Regions finished by auto-mapping, each with when its newest chunk had been saved at the time it was rendered.
+ * An auto-map which is stopped, or which ends with the game, picks up where it left off, and later runs only
+ * re-render regions which have changed since.
+ * <p/>
+ * Kept in the map type's image directory as an append-only file: a header with the mapping options and block
+ * colors it was written with, then a 16-byte record per finished region.  A journal written with other options
+ * or colors is ignored, since every region would render differently now.
+ */
+public class AutoMapJournal
+{
+    private static final Logger logger = Journeymap.getLogger();
+    private static final String FILE_NAME = "automap.journal";
+    private static final int MAGIC = 0x4A4D414A; // "JMAJ"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_BYTES = 16;
+
+    private final File file;
+    private final long imageFingerprint;
+    private final TLongLongHashMap regions = new TLongLongHashMap();
+    private int records;
+    private boolean rewrite;
+
+    private AutoMapJournal(File imageDir, long imageFingerprint)
+    {
+        this.file = new File(imageDir, FILE_NAME);
+        this.imageFingerprint = imageFingerprint;
+    }
+
+    /**
+     * Load the journal in the image directory, or start a new one if there isn't one for the same options and colors.
+     */
+    public static AutoMapJournal open(File imageDir, long imageFingerprint)
+    {
+        AutoMapJournal journal = new AutoMapJournal(imageDir, imageFingerprint);
+        journal.load();
+        return journal;
+    }
+
+    private void load()
+    {
+        rewrite = true;
+        if (!file.exists())
+        {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != imageFingerprint)
+            {
+                logger.info("Auto-map journal is for other mapping options or colors, starting over: {}", file);
+                return;
+            }
+
+            // A record cut short by a crash is dropped, and the file rewritten so later records line up
+            long length = file.length() - HEADER_BYTES;
+            for (long i = 0; i < length / RECORD_BYTES; i++)
+            {
+                long key = in.readLong();
+                regions.put(key, in.readLong());
+                records++;
+            }
+
+            // Also rewrite instead of appending once most records have been superseded
+            rewrite = (length % RECORD_BYTES != 0) || records > (regions.size() * 2) + 64;
+        }
+        catch (IOException e)
+        {
+            logger.warn("Couldn't read auto-map journal {}: {}", file, LogFormatter.toPartialString(e));
+            regions.clear();
+            records = 0;
+        }
+    }
+
+    /**
+     * When the region's newest chunk had been saved when it was last auto-mapped, or -1 if it hasn't been.
+     */
+    public synchronized long getRenderedFrom(int regionX, int regionZ)
+    {
+        long key = ChunkCoordIntPair.chunkXZ2Int(regionX, regionZ);
+        return regions.containsKey(key) ? regions.get(key) : -1;
+    }
+
+    /**
+     * Record that the region has been mapped and its image written.
+     *
+     * @param lastModified when the region's newest chunk had been saved, as of rendering it
+     */
+    public synchronized void markComplete(int regionX, int regionZ, long lastModified)
+    {
+        long key = ChunkCoordIntPair.chunkXZ2Int(regionX, regionZ);
+        regions.put(key, lastModified);
+
+        // Opened per record, since regions take seconds apiece and nothing is left open when the game ends
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, !rewrite))))
+        {
+            if (rewrite)
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(imageFingerprint);
+                TLongLongIterator iterator = regions.iterator();
+                while (iterator.hasNext())
+                {
+                    iterator.advance();
+                    out.writeLong(iterator.key());
+                    out.writeLong(iterator.value());
+                }
+                records = regions.size();
+                rewrite = false;
+            }
+            else
+            {
+                out.writeLong(key);
+                out.writeLong(lastModified);
+                records++;
+            }
+        }
+        catch (IOException e)
+        {
+            logger.warn("Couldn't update auto-map journal {}: {}", file, LogFormatter.toPartialString(e));
+            rewrite = true;
+        }
+    }
+
+    public synchronized int size()
+    {
+        return regions.size();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AutoMapJournal{" +
+                "file=" + file +
+                ", regions=" + size() +
+                '}';
+    }
+}
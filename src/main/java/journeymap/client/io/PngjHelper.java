@@ -7,10 +7,23 @@ package journeymap.client.io;
 
 import ar.com.hjg.pngj.*;
 import ar.com.hjg.pngj.chunks.ChunkLoadBehaviour;
+import journeymap.client.Constants;
 import journeymap.client.JourneymapClient;
+import journeymap.client.ui.option.KeyedEnum;
 import journeymap.common.Journeymap;
 
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 
 /**
@@ -20,6 +33,151 @@ import java.util.Arrays;
  */
 public class PngjHelper
 {
+    /**
+     * Reusable RGBA scanline, one per writing thread.
+     */
+    private static final ThreadLocal<byte[]> rowBytes = new ThreadLocal<byte[]>();
+
+    /**
+     * Reusable ARGB scanline for images which aren't backed by a DataBufferInt.
+     */
+    private static final ThreadLocal<int[]> rowInts = new ThreadLocal<int[]>();
+
+    /**
+     * Stream an image to a PNG file one row at a time.  The file is written to a temp file alongside the
+     * destination and then renamed, so readers never see a partially-written PNG.
+     *
+     * @param image     image to write
+     * @param destFile  destination PNG file
+     * @param compLevel deflate level, 0-9
+     * @param filter    row filter strategy
+     */
+    public static void writeImage(final BufferedImage image, final File destFile, final int compLevel, final RowFilter filter) throws IOException
+    {
+        final File tempFile = new File(destFile.getParentFile(), destFile.getName() + ".tmp");
+        boolean written = false;
+        try
+        {
+            final OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile));
+            try
+            {
+                writeImage(image, out, destFile.getName(), compLevel, filter);
+            }
+            finally
+            {
+                out.close();
+            }
+
+            try
+            {
+                Files.move(tempFile.toPath(), destFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(tempFile.toPath(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            written = true;
+        }
+        finally
+        {
+            if (!written)
+            {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Encode an image as PNG bytes.
+     *
+     * @param image     image to encode
+     * @param compLevel deflate level, 0-9
+     * @param filter    row filter strategy
+     */
+    public static byte[] encodeImage(final BufferedImage image, final int compLevel, final RowFilter filter) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        writeImage(image, out, "memory", compLevel, filter);
+        return out.toByteArray();
+    }
+
+    /**
+     * Stream an image as PNG one row at a time, converting rows straight from the DataBufferInt when possible.
+     * The stream is left open.
+     */
+    private static void writeImage(final BufferedImage image, final OutputStream out, final String description,
+                                   final int compLevel, final RowFilter filter) throws IOException
+    {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int rowLen = width * 4;
+
+        byte[] row = rowBytes.get();
+        if (row == null || row.length != rowLen)
+        {
+            row = new byte[rowLen];
+            rowBytes.set(row);
+        }
+
+        // Read straight from the backing array when the image is a plain INT_ARGB raster
+        int[] pixels = null;
+        final WritableRaster raster = image.getRaster();
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB && raster.getParent() == null
+                && raster.getDataBuffer() instanceof DataBufferInt)
+        {
+            pixels = ((DataBufferInt) raster.getDataBuffer()).getData();
+        }
+
+        int[] argbRow = null;
+        if (pixels == null)
+        {
+            argbRow = rowInts.get();
+            if (argbRow == null || argbRow.length != width)
+            {
+                argbRow = new int[width];
+                rowInts.set(argbRow);
+            }
+        }
+
+        try
+        {
+            final PngWriter pngw = new PngWriter(out, new ImageInfo(width, height, 8, true), description);
+            pngw.setShouldCloseStream(false);
+            pngw.setCompLevel(Math.max(0, Math.min(9, compLevel)));
+            pngw.setFilterType(filter.filterType);
+
+            for (int y = 0; y < height; y++)
+            {
+                final int[] src;
+                int pos;
+                if (pixels != null)
+                {
+                    src = pixels;
+                    pos = y * width;
+                }
+                else
+                {
+                    src = image.getRGB(0, y, width, 1, argbRow, 0, width);
+                    pos = 0;
+                }
+
+                for (int x = 0, b = 0; x < width; x++)
+                {
+                    final int argb = src[pos++];
+                    row[b++] = (byte) (argb >> 16);
+                    row[b++] = (byte) (argb >> 8);
+                    row[b++] = (byte) argb;
+                    row[b++] = (byte) (argb >>> 24);
+                }
+                pngw.writeRowByte(row, y);
+            }
+            pngw.end();
+        }
+        catch (PngjException e)
+        {
+            throw new IOException(e);
+        }
+    }
 
     /**
      * @param tiles       Filenames of PNG files to tile
@@ -101,4 +259,37 @@ public class PngjHelper
 
         pngw.end(); // close writer
     }
+
+    /**
+     * PNG row filter strategies offered for region images.
+     */
+    public enum RowFilter implements KeyedEnum
+    {
+        None("jm.advanced.png_filter_none", FilterType.FILTER_NONE),
+        Sub("jm.advanced.png_filter_sub", FilterType.FILTER_SUB),
+        Up("jm.advanced.png_filter_up", FilterType.FILTER_UP),
+        Paeth("jm.advanced.png_filter_paeth", FilterType.FILTER_PAETH),
+        Adaptive("jm.advanced.png_filter_adaptive", FilterType.FILTER_AGGRESSIVE);
+
+        public final String key;
+        public final FilterType filterType;
+
+        RowFilter(String key, FilterType filterType)
+        {
+            this.key = key;
+            this.filterType = filterType;
+        }
+
+        @Override
+        public String getKey()
+        {
+            return key;
+        }
+
+        @Override
+        public String toString()
+        {
+            return Constants.getString(this.key);
+        }
+    }
 }
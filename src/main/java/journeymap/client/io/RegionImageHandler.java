@@ -122,10 +122,48 @@ public class RegionImageHandler
 
     /**
      * Used by MapOverlay to let the image dimensions be directly specified (as a power of 2).
+     * Thread-safe: all drawing is done on images owned by the call.
+     *
+     * @param useCache if true, regions are loaded into the RegionImageCache.  Otherwise regions
+     *                 already in memory are used as-is and the rest are read from disk without caching them.
      */
-    public static synchronized BufferedImage getMergedChunks(final File worldDir, final ChunkCoordIntPair startCoord, final ChunkCoordIntPair endCoord, final MapType mapType,
-                                                             final Boolean useCache, BufferedImage image, final Integer imageWidth, final Integer imageHeight,
-                                                             final boolean allowNullImage, boolean showGrid)
+    public static BufferedImage getMergedChunks(final File worldDir, final ChunkCoordIntPair startCoord, final ChunkCoordIntPair endCoord, final MapType mapType,
+                                                final Boolean useCache, BufferedImage image, final Integer imageWidth, final Integer imageHeight,
+                                                final boolean allowNullImage, boolean showGrid)
+    {
+        final RegionImageCache cache = RegionImageCache.instance();
+        RegionImageSource source;
+        if (useCache != null && useCache)
+        {
+            source = new RegionImageSource()
+            {
+                @Override
+                public BufferedImage getRegionImage(RegionCoord rCoord, MapType mapType)
+                {
+                    return cache.getRegionImageSet(rCoord).getImage(mapType);
+                }
+            };
+        }
+        else
+        {
+            source = new RegionImageSource()
+            {
+                @Override
+                public BufferedImage getRegionImage(RegionCoord rCoord, MapType mapType)
+                {
+                    return cache.peekRegionImage(rCoord, mapType);
+                }
+            };
+        }
+        return getMergedChunks(worldDir, startCoord, endCoord, mapType, source, image, imageWidth, imageHeight, allowNullImage, showGrid);
+    }
+
+    /**
+     * Composite the region images from the source.  Thread-safe as long as the source is.
+     */
+    public static BufferedImage getMergedChunks(final File worldDir, final ChunkCoordIntPair startCoord, final ChunkCoordIntPair endCoord, final MapType mapType,
+                                                final RegionImageSource source, BufferedImage image, final Integer imageWidth, final Integer imageHeight,
+                                                final boolean allowNullImage, boolean showGrid)
     {
         long start = 0, stop = 0;
         start = System.currentTimeMillis();
@@ -140,8 +178,6 @@ public class RegionImageHandler
         final Graphics2D g2D = initRenderingHints(image.createGraphics());
         g2D.clearRect(0, 0, imageWidth, imageHeight);
 
-        final RegionImageCache cache = RegionImageCache.instance();
-
         RegionCoord rc = null;
         BufferedImage regionImage = null;
 
@@ -158,7 +194,7 @@ public class RegionImageHandler
             for (int rz = rz1; rz <= rz2; rz++)
             {
                 rc = new RegionCoord(worldDir, rx, rz, mapType.dimension);
-                regionImage = cache.getRegionImageSet(rc).getImage(mapType);
+                regionImage = source.getRegionImage(rc, mapType);
 
                 if (regionImage == null)
                 {
@@ -248,10 +284,11 @@ public class RegionImageHandler
 
     /**
      * Used by MapOverlay to let the image dimensions be directly specified (as a power of 2).
+     * Thread-safe: TileDrawStepCache creates each step atomically.
      */
-    public static synchronized List<TileDrawStep> getTileDrawSteps(final File worldDir, final ChunkCoordIntPair startCoord,
-                                                                   final ChunkCoordIntPair endCoord, final MapType mapType,
-                                                                   Integer zoom, boolean highQuality)
+    public static List<TileDrawStep> getTileDrawSteps(final File worldDir, final ChunkCoordIntPair startCoord,
+                                                      final ChunkCoordIntPair endCoord, final MapType mapType,
+                                                      Integer zoom, boolean highQuality)
     {
         boolean isUnderground = mapType.isUnderground();
 
@@ -320,6 +357,17 @@ public class RegionImageHandler
         return g;
     }
 
+    /**
+     * Supplies region images to getMergedChunks.
+     */
+    public interface RegionImageSource
+    {
+        /**
+         * @return the image, or null if the region hasn't been mapped
+         */
+        BufferedImage getRegionImage(RegionCoord rCoord, MapType mapType);
+    }
+
     // On-demand-holder for instance
     private static class Holder
     {
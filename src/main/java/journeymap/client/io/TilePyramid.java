@@ -0,0 +1,373 @@
+/*
+ * JourneyMap Mod <journeymap.info> for Minecraft
+ * Copyright (c) 2011-2017  Techbrew Interactive, LLC <techbrew.net>.  All Rights Reserved.
+ */
+
+package journeymap.client.io;
+
+import journeymap.client.JourneymapClient;
+import journeymap.client.log.LogFormatter;
+import journeymap.client.log.StatTimer;
+import journeymap.client.model.MapType;
+import journeymap.client.model.RegionCoord;
+import journeymap.client.render.map.Tile;
+import journeymap.common.Journeymap;
+import journeymap.common.thread.JMThreadFactory;
+import org.apache.logging.log4j.Logger;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persisted zoom-out levels for region images.  Level 1 tiles cover 2x2 regions at 1:2,
+ * level 2 tiles cover 4x4 regions at 1:4, and level 3 tiles cover 8x8 regions at 1:8.
+ * Every tile is {@link Tile#TILESIZE} square and lives in a "mip<level>" directory inside
+ * the map type's image directory, named like the region images.
+ * <p/>
+ * Tiles are updated incrementally each time a region image is written: the region is
+ * downsampled into one quadrant of its level 1 tile, which is then downsampled into a
+ * quadrant of its level 2 tile, and so on.  Updates are coalesced and applied on a single
+ * background thread, so each costs one tile read and write per level.
+ *
+ * @author techbrew
+ */
+public class TilePyramid
+{
+    public static final int MAX_LEVEL = 3;
+    private static final int SIZE = Tile.TILESIZE;
+    private static final int HALF = SIZE / 2;
+    private static final Logger logger = Journeymap.getLogger();
+    private static final StatTimer updateTimer = StatTimer.get("TilePyramid.update", 5, 500);
+
+    /**
+     * Pending updates, keyed by region image file.  Guarded by itself.
+     */
+    private static final Map<File, Update> pending = new LinkedHashMap<File, Update>();
+    private static final ThreadPoolExecutor executor;
+
+    static
+    {
+        executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new JMThreadFactory("pyramid"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private TilePyramid()
+    {
+    }
+
+    /**
+     * Directory for the tiles of a zoom-out level.
+     */
+    public static File getLevelDir(File imageDir, int level)
+    {
+        return new File(imageDir, "mip" + level);
+    }
+
+    public static File getTileFile(RegionCoord rCoord, MapType mapType, int level, int tileX, int tileZ)
+    {
+        return getTileFile(RegionImageHandler.getImageDir(rCoord, mapType), level, tileX, tileZ);
+    }
+
+    public static File getTileFile(File imageDir, int level, int tileX, int tileZ)
+    {
+        return new File(getLevelDir(imageDir, level), tileX + "," + tileZ + ".png");
+    }
+
+    /**
+     * Queue the pyramid update for a region image which was just written to disk.
+     * Must be called while the image can't be modified.
+     *
+     * @param regionFile  the region image file
+     * @param regionX     region x
+     * @param regionZ     region z
+     * @param regionImage the image which was written
+     */
+    public static void queueUpdate(File regionFile, int regionX, int regionZ, BufferedImage regionImage)
+    {
+        if (regionImage.getWidth() != SIZE || regionImage.getHeight() != SIZE)
+        {
+            return;
+        }
+
+        Update update = new Update(regionFile.getParentFile(), regionX, regionZ, downsample(getPixels(regionImage)));
+        synchronized (pending)
+        {
+            boolean idle = pending.isEmpty();
+            pending.put(regionFile, update);
+            if (idle)
+            {
+                executor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        processPending();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Get the file for a tile, building it from lower levels if it hasn't been made yet.
+     *
+     * @return the file, or null if there's nothing mapped in the area
+     */
+    public static File getOrBuildTile(File imageDir, int level, int tileX, int tileZ)
+    {
+        File tileFile = getTileFile(imageDir, level, tileX, tileZ);
+        if (tileFile.canRead())
+        {
+            return tileFile;
+        }
+
+        synchronized (TilePyramid.class)
+        {
+            if (!tileFile.canRead())
+            {
+                int[] tile = new int[SIZE * SIZE];
+                if (!fillQuadrants(imageDir, level, tileX, tileZ, tile, -1, -1, true))
+                {
+                    return null;
+                }
+                writeTile(tileFile, tile);
+            }
+        }
+        return tileFile;
+    }
+
+    private static void processPending()
+    {
+        while (true)
+        {
+            Update update;
+            synchronized (pending)
+            {
+                Iterator<Update> iter = pending.values().iterator();
+                if (!iter.hasNext())
+                {
+                    return;
+                }
+                update = iter.next();
+                iter.remove();
+            }
+
+            updateTimer.start();
+            try
+            {
+                applyUpdate(update);
+            }
+            catch (Throwable t)
+            {
+                logger.error("Error updating tile pyramid for {}: {}", update, LogFormatter.toPartialString(t));
+            }
+            finally
+            {
+                updateTimer.stop();
+            }
+        }
+    }
+
+    private static synchronized void applyUpdate(Update update)
+    {
+        int[] quadrant = update.quadrant;
+        int x = update.regionX;
+        int z = update.regionZ;
+        for (int level = 1; level <= MAX_LEVEL; level++)
+        {
+            int tileX = x >> 1;
+            int tileZ = z >> 1;
+            File tileFile = getTileFile(update.imageDir, level, tileX, tileZ);
+
+            int[] tile = readTile(tileFile);
+            if (tile == null)
+            {
+                // First time: seed the other quadrants, building any lower-level tiles they're missing
+                // from the region images, which may predate the pyramid
+                tile = new int[SIZE * SIZE];
+                fillQuadrants(update.imageDir, level, tileX, tileZ, tile, x & 1, z & 1, true);
+            }
+
+            pasteQuadrant(quadrant, tile, x & 1, z & 1);
+            writeTile(tileFile, tile);
+
+            quadrant = downsample(tile);
+            x = tileX;
+            z = tileZ;
+        }
+    }
+
+    /**
+     * Fill a tile's quadrants from the level below.
+     *
+     * @param skipQx quadrant to leave alone, or -1
+     * @param skipQz quadrant to leave alone, or -1
+     * @param build  whether to build missing lower-level tiles
+     * @return true if any quadrant had an image
+     */
+    private static boolean fillQuadrants(File imageDir, int level, int tileX, int tileZ, int[] tile, int skipQx, int skipQz, boolean build)
+    {
+        boolean found = false;
+        for (int qz = 0; qz < 2; qz++)
+        {
+            for (int qx = 0; qx < 2; qx++)
+            {
+                if (qx == skipQx && qz == skipQz)
+                {
+                    continue;
+                }
+
+                int childX = (tileX << 1) + qx;
+                int childZ = (tileZ << 1) + qz;
+                File childFile;
+                if (level == 1)
+                {
+                    childFile = new File(imageDir, childX + "," + childZ + ".png");
+                }
+                else if (build)
+                {
+                    childFile = getOrBuildTile(imageDir, level - 1, childX, childZ);
+                }
+                else
+                {
+                    childFile = getTileFile(imageDir, level - 1, childX, childZ);
+                }
+
+                int[] child = (childFile == null) ? null : readTile(childFile);
+                if (child != null)
+                {
+                    pasteQuadrant(downsample(child), tile, qx, qz);
+                    found = true;
+                }
+            }
+        }
+        return found;
+    }
+
+    private static int[] readTile(File file)
+    {
+        if (!file.canRead())
+        {
+            return null;
+        }
+
+        BufferedImage image = RegionImageHandler.readRegionImage(file, true);
+        if (image == null || image.getWidth() != SIZE || image.getHeight() != SIZE)
+        {
+            return null;
+        }
+        return getPixels(image);
+    }
+
+    private static void writeTile(File file, int[] tile)
+    {
+        BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+        System.arraycopy(tile, 0, ((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0, tile.length);
+        try
+        {
+            file.getParentFile().mkdirs();
+            PngjHelper.writeImage(image, file, JourneymapClient.getCoreProperties().regionPngCompression.get(),
+                    JourneymapClient.getCoreProperties().regionPngFilter.get());
+        }
+        catch (Throwable t)
+        {
+            logger.error("Couldn't write pyramid tile {}: {}", file, LogFormatter.toPartialString(t));
+        }
+    }
+
+    private static int[] getPixels(BufferedImage image)
+    {
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB && image.getRaster().getParent() == null)
+        {
+            return Arrays.copyOf(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), SIZE * SIZE);
+        }
+        return image.getRGB(0, 0, SIZE, SIZE, null, 0, SIZE);
+    }
+
+    /**
+     * Halve a full-size tile with a 2x2 box filter.  Transparent pixels don't darken their neighbors.
+     */
+    static int[] downsample(int[] src)
+    {
+        int[] dest = new int[HALF * HALF];
+        int i = 0;
+        for (int y = 0; y < SIZE; y += 2)
+        {
+            int row = y * SIZE;
+            for (int x = 0; x < SIZE; x += 2)
+            {
+                int p1 = src[row + x];
+                int p2 = src[row + x + 1];
+                int p3 = src[row + SIZE + x];
+                int p4 = src[row + SIZE + x + 1];
+                dest[i++] = average(p1, p2, p3, p4);
+            }
+        }
+        return dest;
+    }
+
+    private static int average(int p1, int p2, int p3, int p4)
+    {
+        int a = 0, r = 0, g = 0, b = 0, count = 0;
+        for (int i = 0; i < 4; i++)
+        {
+            int argb = (i == 0) ? p1 : (i == 1) ? p2 : (i == 2) ? p3 : p4;
+            int alpha = argb >>> 24;
+            if (alpha > 0)
+            {
+                a += alpha;
+                r += (argb >> 16) & 0xFF;
+                g += (argb >> 8) & 0xFF;
+                b += argb & 0xFF;
+                count++;
+            }
+        }
+
+        if (count == 0)
+        {
+            return 0;
+        }
+        return ((a >> 2) << 24) | ((r / count) << 16) | ((g / count) << 8) | (b / count);
+    }
+
+    private static void pasteQuadrant(int[] quadrant, int[] tile, int qx, int qz)
+    {
+        int destX = qx * HALF;
+        int destY = qz * HALF;
+        for (int y = 0; y < HALF; y++)
+        {
+            System.arraycopy(quadrant, y * HALF, tile, ((destY + y) * SIZE) + destX, HALF);
+        }
+    }
+
+    static class Update
+    {
+        final File imageDir;
+        final int regionX;
+        final int regionZ;
+        final int[] quadrant;
+
+        Update(File imageDir, int regionX, int regionZ, int[] quadrant)
+        {
+            this.imageDir = imageDir;
+            this.regionX = regionX;
+            this.regionZ = regionZ;
+            this.quadrant = quadrant;
+        }
+
+        @Override
+        public String toString()
+        {
+            return imageDir + "/" + regionX + "," + regionZ;
+        }
+    }
+}
@@ -9,6 +9,7 @@ package journeymap.client.io.nbt;
 import journeymap.client.forge.helper.ForgeHelper;
 import journeymap.client.log.LogFormatter;
 import journeymap.client.model.ChunkMD;
+import journeymap.client.model.ChunkSnapshot;
 import journeymap.common.Journeymap;
 import net.minecraft.client.Minecraft;
 import net.minecraft.world.ChunkCoordIntPair;
@@ -57,6 +58,36 @@ public class ChunkLoader
         return null;
     }
 
+    /**
+     * Reads just what mapping needs of the chunk from the region file on disk, without building a Chunk.
+     * Only works in SinglePlayer, and assumes the current dimension is the intended dimension.
+     */
+    public static ChunkMD getChunkMD(ChunkSectionReader reader, Minecraft mc, ChunkCoordIntPair coord)
+    {
+        try
+        {
+            // Check for the region file on disk first so the region cache doesn't create empty region files
+            if (RegionLoader.getRegionFile(mc, coord.chunkXPos, coord.chunkZPos).exists())
+            {
+                World world = mc.theWorld;
+                ChunkSnapshot snapshot = reader.read(coord.chunkXPos, coord.chunkZPos, ForgeHelper.INSTANCE.hasNoSky(world));
+                if (snapshot != null)
+                {
+                    return new ChunkMD(world, snapshot);
+                }
+            }
+            else
+            {
+                logger.warn("Region doesn't exist for chunk: {}", coord);
+            }
+        }
+        catch (Throwable e)
+        {
+            logger.error("Error reading chunk: {}", LogFormatter.toPartialString(e));
+        }
+        return null;
+    }
+
     public static ChunkMD getChunkMdFromMemory(World world, int chunkX, int chunkZ)
     {
         if (world.getChunkProvider().chunkExists(chunkX, chunkZ))
@@ -0,0 +1,399 @@
+/*
+ * JourneyMap Mod <journeymap.info> for Minecraft
+ * Copyright (c) 2011-2017  Techbrew Interactive, LLC <techbrew.net>.  All Rights Reserved.
+ */
+
+package journeymap.client.io.nbt;
+
+import journeymap.client.model.ChunkSnapshot;
+import net.minecraft.world.chunk.storage.RegionFileCache;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads only what the renderers need from a chunk's saved NBT into a ChunkSnapshot: the Blocks, Add, Data,
+ * BlockLight and SkyLight arrays of each section, the HeightMap and the Biomes.  Tags are parsed as they come off
+ * the stream, and everything else, including entities and tile entities, is skipped without being built.
+ * Once the reader's buffers and the snapshot pool are warm, reading a chunk allocates next to nothing.
+ * <p/>
+ * Not thread-safe: each thread needs its own reader.
+ */
+public class ChunkSectionReader
+{
+    static final byte TAG_END = 0;
+    static final byte TAG_BYTE = 1;
+    static final byte TAG_SHORT = 2;
+    static final byte TAG_INT = 3;
+    static final byte TAG_LONG = 4;
+    static final byte TAG_FLOAT = 5;
+    static final byte TAG_DOUBLE = 6;
+    static final byte TAG_BYTE_ARRAY = 7;
+    static final byte TAG_STRING = 8;
+    static final byte TAG_LIST = 9;
+    static final byte TAG_COMPOUND = 10;
+    static final byte TAG_INT_ARRAY = 11;
+
+    private static final byte[] LEVEL = key("Level");
+    private static final byte[] SECTIONS = key("Sections");
+    private static final byte[] HEIGHT_MAP = key("HeightMap");
+    private static final byte[] BIOMES = key("Biomes");
+    private static final byte[] Y = key("Y");
+    private static final byte[] BLOCKS = key("Blocks");
+    private static final byte[] ADD = key("Add");
+    private static final byte[] DATA = key("Data");
+    private static final byte[] BLOCK_LIGHT = key("BlockLight");
+    private static final byte[] SKY_LIGHT = key("SkyLight");
+
+    private static final int FOUND_SECTIONS = 1;
+    private static final int FOUND_HEIGHT_MAP = 2;
+    private static final int FOUND_BIOMES = 4;
+    private static final int FOUND_ALL = FOUND_SECTIONS | FOUND_HEIGHT_MAP | FOUND_BIOMES;
+
+    private final File saveDir;
+    private final ChunkSnapshot.Pool pool;
+    private final byte[] skipBuffer = new byte[4096];
+    private final byte[] blocks = new byte[4096];
+    private final byte[] add = new byte[2048];
+    private final byte[] data = new byte[2048];
+    private final byte[] blockLight = new byte[2048];
+    private final byte[] skyLight = new byte[2048];
+    private final int[] heightMap = new int[256];
+    private final byte[] biomes = new byte[256];
+    private byte[] name = new byte[64];
+    private int nameLength;
+
+    /**
+     * @param saveDir the dimension's save directory, which has the region directory in it
+     * @param pool    where snapshots are obtained from
+     */
+    public ChunkSectionReader(File saveDir, ChunkSnapshot.Pool pool)
+    {
+        this.saveDir = saveDir;
+        this.pool = pool;
+    }
+
+    private static byte[] key(String name)
+    {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read the chunk from its region file.
+     *
+     * @param hasNoSky whether the world has no sky, in which case sky light isn't read, as with a Chunk
+     * @return the snapshot, or null if the chunk hasn't been saved
+     */
+    public ChunkSnapshot read(int chunkX, int chunkZ, boolean hasNoSky) throws IOException
+    {
+        DataInputStream in = RegionFileCache.getChunkInputStream(saveDir, chunkX, chunkZ);
+        if (in == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            return read(in, chunkX, chunkZ, hasNoSky);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Read the chunk from a decompressed NBT stream.  Reading stops once everything needed has been found,
+     * so the rest of the stream is left unread.
+     *
+     * @return the snapshot, or null if there's no Level compound
+     */
+    public ChunkSnapshot read(DataInput in, int chunkX, int chunkZ, boolean hasNoSky) throws IOException
+    {
+        if (in.readByte() != TAG_COMPOUND)
+        {
+            throw new IOException("Chunk data doesn't start with a compound tag");
+        }
+        readName(in);
+
+        ChunkSnapshot snapshot = pool.obtain();
+        snapshot.begin(chunkX, chunkZ);
+        boolean done = false;
+        try
+        {
+            byte type;
+            while ((type = in.readByte()) != TAG_END)
+            {
+                readName(in);
+                if (type == TAG_COMPOUND && nameIs(LEVEL))
+                {
+                    readLevel(in, snapshot, hasNoSky);
+                    done = true;
+                    return snapshot;
+                }
+                skipPayload(in, type);
+            }
+            return null;
+        }
+        finally
+        {
+            if (!done)
+            {
+                snapshot.release();
+            }
+        }
+    }
+
+    private void readLevel(DataInput in, ChunkSnapshot snapshot, boolean hasNoSky) throws IOException
+    {
+        int found = 0;
+        byte type;
+        while (found != FOUND_ALL && (type = in.readByte()) != TAG_END)
+        {
+            readName(in);
+            if (type == TAG_LIST && nameIs(SECTIONS))
+            {
+                readSections(in, snapshot, hasNoSky);
+                found |= FOUND_SECTIONS;
+            }
+            else if (type == TAG_INT_ARRAY && nameIs(HEIGHT_MAP))
+            {
+                int length = in.readInt();
+                if (length == heightMap.length)
+                {
+                    for (int i = 0; i < length; i++)
+                    {
+                        heightMap[i] = in.readInt();
+                    }
+                    snapshot.setHeightMap(heightMap);
+                }
+                else
+                {
+                    skip(in, length * 4L);
+                }
+                found |= FOUND_HEIGHT_MAP;
+            }
+            else if (type == TAG_BYTE_ARRAY && nameIs(BIOMES))
+            {
+                if (readByteArray(in, biomes))
+                {
+                    snapshot.setBiomes(biomes);
+                }
+                found |= FOUND_BIOMES;
+            }
+            else
+            {
+                skipPayload(in, type);
+            }
+        }
+    }
+
+    private void readSections(DataInput in, ChunkSnapshot snapshot, boolean hasNoSky) throws IOException
+    {
+        byte elementType = in.readByte();
+        int count = in.readInt();
+        if (elementType != TAG_COMPOUND)
+        {
+            skipElements(in, elementType, count);
+            return;
+        }
+
+        for (int i = 0; i < count; i++)
+        {
+            int y = -1;
+            boolean hasBlocks = false;
+            boolean hasAdd = false;
+            boolean hasData = false;
+            boolean hasBlockLight = false;
+            boolean hasSkyLight = false;
+
+            byte type;
+            while ((type = in.readByte()) != TAG_END)
+            {
+                readName(in);
+                if (type == TAG_BYTE && nameIs(Y))
+                {
+                    y = in.readByte();
+                }
+                else if (type == TAG_BYTE_ARRAY && nameIs(BLOCKS))
+                {
+                    hasBlocks = readByteArray(in, blocks);
+                }
+                else if (type == TAG_BYTE_ARRAY && nameIs(ADD))
+                {
+                    hasAdd = readByteArray(in, add);
+                }
+                else if (type == TAG_BYTE_ARRAY && nameIs(DATA))
+                {
+                    hasData = readByteArray(in, data);
+                }
+                else if (type == TAG_BYTE_ARRAY && nameIs(BLOCK_LIGHT))
+                {
+                    hasBlockLight = readByteArray(in, blockLight);
+                }
+                else if (type == TAG_BYTE_ARRAY && nameIs(SKY_LIGHT) && !hasNoSky)
+                {
+                    hasSkyLight = readByteArray(in, skyLight);
+                }
+                else
+                {
+                    skipPayload(in, type);
+                }
+            }
+
+            // A section missing any of its required arrays couldn't have been loaded into a Chunk either
+            if (y >= 0 && y < 16 && hasBlocks && hasData && hasBlockLight)
+            {
+                snapshot.setSection(y, blocks, hasAdd ? add : null, data, blockLight, hasSkyLight ? skyLight : null);
+            }
+        }
+    }
+
+    /**
+     * Read a byte array payload into dest if it's the expected length, otherwise skip it.
+     */
+    private boolean readByteArray(DataInput in, byte[] dest) throws IOException
+    {
+        int length = in.readInt();
+        if (length == dest.length)
+        {
+            in.readFully(dest);
+            return true;
+        }
+        skip(in, length);
+        return false;
+    }
+
+    private void readName(DataInput in) throws IOException
+    {
+        int length = in.readUnsignedShort();
+        if (length > name.length)
+        {
+            name = new byte[length];
+        }
+        in.readFully(name, 0, length);
+        nameLength = length;
+    }
+
+    private boolean nameIs(byte[] key)
+    {
+        if (nameLength != key.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < nameLength; i++)
+        {
+            if (name[i] != key[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipPayload(DataInput in, byte type) throws IOException
+    {
+        switch (type)
+        {
+            case TAG_END:
+                break;
+            case TAG_BYTE:
+                skip(in, 1);
+                break;
+            case TAG_SHORT:
+                skip(in, 2);
+                break;
+            case TAG_INT:
+            case TAG_FLOAT:
+                skip(in, 4);
+                break;
+            case TAG_LONG:
+            case TAG_DOUBLE:
+                skip(in, 8);
+                break;
+            case TAG_BYTE_ARRAY:
+                skip(in, in.readInt());
+                break;
+            case TAG_STRING:
+                skip(in, in.readUnsignedShort());
+                break;
+            case TAG_LIST:
+                byte elementType = in.readByte();
+                skipElements(in, elementType, in.readInt());
+                break;
+            case TAG_COMPOUND:
+                byte tagType;
+                while ((tagType = in.readByte()) != TAG_END)
+                {
+                    skip(in, in.readUnsignedShort());
+                    skipPayload(in, tagType);
+                }
+                break;
+            case TAG_INT_ARRAY:
+                skip(in, in.readInt() * 4L);
+                break;
+            default:
+                throw new IOException("Unknown NBT tag type: " + type);
+        }
+    }
+
+    private void skipElements(DataInput in, byte elementType, int count) throws IOException
+    {
+        int size = getFixedSize(elementType);
+        if (size >= 0)
+        {
+            skip(in, (long) size * count);
+        }
+        else
+        {
+            for (int i = 0; i < count; i++)
+            {
+                skipPayload(in, elementType);
+            }
+        }
+    }
+
+    /**
+     * Size of the tag type's payload, or -1 if it varies.
+     */
+    private static int getFixedSize(byte type)
+    {
+        switch (type)
+        {
+            case TAG_END:
+                return 0;
+            case TAG_BYTE:
+                return 1;
+            case TAG_SHORT:
+                return 2;
+            case TAG_INT:
+            case TAG_FLOAT:
+                return 4;
+            case TAG_LONG:
+            case TAG_DOUBLE:
+                return 8;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Skip by reading into a reusable buffer, since skipping an InflaterInputStream allocates one each time.
+     */
+    private void skip(DataInput in, long count) throws IOException
+    {
+        if (count < 0)
+        {
+            throw new IOException("Negative NBT length: " + count);
+        }
+        while (count > 0)
+        {
+            int length = (int) Math.min(count, skipBuffer.length);
+            in.readFully(skipBuffer, 0, length);
+            count -= length;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * JourneyMap Mod <journeymap.info> for Minecraft
+ * Copyright (c) 2011-2017  Techbrew Interactive, LLC <techbrew.net>.  All Rights Reserved.
+ */
+
+package journeymap.client.io.nbt;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+import net.minecraft.world.ChunkCoordIntPair;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The location and timestamp tables from the 8 KB header of region (.mca) files, so whether a chunk has been
+ * saved, and when, can be answered without going through RegionFileCache or reading any chunk data.
+ * <p/>
+ * Each header is read with a single positional read rather than memory-mapped, since thousands of mappings
+ * would linger until collected, and on some platforms would keep the server from growing the files.
+ */
+public class RegionHeaderIndex
+{
+    static final int HEADER_BYTES = 8192;
+    static final int CHUNKS = 1024;
+
+    private final TLongObjectHashMap<Header> headers = new TLongObjectHashMap<Header>();
+    private final ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES);
+
+    /**
+     * Read the header of a region file and add it to the index.  Not thread-safe.
+     *
+     * @return the header, which has no chunks if the file is too short to have one
+     */
+    public Header add(File regionFile, int regionX, int regionZ) throws IOException
+    {
+        Header header = read(regionFile);
+        synchronized (headers)
+        {
+            headers.put(ChunkCoordIntPair.chunkXZ2Int(regionX, regionZ), header);
+        }
+        return header;
+    }
+
+    private Header read(File regionFile) throws IOException
+    {
+        Header header = new Header();
+        try (FileChannel channel = FileChannel.open(regionFile.toPath(), StandardOpenOption.READ))
+        {
+            if (channel.size() < HEADER_BYTES)
+            {
+                return header;
+            }
+
+            buffer.clear();
+            while (buffer.hasRemaining())
+            {
+                if (channel.read(buffer, buffer.position()) < 0)
+                {
+                    return header;
+                }
+            }
+        }
+
+        buffer.flip();
+        IntBuffer ints = buffer.asIntBuffer();
+        for (int i = 0; i < CHUNKS; i++)
+        {
+            // Same test as RegionFile.isChunkSaved()
+            if (ints.get(i) != 0)
+            {
+                header.saved[i >> 6] |= 1L << (i & 63);
+                header.chunkCount++;
+                int timestamp = ints.get(CHUNKS + i);
+                header.timestamps[i] = timestamp;
+                header.newestTimestamp = Math.max(header.newestTimestamp, timestamp);
+            }
+        }
+        return header;
+    }
+
+    /**
+     * @return the region's header, or null if it isn't indexed
+     */
+    public Header get(int regionX, int regionZ)
+    {
+        synchronized (headers)
+        {
+            return headers.get(ChunkCoordIntPair.chunkXZ2Int(regionX, regionZ));
+        }
+    }
+
+    /**
+     * Whether the chunk is saved in an indexed region file.
+     */
+    public boolean chunkExists(int chunkX, int chunkZ)
+    {
+        Header header = get(chunkX >> 5, chunkZ >> 5);
+        return header != null && header.chunkExists(chunkX, chunkZ);
+    }
+
+    /**
+     * One region file's header.
+     */
+    public static class Header
+    {
+        final long[] saved = new long[CHUNKS / 64];
+        final int[] timestamps = new int[CHUNKS];
+        int newestTimestamp;
+        int chunkCount;
+
+        private static int index(int chunkX, int chunkZ)
+        {
+            return (chunkX & 31) + ((chunkZ & 31) << 5);
+        }
+
+        public boolean chunkExists(int chunkX, int chunkZ)
+        {
+            int i = index(chunkX, chunkZ);
+            return (saved[i >> 6] & (1L << (i & 63))) != 0;
+        }
+
+        /**
+         * When the chunk was last saved, in milliseconds, or 0 if it hasn't been.
+         */
+        public long getLastModified(int chunkX, int chunkZ)
+        {
+            return timestamps[index(chunkX, chunkZ)] * 1000L;
+        }
+
+        /**
+         * When any chunk in the region was last saved, in milliseconds, or 0 if none have been.
+         */
+        public long getLastModified()
+        {
+            return newestTimestamp * 1000L;
+        }
+
+        public int getChunkCount()
+        {
+            return chunkCount;
+        }
+
+        public boolean isEmpty()
+        {
+            return chunkCount == 0;
+        }
+    }
+}
@@ -5,15 +5,16 @@
 
 package journeymap.client.io.nbt;
 
+import journeymap.client.cartography.ChunkRenderController;
+import journeymap.client.io.AutoMapJournal;
 import journeymap.client.io.FileHandler;
 import journeymap.client.io.RegionImageHandler;
 import journeymap.client.model.MapType;
 import journeymap.client.model.RegionCoord;
 import journeymap.client.model.RegionImageCache;
 import journeymap.common.Journeymap;
+import journeymap.client.log.LogFormatter;
 import net.minecraft.client.Minecraft;
-import net.minecraft.world.ChunkCoordIntPair;
-import net.minecraft.world.chunk.storage.AnvilChunkLoader;
 import org.apache.logging.log4j.Logger;
 
 import java.io.File;
@@ -30,12 +31,23 @@ public class RegionLoader
     final Logger logger = Journeymap.getLogger();
 
     final MapType mapType;
+    final RegionHeaderIndex headerIndex = new RegionHeaderIndex();
+    final AutoMapJournal journal;
     final Stack<RegionCoord> regions;
     final int regionsFound;
 
+    /**
+     * Regions the journal shows were auto-mapped since their newest chunk was saved are skipped either way.
+     *
+     * @param all whether to map every region, or only those without an image or whose image is older
+     *            than the region file's newest chunk
+     */
     public RegionLoader(final Minecraft minecraft, final MapType mapType, boolean all) throws IOException
     {
         this.mapType = mapType;
+        final RegionCoord playerRc = RegionCoord.fromChunkPos(FileHandler.getJMWorldDir(minecraft), mapType,
+                minecraft.thePlayer.chunkCoordX, minecraft.thePlayer.chunkCoordZ);
+        this.journal = AutoMapJournal.open(RegionImageHandler.getImageDir(playerRc, mapType), ChunkRenderController.getImageFingerprint());
         this.regions = findRegions(minecraft, mapType, all);
         this.regionsFound = regions.size();
     }
@@ -64,6 +76,22 @@ public class RegionLoader
         return regions;
     }
 
+    /**
+     * Where finished regions are recorded, so a later auto-map can skip them.
+     */
+    public AutoMapJournal getJournal()
+    {
+        return journal;
+    }
+
+    /**
+     * Headers of the region files found, read when the loader was created.
+     */
+    public RegionHeaderIndex getHeaderIndex()
+    {
+        return headerIndex;
+    }
+
     public int getRegionsFound()
     {
         return regionsFound;
@@ -97,10 +125,11 @@ public class RegionLoader
         final File jmImageWorldDir = FileHandler.getJMWorldDir(mc);
         final Stack<RegionCoord> stack = new Stack<RegionCoord>();
 
-        AnvilChunkLoader anvilChunkLoader = new AnvilChunkLoader(FileHandler.getWorldSaveDir(mc));
-
+        long start = System.currentTimeMillis();
         int validFileCount = 0;
         int existingImageCount = 0;
+        int staleImageCount = 0;
+        int journaledCount = 0;
         final File[] anvilFiles = regionDir.listFiles();
         for (File anvilFile : anvilFiles)
         {
@@ -113,23 +142,45 @@ public class RegionLoader
                 if (x != null && z != null)
                 {
                     RegionCoord rc = new RegionCoord(jmImageWorldDir, Integer.parseInt(x), Integer.parseInt(z), mapType.dimension);
-                    if (all)
+                    RegionHeaderIndex.Header header;
+                    try
+                    {
+                        header = headerIndex.add(anvilFile, rc.regionX, rc.regionZ);
+                    }
+                    catch (IOException e)
+                    {
+                        logger.warn("Couldn't read region file header {}: {}", anvilFile, LogFormatter.toPartialString(e));
+                        continue;
+                    }
+
+                    if (header.isEmpty())
+                    {
+                        continue;
+                    }
+
+                    File imageFile = RegionImageHandler.getRegionImageFile(rc, mapType, false);
+                    boolean hasImage = imageFile.exists();
+                    if (hasImage && journal.getRenderedFrom(rc.regionX, rc.regionZ) >= header.getLastModified())
+                    {
+                        // Auto-mapped since its chunks were last saved
+                        journaledCount++;
+                        existingImageCount++;
+                    }
+                    else if (all)
                     {
                         stack.add(rc);
                     }
                     else
                     {
-                        if (!RegionImageHandler.getRegionImageFile(rc, mapType, false).exists())
+                        if (!hasImage)
                         {
-                            List<ChunkCoordIntPair> chunkCoords = rc.getChunkCoordsInRegion();
-                            for (ChunkCoordIntPair coord : chunkCoords)
-                            {
-                                if (anvilChunkLoader.chunkExists(mc.theWorld, coord.chunkXPos, coord.chunkZPos))
-                                {
-                                    stack.add(rc);
-                                    break;
-                                }
-                            }
+                            stack.add(rc);
+                        }
+                        else if (header.getLastModified() > imageFile.lastModified())
+                        {
+                            // Chunks were saved after the image was last written
+                            stack.add(rc);
+                            staleImageCount++;
                         }
                         else
                         {
@@ -139,6 +190,9 @@ public class RegionLoader
                 }
             }
         }
+        logger.info("Read {} region file headers in {}ms: {} regions to map, {} with out of date images, {} up to date ({} per {})",
+                validFileCount, System.currentTimeMillis() - start, stack.size(), staleImageCount, existingImageCount, journaledCount, journal);
+
         if (stack.isEmpty() && (validFileCount != existingImageCount))
         {
             logger.warn("Anvil region files in {}: {}, matching image files: {}, but found nothing to do for mapType {}", regionDir, validFileCount, existingImageCount, mapType);
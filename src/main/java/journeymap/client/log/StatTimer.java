@@ -40,7 +40,7 @@ public class StatTimer
     private boolean maxed = false;
     private boolean ranTooLong = true;
     private int ranTooLongCount;
-    private Long started;
+    private final ThreadLocal<Long> started = new ThreadLocal<Long>(); // per thread, so render workers can share a timer
     private double max = 0;
     private double min = Double.MAX_VALUE;
 
@@ -230,7 +230,7 @@ public class StatTimer
                 return this;
             }
 
-            if (started != null)
+            if (started.get() != null)
             {
                 logger.warn("{} is already running, cancelling first", name);
                 this.cancel();
@@ -259,7 +259,7 @@ public class StatTimer
                 }
             }
 
-            started = System.nanoTime();
+            started.set(System.nanoTime());
             return this;
         }
     }
@@ -276,7 +276,7 @@ public class StatTimer
                 return 0;
             }
 
-            if (started == null)
+            if (started.get() == null)
             {
                 // If counter == 0, timer was reset while running.
                 // Otherwise it's being used improperly.
@@ -289,7 +289,7 @@ public class StatTimer
 
             try
             {
-                final double elapsedMs = (System.nanoTime() - started) / NS;
+                final double elapsedMs = (System.nanoTime() - started.get()) / NS;
                 totalTime.getAndAdd(elapsedMs);
                 counter.getAndIncrement();
                 if (elapsedMs < min)
@@ -300,7 +300,7 @@ public class StatTimer
                 {
                     max = elapsedMs;
                 }
-                started = null;
+                started.remove();
 
                 if (!warmup && elapsedMs >= elapsedLimit)
                 {
@@ -340,12 +340,12 @@ public class StatTimer
     {
         synchronized (counter)
         {
-            if (maxed || started == null)
+            if (maxed || started.get() == null)
             {
                 return 0;
             }
 
-            return (System.nanoTime() - started) / NS;
+            return (System.nanoTime() - started.get()) / NS;
         }
     }
 
@@ -387,7 +387,7 @@ public class StatTimer
     {
         synchronized (counter)
         {
-            started = null;
+            started.remove();
             cancelCounter.incrementAndGet();
         }
     }
@@ -401,7 +401,7 @@ public class StatTimer
         {
             warmup = doWarmup;
             maxed = false;
-            started = null;
+            started.remove();
             counter.set(0);
             cancelCounter.set(0);
             totalTime.set(0);
@@ -0,0 +1,194 @@
+/*
+ * JourneyMap Mod <journeymap.info> for Minecraft
+ * Copyright (c) 2011-2017  Techbrew Interactive, LLC <techbrew.net>.  All Rights Reserved.
+ */
+
+package journeymap.client.model;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+import net.minecraft.world.ChunkCoordIntPair;
+
+import java.util.Arrays;
+
+/**
+ * Biome tints (color multipliers) of grass, foliage and water blocks, per block column of each chunk.
+ * Computing a tint averages the biomes of the surrounding columns, and the same columns are tinted again for
+ * every stratum, map type and re-render of a chunk, so tints are kept until the client unloads the chunk,
+ * or are dropped when the chunk's content changes.  ChunkMDs of loaded chunks come and go much more often,
+ * so each one just holds on to its chunk's Tints, and the cache is only consulted once per ChunkMD.
+ * <p/>
+ * Only the interior columns are cached: tints along the chunk's edges also average the neighboring chunks'
+ * biomes, or the world's fallback biome while those aren't loaded, so they can change without this chunk's
+ * content changing.
+ * <p/>
+ * Each column holds one tint per kind, remembered along with the BlockMD and y it was computed for, since
+ * different grasses and leaves are tinted differently and the biome temperature changes with height.
+ */
+public class BiomeTintCache
+{
+    public static final int NONE = -1;
+    public static final int GRASS = 0;
+    public static final int FOLIAGE = 1;
+    public static final int WATER = 2;
+    private static final int KINDS = 3;
+
+    private final TLongObjectHashMap<Tints> chunks = new TLongObjectHashMap<Tints>(256);
+
+    private BiomeTintCache()
+    {
+    }
+
+    public static BiomeTintCache instance()
+    {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * The kind of tint cached for the block, or NONE if its tint isn't cached.
+     * Blocks with a CustomBiomeColor may be tinted by anything, so they're left out.
+     */
+    public static int kindOf(BlockMD blockMD)
+    {
+        if (blockMD.isGrass())
+        {
+            return GRASS;
+        }
+        if (blockMD.isFoliage())
+        {
+            return FOLIAGE;
+        }
+        if (blockMD.isWater())
+        {
+            return WATER;
+        }
+        return NONE;
+    }
+
+    /**
+     * Whether the column's tints are cached: only those which read no biomes outside the chunk.
+     */
+    public static boolean isCached(int globalX, int globalZ)
+    {
+        int x = globalX & 15;
+        int z = globalZ & 15;
+        return x > 0 && x < 15 && z > 0 && z < 15;
+    }
+
+    /**
+     * Get the tints of the chunk, creating them if needed, and cleared if they were for other content.
+     * Renderers should use ChunkMD.getTints(), which only calls this once.
+     */
+    public Tints get(ChunkMD chunkMD)
+    {
+        long key = chunkMD.asLong();
+        Tints tints;
+        synchronized (chunks)
+        {
+            tints = chunks.get(key);
+            if (tints == null)
+            {
+                tints = new Tints();
+                chunks.put(key, tints);
+            }
+        }
+        tints.setContentHash(chunkMD.getContentHash());
+        return tints;
+    }
+
+    /**
+     * Drop the chunk's tints, such as when it's unloaded.
+     */
+    public void invalidate(ChunkCoordIntPair coord)
+    {
+        synchronized (chunks)
+        {
+            chunks.remove(ChunkCoordIntPair.chunkXZ2Int(coord.chunkXPos, coord.chunkZPos));
+        }
+    }
+
+    public void invalidateAll()
+    {
+        synchronized (chunks)
+        {
+            chunks.clear();
+        }
+    }
+
+    public int size()
+    {
+        synchronized (chunks)
+        {
+            return chunks.size();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BiomeTintCache{chunks=" + size() + "}";
+    }
+
+    /**
+     * Tints for the 16x16 columns of one chunk.  Lock-free: each column's tint is stored as one immutable
+     * entry, so workers tinting the same chunk at worst compute a tint twice.
+     */
+    public static class Tints
+    {
+        private final Entry[] entries = new Entry[256 * KINDS];
+        private long contentHash;
+
+        private static int index(int kind, int globalX, int globalZ)
+        {
+            return (kind << 8) + ((globalZ & 15) << 4) + (globalX & 15);
+        }
+
+        /**
+         * Forget the tints if they were computed for other chunk content.
+         */
+        synchronized void setContentHash(long hash)
+        {
+            if (contentHash != hash)
+            {
+                Arrays.fill(entries, null);
+                contentHash = hash;
+            }
+        }
+
+        /**
+         * Get the tint last stored for the same block and y in the column, or null if there isn't one.
+         */
+        public Integer get(int kind, BlockMD blockMD, int globalX, int y, int globalZ)
+        {
+            Entry entry = entries[index(kind, globalX, globalZ)];
+            if (entry != null && entry.blockMD == blockMD && entry.y == y)
+            {
+                return entry.tint;
+            }
+            return null;
+        }
+
+        public void put(int kind, BlockMD blockMD, int globalX, int y, int globalZ, Integer tint)
+        {
+            entries[index(kind, globalX, globalZ)] = new Entry(blockMD, y, tint);
+        }
+    }
+
+    private static class Entry
+    {
+        final BlockMD blockMD;
+        final int y;
+        final Integer tint;
+
+        Entry(BlockMD blockMD, int y, Integer tint)
+        {
+            this.blockMD = blockMD;
+            this.y = y;
+            this.tint = tint;
+        }
+    }
+
+    private static class Holder
+    {
+        private static final BiomeTintCache INSTANCE = new BiomeTintCache();
+    }
+}
@@ -26,11 +26,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Block + meta = BlockMetaData.  Carries color, flags, and other
@@ -40,8 +40,13 @@ public class BlockMD
 {
     public static final EnumSet<Flag> FlagsPlantAndCrop = EnumSet.of(Flag.Plant, Flag.Crop);
     public static final EnumSet<Flag> FlagsBiomeColored = EnumSet.of(Flag.Grass, Flag.Foliage, Flag.Water, Flag.CustomBiomeColor);
-    private static final Map<Block, Map<Integer, BlockMD>> cache = new HashMap<>();
-    private static final Map<Block, int[]> blockMetaCache = new HashMap<>();
+    private static volatile Map<Block, Map<Integer, BlockMD>> cache = new ConcurrentHashMap<>();
+    private static final Map<Block, int[]> blockMetaCache = new ConcurrentHashMap<>();
+    private static final BlockMD[] EMPTY_TABLE = new BlockMD[0];
+    /**
+     * Registered BlockMDs indexed by (block id << 4 | meta).  Replaced as a whole, never modified once published.
+     */
+    private static volatile BlockMD[] table = EMPTY_TABLE;
     public static BlockMD AIRBLOCK;
     public static BlockMD VOIDBLOCK;
     private static ModBlockDelegate modBlockDelegate = new ModBlockDelegate();
@@ -88,13 +93,14 @@ public class BlockMD
     }
 
     /**
-     * Preloads the cache with all registered blocks and their subblocks.
+     * Preloads the cache with all registered blocks and their subblocks.  The new cache and table are built
+     * aside and then swapped in, so renderers keep using the old BlockMDs until then.
      */
     public static void reset()
     {
         StatTimer timer = StatTimer.get("BlockMD.reset", 0, 2000);
         timer.start();
-        cache.clear();
+        Map<Block, Map<Integer, BlockMD>> newCache = new ConcurrentHashMap<>();
 
         // Create new delegate
         modBlockDelegate = new ModBlockDelegate();
@@ -104,7 +110,12 @@ public class BlockMD
         VOIDBLOCK = new BlockMD(null, 0, new GameRegistry.UniqueIdentifier("journeymap:void"), "Void", 0f, 1, EnumSet.noneOf(BlockMD.Flag.class));
 
         // Load all registered block+metas
-        Collection<BlockMD> all = getAll();
+        Collection<BlockMD> all = getAll(newCache);
+        BlockMD[] newTable = buildTable(all);
+
+        // The table is checked first, so it goes last
+        cache = newCache;
+        table = newTable;
 
         // Final color updates
         VanillaColorHandler.INSTANCE.setExplicitColors();
@@ -119,6 +130,11 @@ public class BlockMD
      * @return
      */
     public static Collection<BlockMD> getAll()
+    {
+        return getAll(cache);
+    }
+
+    private static Collection<BlockMD> getAll(Map<Block, Map<Integer, BlockMD>> cache)
     {
         List<BlockMD> allBlockMDs = new ArrayList<BlockMD>(512);
         for (Block block : GameData.getBlockRegistry().typeSafeIterable())
@@ -126,12 +142,42 @@ public class BlockMD
             int[] metas = BlockMD.getMetaValuesForBlock(block);
             for (int meta : metas)
             {
-                allBlockMDs.add(get(block, meta, metas.length));
+                allBlockMDs.add(get(cache, block, meta, metas.length));
             }
         }
         return allBlockMDs;
     }
 
+    /**
+     * Build a lookup table from the given BlockMDs.  Those without a registered block id are skipped
+     * and will be found in the cache instead.
+     */
+    private static BlockMD[] buildTable(Collection<BlockMD> blockMDs)
+    {
+        int maxId = -1;
+        for (BlockMD blockMD : blockMDs)
+        {
+            if (blockMD.block != null)
+            {
+                maxId = Math.max(maxId, Block.getIdFromBlock(blockMD.block));
+            }
+        }
+
+        BlockMD[] newTable = new BlockMD[(maxId + 1) << 4];
+        for (BlockMD blockMD : blockMDs)
+        {
+            if (blockMD.block != null && blockMD.meta >= 0 && blockMD.meta < 16)
+            {
+                int id = Block.getIdFromBlock(blockMD.block);
+                if (id >= 0)
+                {
+                    newTable[(id << 4) | blockMD.meta] = blockMD;
+                }
+            }
+        }
+        return newTable;
+    }
+
     /**
      * Retrieves a BlockMD instance corresponding to chunk-local coords.
      */
@@ -169,7 +215,7 @@ public class BlockMD
         }
         catch (Exception e)
         {
-            Journeymap.getLogger().error("Can't get blockId/meta for chunk {},{} block {},{},{} : {}", chunkMd.getChunk().xPosition, chunkMd.getChunk().zPosition, localX, y, localZ, LogFormatter.toString(e));
+            Journeymap.getLogger().error("Can't get blockId/meta for chunk {},{} block {},{},{} : {}", chunkMd.getCoord().chunkXPos, chunkMd.getCoord().chunkZPos, localX, y, localZ, LogFormatter.toString(e));
             return AIRBLOCK;
         }
     }
@@ -179,14 +225,27 @@ public class BlockMD
      */
     public static BlockMD get(Block block, int meta)
     {
-        return get(block, meta, null);
+        if (block != null && meta >= 0 && meta < 16)
+        {
+            final BlockMD[] table = BlockMD.table;
+            final int index = (Block.getIdFromBlock(block) << 4) | meta;
+            if (index >= 0 && index < table.length)
+            {
+                BlockMD blockMD = table[index];
+                if (blockMD != null)
+                {
+                    return blockMD;
+                }
+            }
+        }
+        return get(cache, block, meta, null);
     }
 
     /**
      * Retrieves/lazy-creates the corresponding BlockMD instance,
      * preinitializing the inner map to subBlocks size if needed.
      */
-    private static BlockMD get(Block block, int meta, Integer subBlocks)
+    private static BlockMD get(Map<Block, Map<Integer, BlockMD>> cache, Block block, int meta, Integer subBlocks)
     {
         try
         {
@@ -203,8 +262,12 @@ public class BlockMD
                     subBlocks = BlockMD.getMetaValuesForBlock(block).length;
                 }
                 int size = (int) Math.ceil(Math.max(1, subBlocks) * 1.25);
-                map = new HashMap<>(size + (size / 2));
-                cache.put(block, map);
+                map = new ConcurrentHashMap<>(size + (size / 2));
+                Map<Integer, BlockMD> existing = cache.putIfAbsent(block, map);
+                if (existing != null)
+                {
+                    map = existing;
+                }
             }
 
             BlockMD blockMD = map.get(meta);
@@ -216,7 +279,11 @@ public class BlockMD
                     return AIRBLOCK;
                 }
                 blockMD = new BlockMD(block, meta);
-                map.put(meta, blockMD);
+                BlockMD existing = map.putIfAbsent(meta, blockMD);
+                if (existing != null)
+                {
+                    blockMD = existing;
+                }
             }
 
             return blockMD;
@@ -228,6 +295,25 @@ public class BlockMD
         }
     }
 
+    /**
+     * Creates and caches a BlockMD for a block which isn't in the game registry, such as a benchmark fixture.
+     */
+    static BlockMD create(Block block, int meta, String name, float alpha, EnumSet<Flag> flags)
+    {
+        BlockMD blockMD = new BlockMD(block, meta, new GameRegistry.UniqueIdentifier("journeymap:" + name), name, alpha, 1, flags);
+        if (block != null)
+        {
+            Map<Integer, BlockMD> map = cache.get(block);
+            if (map == null)
+            {
+                map = new ConcurrentHashMap<>(4);
+                cache.put(block, map);
+            }
+            map.put(meta, blockMD);
+        }
+        return blockMD;
+    }
+
     public static void debug()
     {
         for (BlockMD blockMD : getAll())
@@ -319,7 +405,7 @@ public class BlockMD
         List<BlockMD> list = new ArrayList<>(metas.length);
         for (int meta : metas)
         {
-            list.add(BlockMD.get(block, meta, metas.length));
+            list.add(BlockMD.get(cache, block, meta, metas.length));
         }
         return list;
     }
@@ -16,10 +16,18 @@ import net.minecraft.world.ChunkCoordIntPair;
 import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.EmptyChunk;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
 import java.io.Serializable;
 import java.lang.ref.WeakReference;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
 
 /**
  * ChunkMD is a MetaData wrapper for a Chunk.
@@ -34,8 +42,17 @@ public class ChunkMD
     final static DataCache dataCache = DataCache.instance();
     private final WeakReference<Chunk> chunkReference;
     private final ChunkCoordIntPair coord;
+    private final World world;
     private final HashMap<String, Serializable> properties = new HashMap<String, Serializable>();
     private Chunk retainedChunk;
+    private volatile long contentHash;
+    private volatile ChunkSnapshot snapshot;
+
+    /**
+     * Map types rendered from this ChunkMD, which is replaced whenever the chunk changes.
+     */
+    private final Set<MapType> renderedMapTypes = Collections.newSetFromMap(new ConcurrentHashMap<MapType, Boolean>(4));
+    private volatile BiomeTintCache.Tints tints;
 
     public ChunkMD(Chunk chunk)
     {
@@ -57,20 +74,107 @@ public class ChunkMD
         properties.put(PROP_IS_SLIME_CHUNK, chunk.getRandomWithSeed(987234911L).nextInt(10) == 0);
 
         this.chunkReference = new WeakReference<Chunk>(chunk);
+        this.world = null;
         if (forceRetain)
         {
             retainedChunk = chunk;
         }
     }
 
+    /**
+     * For subclasses which supply their own block data instead of wrapping a Chunk,
+     * such as benchmark fixtures.  They must override every accessor which uses the Chunk or World.
+     */
+    protected ChunkMD(ChunkCoordIntPair coord)
+    {
+        this.coord = coord;
+        setProperty(PROP_LOADED, System.currentTimeMillis());
+        properties.put(PROP_IS_SLIME_CHUNK, Boolean.FALSE);
+        this.chunkReference = new WeakReference<Chunk>(null);
+        this.world = null;
+    }
+
+    /**
+     * For a chunk read from saved data without building a Chunk.  Reads come from the snapshot,
+     * and once it's released the ChunkMD no longer has a chunk.
+     */
+    public ChunkMD(World world, ChunkSnapshot snapshot)
+    {
+        this.coord = new ChunkCoordIntPair(snapshot.getChunkX(), snapshot.getChunkZ());
+        this.world = world;
+        this.snapshot = snapshot;
+        this.chunkReference = new WeakReference<Chunk>(null);
+        setProperty(PROP_LOADED, System.currentTimeMillis());
+
+        // Same as Chunk.getRandomWithSeed()
+        long seed = world.getSeed() + (long) (coord.chunkXPos * coord.chunkXPos * 4987142) + (long) (coord.chunkXPos * 5947611)
+                + (long) (coord.chunkZPos * coord.chunkZPos) * 4392871L + (long) (coord.chunkZPos * 389711) ^ 987234911L;
+        properties.put(PROP_IS_SLIME_CHUNK, new Random(seed).nextInt(10) == 0);
+    }
+
+    /**
+     * Snapshot the chunk, so reads come from the copy until it's released.  Must be called on the client thread.
+     *
+     * @return false if already snapshotted or the chunk is gone
+     */
+    public boolean captureSnapshot()
+    {
+        Chunk chunk = chunkReference.get();
+        if (snapshot != null || chunk == null)
+        {
+            return false;
+        }
+        snapshot = ChunkSnapshot.capture(chunk);
+        return true;
+    }
+
+    /**
+     * Go back to reading the live chunk and return the snapshot to its pool.
+     * Nothing may be reading the snapshot anymore.
+     */
+    public void releaseSnapshot()
+    {
+        ChunkSnapshot released = snapshot;
+        if (released != null)
+        {
+            snapshot = null;
+            released.release();
+        }
+    }
+
+    /**
+     * The chunk's cached biome tints.  Chunks read from saved data are never unloaded by the client,
+     * so theirs aren't shared through the BiomeTintCache and go away with the ChunkMD.
+     */
+    public BiomeTintCache.Tints getTints()
+    {
+        BiomeTintCache.Tints chunkTints = tints;
+        if (chunkTints == null)
+        {
+            chunkTints = (world != null) ? new BiomeTintCache.Tints() : BiomeTintCache.instance().get(this);
+            tints = chunkTints;
+        }
+        return chunkTints;
+    }
+
+    public boolean hasSnapshot()
+    {
+        return snapshot != null;
+    }
+
     public Block getBlock(int x, int y, int z)
     {
+        final ChunkSnapshot snapshot = this.snapshot;
+        if (snapshot != null)
+        {
+            return snapshot.getBlock(x, y, z);
+        }
         return getChunk().getBlock(x, y, z);
     }
 
     public BlockMD getBlockMD(int x, int y, int z)
     {
-        return BlockMD.get(getChunk().getBlock(x, y, z), getBlockMeta(x, y, z));
+        return BlockMD.get(getBlock(x, y, z), getBlockMeta(x, y, z));
     }
 
     /**
@@ -78,6 +182,11 @@ public class ChunkMD
      */
     public int getSavedLightValue(int x, int y, int z)
     {
+        final ChunkSnapshot snapshot = this.snapshot;
+        if (snapshot != null)
+        {
+            return snapshot.getSavedLightValue(x, y, z);
+        }
         return ForgeHelper.INSTANCE.getSavedLightValue(getChunk(), x, y, z);
     }
 
@@ -116,6 +225,11 @@ public class ChunkMD
      */
     public int getBlockMeta(final int x, int y, final int z)
     {
+        final ChunkSnapshot snapshot = this.snapshot;
+        if (snapshot != null)
+        {
+            return snapshot.getBlockMeta(x, y, z);
+        }
         return ForgeHelper.INSTANCE.getBlockMeta(getChunk(), x, y, z);
     }
 
@@ -129,7 +243,6 @@ public class ChunkMD
 
         try
         {
-            Chunk chunk = getChunk();
             BlockMD blockMD;
             while (y >= 0)
             {
@@ -139,7 +252,7 @@ public class ChunkMD
                 {
                     y--;
                 }
-                else if (ForgeHelper.INSTANCE.canBlockSeeTheSky(chunk, x, y, z))
+                else if (canBlockSeeTheSky(x, y, z))
                 {
                     y--;
                 }
@@ -159,16 +272,31 @@ public class ChunkMD
 
     public boolean hasChunk()
     {
+        if (world != null)
+        {
+            // Read from saved data
+            return snapshot != null;
+        }
         return chunkReference.get() != null && !(chunkReference.get() instanceof EmptyChunk);
     }
 
     public int getHeight(int x, int z)
     {
+        final ChunkSnapshot snapshot = this.snapshot;
+        if (snapshot != null)
+        {
+            return snapshot.getHeight(x, z);
+        }
         return ForgeHelper.INSTANCE.getHeight(getChunk(), x, z);
     }
 
     public int getPrecipitationHeight(int x, int z)
     {
+        final ChunkSnapshot snapshot = this.snapshot;
+        if (snapshot != null)
+        {
+            return snapshot.getPrecipitationHeight(x, z);
+        }
         return ForgeHelper.INSTANCE.getPrecipitationHeight(getChunk(), x, z);
     }
 
@@ -177,6 +305,104 @@ public class ChunkMD
         return ForgeHelper.INSTANCE.getLightOpacity(blockMD, toWorldX(localX), y, toWorldZ(localZ));
     }
 
+    /**
+     * A hash of everything in the chunk that affects how it's mapped: blocks, metadata, light, heights and biomes.
+     * Computed once, so it won't see changes made to the chunk afterward.  ChunkMDs are kept across mapping
+     * passes, so the hash is only refreshed once the ChunkMD is replaced: when DirtyChunkTracker reports the
+     * chunk changed, when the chunk is unloaded, or when the ChunkMD expires from the DataCache.  Never 0.
+     */
+    public long getContentHash()
+    {
+        long hash = contentHash;
+        if (hash == 0)
+        {
+            final ChunkSnapshot snapshot = this.snapshot;
+            hash = (snapshot != null) ? computeContentHash(snapshot) : computeContentHash(getChunk());
+            contentHash = hash;
+        }
+        return hash;
+    }
+
+    private static long computeContentHash(Chunk chunk)
+    {
+        CRC32 crc = new CRC32();
+        Adler32 adler = new Adler32();
+        ExtendedBlockStorage[] sections = chunk.getBlockStorageArray();
+        for (int i = 0; i < sections.length; i++)
+        {
+            ExtendedBlockStorage section = sections[i];
+            if (section == null)
+            {
+                continue;
+            }
+
+            crc.update(i);
+            update(crc, adler, section.getBlockLSBArray());
+            update(crc, adler, section.getBlockMSBArray());
+            update(crc, adler, section.getMetadataArray());
+            update(crc, adler, section.getBlocklightArray());
+            update(crc, adler, section.getSkylightArray());
+        }
+
+        update(crc, adler, chunk.getBiomeArray());
+        return finishContentHash(crc, adler, chunk.heightMap);
+    }
+
+    /**
+     * Same as {@link #computeContentHash(Chunk)}, from the copied arrays.
+     */
+    private static long computeContentHash(ChunkSnapshot snapshot)
+    {
+        CRC32 crc = new CRC32();
+        Adler32 adler = new Adler32();
+        for (int i = 0; i < ChunkSnapshot.SECTIONS; i++)
+        {
+            if (!snapshot.hasSection[i])
+            {
+                continue;
+            }
+
+            crc.update(i);
+            update(crc, adler, snapshot.blockLSB[i]);
+            update(crc, adler, snapshot.hasBlockMSB[i] ? snapshot.blockMSB[i] : null);
+            update(crc, adler, snapshot.metadata[i]);
+            update(crc, adler, snapshot.blockLight[i]);
+            update(crc, adler, snapshot.hasSkyLight[i] ? snapshot.skyLight[i] : null);
+        }
+
+        update(crc, adler, snapshot.biomes);
+        return finishContentHash(crc, adler, snapshot.heightMap);
+    }
+
+    private static long finishContentHash(CRC32 crc, Adler32 adler, int[] heightMap)
+    {
+        long heights = 0;
+        for (int height : heightMap)
+        {
+            heights = (heights * 31) + height;
+        }
+
+        long hash = ((crc.getValue() << 32) | adler.getValue()) ^ (heights * 0x9E3779B97F4A7C15L);
+        return (hash == 0) ? 1 : hash;
+    }
+
+    private static void update(CRC32 crc, Adler32 adler, NibbleArray nibbles)
+    {
+        if (nibbles != null)
+        {
+            update(crc, adler, nibbles.data);
+        }
+    }
+
+    private static void update(CRC32 crc, Adler32 adler, byte[] bytes)
+    {
+        if (bytes != null)
+        {
+            crc.update(bytes, 0, bytes.length);
+            adler.update(bytes, 0, bytes.length);
+        }
+    }
+
     public Serializable getProperty(String name)
     {
         return properties.get(name);
@@ -235,22 +461,30 @@ public class ChunkMD
 
     public World getWorld()
     {
-        return ForgeHelper.INSTANCE.getWorld(getChunk());
+        return (world != null) ? world : ForgeHelper.INSTANCE.getWorld(getChunk());
     }
 
     public int getWorldActualHeight()
     {
         if (getHasNoSky())
         {
-            return getWorld().getActualHeight();
+            return getActualHeight();
         }
         else
         {
             // add one to get above the top block for some worlds that paste in to 256
-            return getWorld().getActualHeight() + 1;
+            return getActualHeight() + 1;
         }
     }
 
+    /**
+     * The world's actual height, without the adjustment made by {@link #getWorldActualHeight()}.
+     */
+    public int getActualHeight()
+    {
+        return getWorld().getActualHeight();
+    }
+
     public Boolean getHasNoSky()
     {
         return ForgeHelper.INSTANCE.hasNoSky(getWorld());
@@ -258,6 +492,11 @@ public class ChunkMD
 
     public boolean canBlockSeeTheSky(int x, int y, int z)
     {
+        final ChunkSnapshot snapshot = this.snapshot;
+        if (snapshot != null)
+        {
+            return snapshot.canBlockSeeTheSky(x, y, z);
+        }
         return ForgeHelper.INSTANCE.canBlockSeeTheSky(getChunk(), x, y, z);
     }
 
@@ -293,6 +532,29 @@ public class ChunkMD
         return now;
     }
 
+    public long setRendered(MapType mapType)
+    {
+        renderedMapTypes.add(mapType);
+        return setRendered();
+    }
+
+    /**
+     * Whether the map type's image of the chunk is current as of this ChunkMD.
+     */
+    public boolean isRendered(MapType mapType)
+    {
+        return renderedMapTypes.contains(mapType);
+    }
+
+    /**
+     * Whether the client has unloaded the chunk this wraps, so a fresh ChunkMD is needed for the current one.
+     */
+    public boolean isUnloaded()
+    {
+        Chunk chunk = chunkReference.get();
+        return world == null && chunk != null && !chunk.isChunkLoaded;
+    }
+
     public int toWorldX(int localX)
     {
         return (coord.chunkXPos << 4) + localX;
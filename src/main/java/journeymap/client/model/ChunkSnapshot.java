@@ -0,0 +1,364 @@
+/*
+ * JourneyMap Mod <journeymap.info> for Minecraft
+ * Copyright (c) 2011-2017  Techbrew Interactive, LLC <techbrew.net>.  All Rights Reserved.
+ */
+
+package journeymap.client.model;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.material.Material;
+import net.minecraft.init.Blocks;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * A copy of the parts of a Chunk the renderers read: block ids, metadata, block and sky light, heights and biomes.
+ * Captured on the client thread with plain array copies, so renderers on other threads never read a chunk
+ * while the client thread is changing it, and rendering the same snapshot twice gives the same image.
+ * <p/>
+ * Snapshots can also be filled in from a chunk's saved NBT by a reader, without a Chunk ever being built.
+ * <p/>
+ * Reads mirror Chunk's own, including what they return outside of the stored sections.  Snapshots are pooled
+ * and keep their arrays, so capturing doesn't allocate once the pool is warm; a snapshot must not be read
+ * after it is released.
+ */
+public class ChunkSnapshot
+{
+    static final int SECTIONS = 16;
+    private static final int MIN_POOLED = 32;
+    private static final int UNKNOWN_HEIGHT = -999;
+    private static final Pool sharedPool = new Pool(MIN_POOLED);
+
+    private final Pool pool;
+    private int chunkX;
+    private int chunkZ;
+
+    final boolean[] hasSection = new boolean[SECTIONS];
+    final byte[][] blockLSB = new byte[SECTIONS][];
+    final byte[][] blockMSB = new byte[SECTIONS][];
+    final byte[][] metadata = new byte[SECTIONS][];
+    final byte[][] blockLight = new byte[SECTIONS][];
+    final byte[][] skyLight = new byte[SECTIONS][];
+    final boolean[] hasBlockMSB = new boolean[SECTIONS];
+    final boolean[] hasSkyLight = new boolean[SECTIONS];
+    final int[] heightMap = new int[256];
+    final int[] precipitationHeights = new int[256];
+    final byte[] biomes = new byte[256];
+
+    private ChunkSnapshot(Pool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * Copy the chunk into a pooled snapshot.  Must be called on the client thread.
+     */
+    public static ChunkSnapshot capture(Chunk chunk)
+    {
+        ChunkSnapshot snapshot = sharedPool.obtain();
+        snapshot.copy(chunk);
+        return snapshot;
+    }
+
+    /**
+     * Let the pool used by capture() keep up to this many snapshots, such as one per chunk in the render area.
+     */
+    public static void ensurePoolCapacity(int maxPooled)
+    {
+        sharedPool.ensureCapacity(maxPooled);
+    }
+
+    /**
+     * Return the snapshot to the pool it came from.
+     */
+    public void release()
+    {
+        pool.release(this);
+    }
+
+    private void copy(Chunk chunk)
+    {
+        chunkX = chunk.xPosition;
+        chunkZ = chunk.zPosition;
+        ExtendedBlockStorage[] sections = chunk.getBlockStorageArray();
+        for (int i = 0; i < SECTIONS; i++)
+        {
+            ExtendedBlockStorage section = (i < sections.length) ? sections[i] : null;
+            hasSection[i] = (section != null);
+            if (section == null)
+            {
+                continue;
+            }
+
+            blockLSB[i] = copy(section.getBlockLSBArray(), blockLSB[i]);
+            metadata[i] = copy(section.getMetadataArray().data, metadata[i]);
+            blockLight[i] = copy(section.getBlocklightArray().data, blockLight[i]);
+
+            NibbleArray msb = section.getBlockMSBArray();
+            hasBlockMSB[i] = (msb != null);
+            if (msb != null)
+            {
+                blockMSB[i] = copy(msb.data, blockMSB[i]);
+            }
+
+            NibbleArray sky = section.getSkylightArray();
+            hasSkyLight[i] = (sky != null);
+            if (sky != null)
+            {
+                skyLight[i] = copy(sky.data, skyLight[i]);
+            }
+        }
+
+        System.arraycopy(chunk.heightMap, 0, heightMap, 0, heightMap.length);
+        System.arraycopy(chunk.getBiomeArray(), 0, biomes, 0, biomes.length);
+
+        // Computed lazily by the chunk, which is why it has to happen here
+        for (int z = 0; z < 16; z++)
+        {
+            for (int x = 0; x < 16; x++)
+            {
+                precipitationHeights[(z << 4) | x] = chunk.getPrecipitationHeight(x, z);
+            }
+        }
+    }
+
+    /**
+     * Start filling in the snapshot from saved data: no sections, zero heights and no biomes, as a Chunk
+     * read from NBT would have before its tags are applied.
+     */
+    public void begin(int chunkX, int chunkZ)
+    {
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        Arrays.fill(hasSection, false);
+        Arrays.fill(heightMap, 0);
+        Arrays.fill(precipitationHeights, UNKNOWN_HEIGHT);
+        Arrays.fill(biomes, (byte) -1);
+    }
+
+    /**
+     * Copy a saved section's arrays.  add and skyLight may be null, the others must be full length.
+     */
+    public void setSection(int section, byte[] blocks, byte[] add, byte[] data, byte[] blockLightData, byte[] skyLightData)
+    {
+        blockLSB[section] = copy(blocks, blockLSB[section]);
+        metadata[section] = copy(data, metadata[section]);
+        blockLight[section] = copy(blockLightData, blockLight[section]);
+
+        hasBlockMSB[section] = (add != null);
+        if (add != null)
+        {
+            blockMSB[section] = copy(add, blockMSB[section]);
+        }
+
+        hasSkyLight[section] = (skyLightData != null);
+        if (skyLightData != null)
+        {
+            skyLight[section] = copy(skyLightData, skyLight[section]);
+        }
+        hasSection[section] = true;
+    }
+
+    public void setHeightMap(int[] heights)
+    {
+        System.arraycopy(heights, 0, heightMap, 0, heightMap.length);
+    }
+
+    public void setBiomes(byte[] biomeIds)
+    {
+        System.arraycopy(biomeIds, 0, biomes, 0, biomes.length);
+    }
+
+    public int getChunkX()
+    {
+        return chunkX;
+    }
+
+    public int getChunkZ()
+    {
+        return chunkZ;
+    }
+
+    private static byte[] copy(byte[] src, byte[] dest)
+    {
+        if (dest == null || dest.length != src.length)
+        {
+            dest = new byte[src.length];
+        }
+        System.arraycopy(src, 0, dest, 0, src.length);
+        return dest;
+    }
+
+    private static int index(int x, int y, int z)
+    {
+        return ((y & 15) << 8) | (z << 4) | x;
+    }
+
+    private static int nibble(byte[] data, int index)
+    {
+        int b = data[index >> 1];
+        return ((index & 1) == 0) ? (b & 15) : ((b >> 4) & 15);
+    }
+
+    /**
+     * Same as Chunk.getBlock().
+     */
+    public Block getBlock(int x, int y, int z)
+    {
+        final int section = y >> 4;
+        if (section < 0 || section >= SECTIONS || !hasSection[section])
+        {
+            return Blocks.air;
+        }
+        return Block.getBlockById(getBlockId(x, y, z));
+    }
+
+    /**
+     * The block id, or 0 outside of the stored sections.
+     */
+    public int getBlockId(int x, int y, int z)
+    {
+        final int section = y >> 4;
+        if (section < 0 || section >= SECTIONS || !hasSection[section])
+        {
+            return 0;
+        }
+
+        final int index = index(x, y, z);
+        int id = blockLSB[section][index] & 255;
+        if (hasBlockMSB[section])
+        {
+            id |= nibble(blockMSB[section], index) << 8;
+        }
+        return id;
+    }
+
+    /**
+     * Same as Chunk.getBlockMetadata().
+     */
+    public int getBlockMeta(int x, int y, int z)
+    {
+        final int section = y >> 4;
+        if (section < 0 || section >= SECTIONS || !hasSection[section])
+        {
+            return 0;
+        }
+        return nibble(metadata[section], index(x, y, z));
+    }
+
+    /**
+     * Same as ForgeHelper.getSavedLightValue(), which reads the block light.
+     */
+    public int getSavedLightValue(int x, int y, int z)
+    {
+        final int section = y >> 4;
+        if (section < 0 || section >= SECTIONS)
+        {
+            return 1; // As ForgeHelper does when the chunk throws
+        }
+        if (!hasSection[section])
+        {
+            return 0;
+        }
+        return nibble(blockLight[section], index(x & 15, y, z & 15));
+    }
+
+    public int getHeight(int x, int z)
+    {
+        return heightMap[(z << 4) | x];
+    }
+
+    /**
+     * Same as Chunk.getPrecipitationHeight(), which is worked out on first use for snapshots read from saved data.
+     */
+    public int getPrecipitationHeight(int x, int z)
+    {
+        final int i = (z << 4) | x;
+        int height = precipitationHeights[i];
+        if (height == UNKNOWN_HEIGHT)
+        {
+            height = -1;
+            int y = getTopFilledSegment() + 15;
+            while (y > 0 && height == -1)
+            {
+                Material material = getBlock(x, y, z).getMaterial();
+                if (!material.blocksMovement() && !material.isLiquid())
+                {
+                    y--;
+                }
+                else
+                {
+                    height = y + 1;
+                }
+            }
+            precipitationHeights[i] = height;
+        }
+        return height;
+    }
+
+    private int getTopFilledSegment()
+    {
+        for (int i = SECTIONS - 1; i >= 0; i--)
+        {
+            if (hasSection[i])
+            {
+                return i << 4;
+            }
+        }
+        return 0;
+    }
+
+    public boolean canBlockSeeTheSky(int x, int y, int z)
+    {
+        return y >= heightMap[(z << 4) | x];
+    }
+
+    /**
+     * A bounded pool of snapshots.  Snapshots go back to the pool they were obtained from when released,
+     * and whatever doesn't fit is left to the garbage collector.
+     */
+    public static class Pool
+    {
+        private final ArrayDeque<ChunkSnapshot> snapshots;
+        private int maxPooled;
+
+        public Pool(int maxPooled)
+        {
+            this.maxPooled = maxPooled;
+            this.snapshots = new ArrayDeque<ChunkSnapshot>(Math.min(maxPooled, 1024));
+        }
+
+        public ChunkSnapshot obtain()
+        {
+            ChunkSnapshot snapshot;
+            synchronized (snapshots)
+            {
+                snapshot = snapshots.poll();
+            }
+            return (snapshot != null) ? snapshot : new ChunkSnapshot(this);
+        }
+
+        public void ensureCapacity(int maxPooled)
+        {
+            synchronized (snapshots)
+            {
+                this.maxPooled = Math.max(this.maxPooled, maxPooled);
+            }
+        }
+
+        void release(ChunkSnapshot snapshot)
+        {
+            synchronized (snapshots)
+            {
+                if (snapshots.size() < maxPooled)
+                {
+                    snapshots.add(snapshot);
+                }
+            }
+        }
+    }
+}
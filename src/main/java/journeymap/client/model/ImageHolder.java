@@ -6,47 +6,72 @@
 package journeymap.client.model;
 
 import com.google.common.base.Objects;
+import journeymap.client.JourneymapClient;
 import journeymap.client.cartography.ChunkPainter;
+import journeymap.client.io.PngjHelper;
 import journeymap.client.io.RegionImageHandler;
+import journeymap.client.io.TilePyramid;
 import journeymap.client.log.LogFormatter;
 import journeymap.client.log.StatTimer;
+import journeymap.client.properties.CoreProperties;
 import journeymap.client.render.texture.TextureImpl;
 import journeymap.client.task.main.ExpireTextureTask;
 import journeymap.common.Journeymap;
-import net.minecraft.world.storage.IThreadedFileIO;
-import net.minecraft.world.storage.ThreadedFileIOBase;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Formerly ImageSet.Wrapper
  */
-public class ImageHolder implements IThreadedFileIO
+public class ImageHolder
 {
     final static Logger logger = Journeymap.getLogger();
     final MapType mapType;
+    final RegionCoord regionCoord;
     final ReentrantLock writeLock = new ReentrantLock();
     final Path imagePath;
     final int imageSize;
     boolean blank = true;
-    boolean dirty = true;
+    volatile boolean dirty = true;
     boolean partialUpdate;
+
+    /**
+     * One int per row of chunks in the image, with a bit set for each chunk changed since the last finishPartialImageUpdates.
+     */
+    final int[] dirtyChunkRows;
+
+    /**
+     * Fingerprint of each chunk when it was last rendered into the image, indexed by chunkZ * chunks per row + chunkX.
+     * 0 if unknown.
+     */
+    final long[] chunkFingerprints;
     StatTimer writeToDiskTimer = StatTimer.get("ImageHolder.writeToDisk", 2, 1000);
     private volatile TextureImpl texture;
     private boolean debug;
 
     ImageHolder(MapType mapType, File imageFile, int imageSize)
+    {
+        this(mapType, null, imageFile, imageSize);
+    }
+
+    /**
+     * @param regionCoord if not null, the TilePyramid is updated whenever the image is written
+     */
+    ImageHolder(MapType mapType, RegionCoord regionCoord, File imageFile, int imageSize)
     {
         this.mapType = mapType;
+        this.regionCoord = regionCoord;
         this.imagePath = imageFile.toPath();
         this.imageSize = imageSize;
+        this.dirtyChunkRows = new int[imageSize >> 4];
+        this.chunkFingerprints = new long[dirtyChunkRows.length * dirtyChunkRows.length];
         this.debug = logger.isEnabled(Level.DEBUG);
         getTexture();
     }
@@ -77,21 +102,37 @@ public class ImageHolder implements IThreadedFileIO
     void setImage(BufferedImage image)
     {
         texture.setImage(image, true);
+        Arrays.fill(chunkFingerprints, 0);
         setDirty();
     }
 
-    void partialImageUpdate(BufferedImage imagePart, int x, int y)
+    /**
+     * @param chunkX chunk x within the image
+     * @param chunkZ chunk z within the image
+     * @return the fingerprint of the chunk when last rendered, or 0 if unknown
+     */
+    long getChunkFingerprint(int chunkX, int chunkZ)
+    {
+        return chunkFingerprints[(chunkZ * dirtyChunkRows.length) + chunkX];
+    }
+
+    void setChunkFingerprint(int chunkX, int chunkZ, long fingerprint)
+    {
+        chunkFingerprints[(chunkZ * dirtyChunkRows.length) + chunkX] = fingerprint;
+    }
+
+    /**
+     * Write a chunk's painted pixels into the image at x,y.
+     */
+    void partialImageUpdate(ChunkPainter painter, int x, int y)
     {
         writeLock.lock();
         try
         {
             if (texture != null)
             {
-                BufferedImage textureImage = texture.getImage();
-                Graphics2D g2D = initRenderingHints(textureImage.createGraphics());
-                g2D.setComposite(ChunkPainter.ALPHA_OPAQUE);
-                g2D.drawImage(imagePart, x, y, null);
-                g2D.dispose();
+                painter.writeTo(texture.getImage(), x, y);
+                markDirtyChunks(x, y, 16, 16);
                 partialUpdate = true;
                 blank = false;
             }
@@ -113,8 +154,19 @@ public class ImageHolder implements IThreadedFileIO
         {
             if (partialUpdate)
             {
-                BufferedImage textureImage = texture.getImage();
-                texture.setImage(textureImage, true);
+                // Send each horizontal run of changed chunks to the texture as one region
+                for (int chunkZ = 0; chunkZ < dirtyChunkRows.length; chunkZ++)
+                {
+                    int row = dirtyChunkRows[chunkZ];
+                    while (row != 0)
+                    {
+                        int start = Integer.numberOfTrailingZeros(row);
+                        int length = Integer.numberOfTrailingZeros(~(row >>> start));
+                        texture.updateImageRegion(start << 4, chunkZ << 4, length << 4, 16);
+                        row &= ~(length == 32 ? -1 : ((1 << length) - 1) << start);
+                    }
+                    dirtyChunkRows[chunkZ] = 0;
+                }
                 setDirty();
                 partialUpdate = false;
                 //System.out.println("Finished image updates on " + this);
@@ -126,6 +178,42 @@ public class ImageHolder implements IThreadedFileIO
         }
     }
 
+    /**
+     * Flag the chunks overlapped by the area as changed.
+     */
+    private void markDirtyChunks(int x, int y, int width, int height)
+    {
+        int maxChunk = dirtyChunkRows.length - 1;
+        int minChunkX = Math.max(0, x >> 4);
+        int maxChunkX = Math.min(maxChunk, (x + width - 1) >> 4);
+        int minChunkZ = Math.max(0, y >> 4);
+        int maxChunkZ = Math.min(maxChunk, (y + height - 1) >> 4);
+        for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++)
+        {
+            for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++)
+            {
+                dirtyChunkRows[chunkZ] |= 1 << chunkX;
+            }
+        }
+    }
+
+    /**
+     * Approximate memory held by the texture's image and buffer.
+     */
+    long getRetainedBytes()
+    {
+        TextureImpl tex = texture;
+        return tex == null ? 0 : tex.getRetainedBytes();
+    }
+
+    /**
+     * The current texture, without loading one if there isn't.
+     */
+    TextureImpl peekTexture()
+    {
+        return texture;
+    }
+
     public boolean hasTexture()
     {
         return texture != null && !texture.isDefunct();
@@ -144,6 +232,16 @@ public class ImageHolder implements IThreadedFileIO
             }
             else
             {
+                if (image.getType() != BufferedImage.TYPE_INT_ARGB)
+                {
+                    // PNGs are read as 4BYTE_ABGR; keep holders INT_ARGB so writes can use the backing array
+                    BufferedImage intImage = new BufferedImage(imageSize, imageSize, BufferedImage.TYPE_INT_ARGB);
+                    Graphics2D g = intImage.createGraphics();
+                    g.setComposite(AlphaComposite.Src);
+                    g.drawImage(image, 0, 0, null);
+                    g.dispose();
+                    image = intImage;
+                }
                 blank = false;
             }
             this.texture = new TextureImpl(null, image, true, false);
@@ -165,7 +263,7 @@ public class ImageHolder implements IThreadedFileIO
     /**
      * Update the image file on disk.
      *
-     * @param async Whether to queue the write with Minecraft's IO thread and immediately return
+     * @param async Whether to queue the write with the ImageWriteService and immediately return
      * @return true if the file was actually updated and async=false
      */
     protected boolean writeToDisk(boolean async)
@@ -178,25 +276,22 @@ public class ImageHolder implements IThreadedFileIO
         {
             if(async)
             {
-                // Experimental:  Use Minecraft's IO manager thread
-                ThreadedFileIOBase.threadedIOInstance.queueIO(this);
+                ImageWriteService.instance().queue(this);
                 return true;
             }
             else
             {
-                return !writeNextIO();
+                return !tryWrite();
             }
         }
     }
 
     /**
-     * Update the image file on disk.
-     *
-     * Implements IThreaedFileIO, to be called by ThreadedFileIOBase.
+     * Update the image file on disk, unless a chunk is being painted into the image.
      *
      * @return true if a retry is needed
      */
-    public boolean writeNextIO()
+    boolean tryWrite()
     {
         if(texture==null || !texture.hasImage())
         {
@@ -263,9 +358,12 @@ public class ImageHolder implements IThreadedFileIO
                 imageFile.getParentFile().mkdirs();
             }
 
-            BufferedOutputStream imageOutputStream = new BufferedOutputStream(new FileOutputStream(imageFile));
-            ImageIO.write(image, "PNG", imageOutputStream);
-            imageOutputStream.close();
+            CoreProperties coreProperties = JourneymapClient.getCoreProperties();
+            PngjHelper.writeImage(image, imageFile, coreProperties.regionPngCompression.get(), coreProperties.regionPngFilter.get());
+            if (regionCoord != null)
+            {
+                TilePyramid.queueUpdate(imageFile, regionCoord.regionX, regionCoord.regionZ, image);
+            }
 
             if (debug)
             {
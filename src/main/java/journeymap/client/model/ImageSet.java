@@ -99,6 +99,37 @@ public abstract class ImageSet
         return false;
     }
 
+    /**
+     * Approximate memory held by the images and texture buffers of all holders.
+     */
+    public long getRetainedBytes()
+    {
+        long bytes = 0;
+        synchronized (imageHolders)
+        {
+            for (ImageHolder imageHolder : imageHolders.values())
+            {
+                bytes += imageHolder.getRetainedBytes();
+            }
+        }
+        return bytes;
+    }
+
+    public boolean hasDirtyImages()
+    {
+        synchronized (imageHolders)
+        {
+            for (ImageHolder imageHolder : imageHolders.values())
+            {
+                if (imageHolder.isDirty() || imageHolder.partialUpdate)
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     public void clear()
     {
         synchronized (imageHolders)
@@ -0,0 +1,302 @@
+/*
+ * JourneyMap Mod <journeymap.info> for Minecraft
+ * Copyright (c) 2011-2017  Techbrew Interactive, LLC <techbrew.net>.  All Rights Reserved.
+ */
+
+package journeymap.client.model;
+
+import journeymap.common.Journeymap;
+import journeymap.common.thread.JMThreadFactory;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.file.Path;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes map images to disk on JourneyMap's own threads, rather than on Minecraft's file IO thread where they
+ * would wait behind chunk saves, and chunk saves behind them.
+ * <p/>
+ * Writes are coalesced per file: an image queued again before it has been written is written once, from the
+ * holder queued last, as it is when the write starts.  The number of files waiting is bounded; past that, callers
+ * write the image themselves, which slows mapping down to what the disk can keep up with.
+ */
+public class ImageWriteService
+{
+    static final Logger logger = Journeymap.getLogger();
+    static final int MAX_QUEUED = 64;
+    private static final int MAX_RETRIES = 50;
+    private static final long RETRY_MS = 10;
+    private static final long FLUSH_WAIT_MS = 100;
+
+    private final ConcurrentMap<Path, Pending> pending = new ConcurrentHashMap<Path, Pending>();
+    private final Semaphore slots = new Semaphore(MAX_QUEUED);
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Files queued or being written.
+     */
+    private final AtomicInteger inProgress = new AtomicInteger();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private volatile long maxLatencyNanos;
+
+    private ImageWriteService()
+    {
+        int threads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 2));
+        executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new JMThreadFactory("imagewrite"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Singleton
+     */
+    public static ImageWriteService instance()
+    {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Queue the holder's image to be written.  If its file is already queued, the holder replaces the one there.
+     * If the queue is full, the image is written on the calling thread instead.
+     */
+    void queue(ImageHolder holder)
+    {
+        Path path = holder.imagePath;
+        while (true)
+        {
+            Pending existing = pending.get(path);
+            if (existing != null)
+            {
+                if (existing.replace(holder))
+                {
+                    coalesced.incrementAndGet();
+                    return;
+                }
+                // Already being written, so queue it again
+                continue;
+            }
+
+            if (!slots.tryAcquire())
+            {
+                throttled.incrementAndGet();
+                write(holder);
+                return;
+            }
+
+            Pending entry = new Pending(path, holder);
+            if (pending.putIfAbsent(path, entry) == null)
+            {
+                inProgress.incrementAndGet();
+                executor.execute(entry);
+                return;
+            }
+            slots.release();
+        }
+    }
+
+    /**
+     * Write everything queued, taking on what the pool hasn't started yet with the calling thread,
+     * and wait for the writes already under way.
+     */
+    public void flush()
+    {
+        for (Pending entry : pending.values())
+        {
+            ImageHolder holder = entry.take();
+            if (holder != null)
+            {
+                complete(entry, holder);
+            }
+        }
+
+        synchronized (this)
+        {
+            try
+            {
+                while (inProgress.get() > 0)
+                {
+                    wait(FLUSH_WAIT_MS);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void complete(Pending entry, ImageHolder holder)
+    {
+        slots.release();
+        try
+        {
+            // Skip holders already written by a synchronous write since they were queued
+            if (holder.isDirty() && write(holder))
+            {
+                long latency = System.nanoTime() - entry.queuedNanos;
+                written.incrementAndGet();
+                totalLatencyNanos.addAndGet(latency);
+                if (latency > maxLatencyNanos)
+                {
+                    maxLatencyNanos = latency;
+                }
+            }
+        }
+        finally
+        {
+            if (inProgress.decrementAndGet() == 0)
+            {
+                synchronized (this)
+                {
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the image, waiting a little while if a chunk is being painted into it.  A holder which still
+     * can't be written stays dirty for the next flush.
+     *
+     * @return true if written
+     */
+    private boolean write(ImageHolder holder)
+    {
+        for (int attempt = 0; holder.tryWrite(); attempt++)
+        {
+            if (attempt == MAX_RETRIES)
+            {
+                logger.warn("Gave up waiting for write lock on {}", holder);
+                return false;
+            }
+
+            try
+            {
+                Thread.sleep(RETRY_MS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Number of files waiting to be written.
+     */
+    public int getQueueDepth()
+    {
+        return pending.size();
+    }
+
+    /**
+     * Average time from an image being queued to it being written, in milliseconds.
+     */
+    public double getAverageLatencyMs()
+    {
+        long count = written.get();
+        return (count == 0) ? 0 : totalLatencyNanos.get() / (count * 1000000D);
+    }
+
+    public double getMaxLatencyMs()
+    {
+        return maxLatencyNanos / 1000000D;
+    }
+
+    public long getWrittenCount()
+    {
+        return written.get();
+    }
+
+    /**
+     * Number of writes saved by replacing a queued holder.
+     */
+    public long getCoalescedCount()
+    {
+        return coalesced.get();
+    }
+
+    /**
+     * Number of writes done by callers because the queue was full.
+     */
+    public long getThrottledCount()
+    {
+        return throttled.get();
+    }
+
+    public String getReportString()
+    {
+        return String.format("ImageWriteService queued %s written %s avg %.2fms max %.2fms coalesced %s throttled %s",
+                getQueueDepth(), getWrittenCount(), getAverageLatencyMs(), getMaxLatencyMs(),
+                getCoalescedCount(), getThrottledCount());
+    }
+
+    @Override
+    public String toString()
+    {
+        return getReportString();
+    }
+
+    /**
+     * A file waiting to be written.  Once taken to be written, it can no longer be replaced.
+     */
+    class Pending implements Runnable
+    {
+        final Path path;
+        final long queuedNanos = System.nanoTime();
+        private ImageHolder holder;
+        private boolean taken;
+
+        Pending(Path path, ImageHolder holder)
+        {
+            this.path = path;
+            this.holder = holder;
+        }
+
+        synchronized boolean replace(ImageHolder holder)
+        {
+            if (taken)
+            {
+                return false;
+            }
+            this.holder = holder;
+            return true;
+        }
+
+        /**
+         * @return the holder to write, or null if it's already been taken
+         */
+        synchronized ImageHolder take()
+        {
+            if (taken)
+            {
+                return null;
+            }
+            taken = true;
+            pending.remove(path, this);
+            return holder;
+        }
+
+        @Override
+        public void run()
+        {
+            ImageHolder holder = take();
+            if (holder != null)
+            {
+                complete(this, holder);
+            }
+        }
+    }
+
+    private static class Holder
+    {
+        private static final ImageWriteService INSTANCE = new ImageWriteService();
+    }
+}
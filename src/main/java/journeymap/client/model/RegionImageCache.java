@@ -6,23 +6,28 @@
 package journeymap.client.model;
 
 import com.google.common.cache.*;
+import journeymap.client.JourneymapClient;
 import journeymap.client.data.DataCache;
 import journeymap.client.forge.helper.ForgeHelper;
 import journeymap.client.io.FileHandler;
 import journeymap.client.io.RegionImageHandler;
+import journeymap.client.render.texture.TextureImpl;
 import journeymap.common.Journeymap;
 import journeymap.common.thread.JMThreadFactory;
 import net.minecraft.client.Minecraft;
-import net.minecraft.world.storage.ThreadedFileIOBase;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 public class RegionImageCache
@@ -30,6 +35,18 @@ public class RegionImageCache
     public static final long flushInterval = TimeUnit.SECONDS.toMillis(30);
     public static final long regionCacheAge = flushInterval / 2;
     static final Logger logger = Journeymap.getLogger();
+    static final long MIN_AUTO_CACHE_MB = 64;
+    static final ConcurrentMap<RegionImageSet.Key, RegionImageSet> pendingWriteBacks = new ConcurrentHashMap<RegionImageSet.Key, RegionImageSet>();
+    static final long WRITE_BACK_RETRY_MS = 500;
+    static final ScheduledThreadPoolExecutor writeBackExecutor;
+
+    static
+    {
+        writeBackExecutor = new ScheduledThreadPoolExecutor(1, new JMThreadFactory("rcache-write"));
+        writeBackExecutor.setKeepAliveTime(30, TimeUnit.SECONDS);
+        writeBackExecutor.allowCoreThreadTimeOut(true);
+    }
+
     final LoadingCache<RegionImageSet.Key, RegionImageSet> regionImageSetsCache;
     private volatile long lastFlush;
     private Minecraft minecraft = ForgeHelper.INSTANCE.getClient();
@@ -48,7 +65,8 @@ public class RegionImageCache
             @Override
             public void run()
             {
-                // Don't flush asynchronously; do it in this thread
+                // Queue everything still unwritten, then wait for it here
+                flushWriteBacks();
                 flushToDisk(false);
                 if (logger.isEnabled(Level.DEBUG))
                 {
@@ -70,22 +88,33 @@ public class RegionImageCache
     {
         return builder
                 .expireAfterAccess(regionCacheAge, TimeUnit.SECONDS)
+                .maximumWeight(getMaxWeightKilobytes())
+                .weigher(new Weigher<RegionImageSet.Key, RegionImageSet>()
+                {
+                    @Override
+                    @ParametersAreNonnullByDefault
+                    public int weigh(RegionImageSet.Key key, RegionImageSet regionImageSet)
+                    {
+                        return (int) (regionImageSet.getRetainedBytes() / 1024);
+                    }
+                })
                 .removalListener(new RemovalListener<RegionImageSet.Key, RegionImageSet>()
                 {
                     @Override
                     @ParametersAreNonnullByDefault
                     public void onRemoval(RemovalNotification<RegionImageSet.Key, RegionImageSet> notification)
                     {
+                        if (notification.getCause() == RemovalCause.REPLACED)
+                        {
+                            // Only re-weighed by updateWeight()
+                            return;
+                        }
+
                         RegionImageSet regionImageSet = notification.getValue();
-                        if (regionImageSet != null)
+                        if (regionImageSet != null && !regionImageSet.retire())
                         {
-                            // Don't force it, but do it synchronously to ensure things aren't GCd before it's done.
-                            int count = regionImageSet.writeToDisk(false, false);
-                            if (count>0 && Journeymap.getLogger().isDebugEnabled())
-                            {
-                                Journeymap.getLogger().debug("Wrote to disk before removal from cache: {}", regionImageSet);
-                            }
-                            regionImageSet.clear();
+                            // Dirty, or still being painted by a render worker
+                            queueWriteBack(regionImageSet);
                         }
                     }
                 }).build(new CacheLoader<RegionImageSet.Key, RegionImageSet>()
@@ -94,11 +123,101 @@ public class RegionImageCache
                     @ParametersAreNonnullByDefault
                     public RegionImageSet load(RegionImageSet.Key key) throws Exception
                     {
-                        return new RegionImageSet(key);
+                        // Reclaim a set that's still waiting to be written, rather than read stale images from disk
+                        RegionImageSet pending;
+                        synchronized (pendingWriteBacks)
+                        {
+                            pending = pendingWriteBacks.remove(key);
+                        }
+                        return (pending != null) ? pending : new RegionImageSet(key);
                     }
                 });
     }
 
+    /**
+     * Cache weight limit per the core properties, where 0 means a quarter of the max heap.
+     */
+    static long getMaxWeightKilobytes()
+    {
+        long megabytes = JourneymapClient.getCoreProperties().regionCacheMegabytes.get();
+        if (megabytes <= 0)
+        {
+            megabytes = Math.max(MIN_AUTO_CACHE_MB, Runtime.getRuntime().maxMemory() / 4 / (1024 * 1024));
+        }
+        return megabytes * 1024;
+    }
+
+    /**
+     * Write the evicted set's dirty images on another thread, then clear it.  Until then the set can be
+     * reclaimed by the cache loader; whichever of the two removes it from pendingWriteBacks first wins.
+     * A set which a render worker is still painting is written again and retried once the worker is done.
+     */
+    private static void queueWriteBack(final RegionImageSet regionImageSet)
+    {
+        final RegionImageSet.Key key = regionImageSet.getKey();
+        pendingWriteBacks.put(key, regionImageSet);
+        writeBackExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (pendingWriteBacks.get(key) != regionImageSet)
+                {
+                    // Reclaimed or discarded
+                    return;
+                }
+
+                regionImageSet.finishChunkUpdates();
+                int count = regionImageSet.writeToDisk(false, false);
+                synchronized (pendingWriteBacks)
+                {
+                    if (pendingWriteBacks.get(key) != regionImageSet)
+                    {
+                        return;
+                    }
+                    if (!regionImageSet.retire())
+                    {
+                        writeBackExecutor.schedule(this, WRITE_BACK_RETRY_MS, TimeUnit.MILLISECONDS);
+                        return;
+                    }
+                    pendingWriteBacks.remove(key);
+                }
+
+                if (count > 0 && logger.isDebugEnabled())
+                {
+                    logger.debug("Wrote to disk after removal from cache: {}", regionImageSet);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queue the images of any evicted sets still waiting on the write-back thread with the ImageWriteService.
+     */
+    private static void flushWriteBacks()
+    {
+        for (RegionImageSet regionImageSet : pendingWriteBacks.values())
+        {
+            regionImageSet.writeToDisk(false, true);
+        }
+    }
+
+    /**
+     * Have the cache re-weigh a set whose holders have changed.  The cache can only re-weigh on a write,
+     * which also counts as an access and so restarts the set's expiry; that's wanted here, since a holder
+     * is only added for a caller about to use it.  A set no longer in the cache is left out.
+     */
+    void updateWeight(RegionImageSet regionImageSet)
+    {
+        ConcurrentMap<RegionImageSet.Key, RegionImageSet> map = regionImageSetsCache.asMap();
+        RegionImageSet.Key key = regionImageSet.getKey();
+        // Sets are equal by key, so make sure it's this one
+        if (map.get(key) == regionImageSet)
+        {
+            map.replace(key, regionImageSet, regionImageSet);
+        }
+    }
+
     public RegionImageSet getRegionImageSet(RegionCoord rCoord)
     {
         return regionImageSetsCache.getUnchecked(RegionImageSet.Key.from(rCoord));
@@ -109,6 +228,72 @@ public class RegionImageCache
         return regionImageSetsCache.getUnchecked(rCoordKey);
     }
 
+    /**
+     * Get the region's set to paint chunks into, pinned so it isn't cleared if it's evicted meanwhile.
+     * Must be unpinned when painting is done; its chunk updates are finished before it's written back.
+     */
+    public RegionImageSet getRegionImageSetForUpdate(RegionCoord rCoord)
+    {
+        RegionImageSet.Key key = RegionImageSet.Key.from(rCoord);
+        while (true)
+        {
+            // A set retired since it was gotten is no longer in the cache, so the next get won't return it
+            RegionImageSet regionImageSet = regionImageSetsCache.getUnchecked(key);
+            if (regionImageSet.pin())
+            {
+                return regionImageSet;
+            }
+        }
+    }
+
+    /**
+     * Get a region image without adding it to the cache: the in-memory image if the region is loaded,
+     * otherwise the image file on disk.  Safe to call from any thread.
+     *
+     * @return the image, or null if there isn't one
+     */
+    public BufferedImage peekRegionImage(RegionCoord rCoord, MapType mapType)
+    {
+        RegionImageSet.Key key = RegionImageSet.Key.from(rCoord);
+        RegionImageSet regionImageSet = regionImageSetsCache.asMap().get(key);
+        if (regionImageSet == null)
+        {
+            // Evicted but not yet written
+            regionImageSet = pendingWriteBacks.get(key);
+        }
+        if (regionImageSet != null)
+        {
+            ImageHolder holder = regionImageSet.imageHolders.get(mapType);
+            if (holder != null)
+            {
+                TextureImpl texture = holder.peekTexture();
+                if (texture != null && texture.hasImage())
+                {
+                    return texture.getImage();
+                }
+            }
+        }
+        return RegionImageHandler.readRegionImage(RegionImageHandler.getRegionImageFile(rCoord, mapType, false), true);
+    }
+
+    /**
+     * A timestamp which changes whenever the region's image for the map type changes, without loading it.
+     * Uses the in-memory image if there is one, otherwise the image file on disk.
+     */
+    public long getImageVersion(RegionCoord rCoord, MapType mapType)
+    {
+        RegionImageSet regionImageSet = regionImageSetsCache.asMap().get(RegionImageSet.Key.from(rCoord));
+        if (regionImageSet != null)
+        {
+            ImageHolder holder = regionImageSet.imageHolders.get(mapType);
+            if (holder != null && holder.hasTexture())
+            {
+                return holder.getImageTimestamp();
+            }
+        }
+        return RegionImageHandler.getRegionImageFile(rCoord, mapType, false).lastModified();
+    }
+
     // Doesn't trigger access on cache
     private Collection<RegionImageSet> getRegionImageSets()
     {
@@ -163,32 +348,47 @@ public class RegionImageCache
     }
 
     /**
-     * Write all dirty images to disk.
-     * @param async Whether to do file writes asynchronously
+     * Write all dirty images to disk.  Either way the writes go through the ImageWriteService,
+     * so they're coalesced with any already queued and shared across its threads.
+     * @param async Whether to return without waiting for the writes to finish
      */
     public void flushToDisk(boolean async)
     {
-        int count = 0;
         for (RegionImageSet regionImageSet : getRegionImageSets())
         {
             // Don't force writes that aren't necessary
-            count+=regionImageSet.writeToDisk(false, async);
+            regionImageSet.writeToDisk(false, true);
         }
         lastFlush = System.currentTimeMillis();
 
         if(!async)
         {
-            try
-            {
-                ThreadedFileIOBase.threadedIOInstance.waitForFinish();
-            }
-            catch (InterruptedException e)
-            {
-                e.printStackTrace();
-            }
+            ImageWriteService.instance().flush();
         }
     }
 
+    /**
+     * Finish the region's chunk updates and write its dirty images to disk on the calling thread, then drop it
+     * from the cache.  Used when mapping a region that won't be revisited, so its images don't linger in memory.
+     *
+     * @return true if the region's set was in the cache and all of its images are now on disk
+     */
+    public boolean flushRegion(RegionCoord rCoord)
+    {
+        RegionImageSet.Key key = RegionImageSet.Key.from(rCoord);
+        RegionImageSet regionImageSet = regionImageSetsCache.asMap().get(key);
+        if (regionImageSet == null)
+        {
+            return false;
+        }
+
+        regionImageSet.finishChunkUpdates();
+        regionImageSet.writeToDisk(false, false);
+        boolean written = !regionImageSet.hasDirtyImages();
+        regionImageSetsCache.invalidate(key);
+        return written;
+    }
+
     /**
      * lol
      */
@@ -247,6 +447,16 @@ public class RegionImageCache
             // Ensures textures are properly disposed of
             regionImageSet.clear();
         }
+
+        // Discard evicted sets which haven't been written yet
+        for (RegionImageSet.Key key : pendingWriteBacks.keySet())
+        {
+            RegionImageSet regionImageSet = pendingWriteBacks.remove(key);
+            if (regionImageSet != null)
+            {
+                regionImageSet.clear();
+            }
+        }
         regionImageSetsCache.invalidateAll();
         regionImageSetsCache.cleanUp();
     }
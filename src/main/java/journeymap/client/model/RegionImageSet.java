@@ -5,10 +5,10 @@
 
 package journeymap.client.model;
 
+import journeymap.client.cartography.ChunkPainter;
 import journeymap.client.io.RegionImageHandler;
 import journeymap.client.render.map.Tile;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
 
 /**
@@ -20,6 +20,12 @@ public class RegionImageSet extends ImageSet
 {
     protected final Key key;
 
+    /**
+     * Number of render workers painting chunks into the set.
+     */
+    private int users;
+    private boolean retired;
+
     public RegionImageSet(Key key)
     {
         super();
@@ -29,43 +35,63 @@ public class RegionImageSet extends ImageSet
     @Override
     public ImageHolder getHolder(MapType mapType)
     {
+        ImageHolder imageHolder;
         synchronized (imageHolders)
         {
-            ImageHolder imageHolder = imageHolders.get(mapType);
-            if (imageHolder == null)
+            imageHolder = imageHolders.get(mapType);
+            if (imageHolder != null)
             {
-                // Prepare to find image in file
-                File imageFile = RegionImageHandler.getRegionImageFile(getRegionCoord(), mapType, false);
-
-                // Add holder
-                imageHolder = addHolder(mapType, imageFile);
+                return imageHolder;
             }
-            return imageHolder;
+
+            // Prepare to find image in file
+            RegionCoord regionCoord = getRegionCoord();
+            File imageFile = RegionImageHandler.getRegionImageFile(regionCoord, mapType, false);
+
+            // Add holder
+            imageHolder = addHolder(new ImageHolder(mapType, regionCoord, imageFile, getImageSize()));
         }
+
+        // The set got heavier, so the cache needs to know
+        RegionImageCache.instance().updateWeight(this);
+        return imageHolder;
+    }
+
+    public Key getKey()
+    {
+        return key;
     }
 
-    public BufferedImage getChunkImage(ChunkMD chunkMd, MapType mapType)
+    /**
+     * Write the chunk's painted pixels into the region image for the map type.
+     */
+    public void setChunkImage(ChunkMD chunkMd, MapType mapType, ChunkPainter painter)
     {
-        BufferedImage regionImage = getHolder(mapType).getImage();
+        ImageHolder holder = getHolder(mapType);
         RegionCoord regionCoord = getRegionCoord();
-        BufferedImage current = regionImage.getSubimage(
-                regionCoord.getXOffset(chunkMd.getCoord().chunkXPos),
-                regionCoord.getZOffset(chunkMd.getCoord().chunkZPos),
-                16, 16);
+        holder.partialImageUpdate(painter, regionCoord.getXOffset(chunkMd.getCoord().chunkXPos), regionCoord.getZOffset(chunkMd.getCoord().chunkZPos));
+    }
 
-//        BufferedImage copy = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
-//        Graphics g2D = RegionImageHandler.initRenderingHints(copy.createGraphics());
-//        g2D.drawImage(current, 0, 0, null);
-//        g2D.dispose();
-//        return copy;
-        return current;
+    /**
+     * Whether the chunk's image for the map type was last rendered from content with the same fingerprint.
+     */
+    public boolean isChunkCurrent(ChunkMD chunkMd, MapType mapType, long fingerprint)
+    {
+        RegionCoord regionCoord = getRegionCoord();
+        return fingerprint != 0 && getHolder(mapType).getChunkFingerprint(
+                regionCoord.getXOffset(chunkMd.getCoord().chunkXPos) >> 4,
+                regionCoord.getZOffset(chunkMd.getCoord().chunkZPos) >> 4) == fingerprint;
     }
 
-    public void setChunkImage(ChunkMD chunkMd, MapType mapType, BufferedImage chunkImage)
+    /**
+     * Record the fingerprint of the content the chunk's image for the map type was rendered from.
+     */
+    public void setChunkFingerprint(ChunkMD chunkMd, MapType mapType, long fingerprint)
     {
-        ImageHolder holder = getHolder(mapType);
         RegionCoord regionCoord = getRegionCoord();
-        holder.partialImageUpdate(chunkImage, regionCoord.getXOffset(chunkMd.getCoord().chunkXPos), regionCoord.getZOffset(chunkMd.getCoord().chunkZPos));
+        getHolder(mapType).setChunkFingerprint(
+                regionCoord.getXOffset(chunkMd.getCoord().chunkXPos) >> 4,
+                regionCoord.getZOffset(chunkMd.getCoord().chunkZPos) >> 4, fingerprint);
     }
 
     public boolean hasChunkUpdates()
@@ -88,6 +114,43 @@ public class RegionImageSet extends ImageSet
         }
     }
 
+    /**
+     * Keep the set from being cleared while chunks are painted into it, even if it's evicted meanwhile.
+     *
+     * @return false if the set has already been cleared, and a current one should be gotten from the cache
+     */
+    synchronized boolean pin()
+    {
+        if (retired)
+        {
+            return false;
+        }
+        users++;
+        return true;
+    }
+
+    public synchronized void unpin()
+    {
+        users--;
+    }
+
+    /**
+     * Clear the set once it's been evicted, unless it's pinned or has images which aren't on disk yet.
+     * A retired set can't be pinned again.
+     *
+     * @return true if cleared
+     */
+    synchronized boolean retire()
+    {
+        if (users > 0 || hasDirtyImages())
+        {
+            return false;
+        }
+        retired = true;
+        clear();
+        return true;
+    }
+
     public RegionCoord getRegionCoord()
     {
         return RegionCoord.fromRegionPos(key.worldDir, key.regionX, key.regionZ, key.dimension);
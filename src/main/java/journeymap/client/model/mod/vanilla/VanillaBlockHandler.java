@@ -243,7 +243,7 @@ public final class VanillaBlockHandler implements ModBlockDelegate.IModBlockHand
     }
 
     // Class.isAssignableFrom is slow, so we cache resolved class connections
-    private Class<? extends Block> getParentClass(Class<? extends Block> blockClass)
+    private synchronized Class<? extends Block> getParentClass(Class<? extends Block> blockClass)
     {
         if (cachedParentClasses.containsKey(blockClass))
         {
@@ -10,6 +10,7 @@ import journeymap.client.forge.helper.ForgeHelper;
 import journeymap.client.forge.helper.IColorHelper;
 import journeymap.client.forge.helper.IForgeHelper;
 import journeymap.client.log.JMLogger;
+import journeymap.client.model.BiomeTintCache;
 import journeymap.client.model.BlockMD;
 import journeymap.client.model.ChunkMD;
 import journeymap.client.model.mod.ModBlockDelegate;
@@ -160,9 +161,30 @@ public class VanillaColorHandler implements ModBlockDelegate.IModBlockColorHandl
     }
 
     /**
-     * Get the tint (color multiplier) for the block.
+     * Get the tint (color multiplier) for the block, cached per interior column for grass, foliage and water.
      */
     protected Integer getTint(ChunkMD chunkMD, BlockMD blockMD, int globalX, int y, int globalZ)
+    {
+        final int kind = (chunkMD == null) ? BiomeTintCache.NONE : BiomeTintCache.kindOf(blockMD);
+        if (kind == BiomeTintCache.NONE || !BiomeTintCache.isCached(globalX, globalZ))
+        {
+            return loadTint(chunkMD, blockMD, globalX, y, globalZ);
+        }
+
+        BiomeTintCache.Tints tints = chunkMD.getTints();
+        Integer tint = tints.get(kind, blockMD, globalX, y, globalZ);
+        if (tint == null)
+        {
+            tint = loadTint(chunkMD, blockMD, globalX, y, globalZ);
+            tints.put(kind, blockMD, globalX, y, globalZ, tint);
+        }
+        return tint;
+    }
+
+    /**
+     * Get the tint (color multiplier) for the block from Minecraft.
+     */
+    protected Integer loadTint(ChunkMD chunkMD, BlockMD blockMD, int globalX, int y, int globalZ)
     {
         try
         {
@@ -7,6 +7,7 @@ package journeymap.client.properties;
 
 import com.google.common.base.Objects;
 import journeymap.client.forge.helper.ForgeHelper;
+import journeymap.client.io.PngjHelper;
 import journeymap.client.io.ThemeFileHandler;
 import journeymap.client.log.JMLogger;
 import journeymap.client.model.GridSpecs;
@@ -110,6 +111,9 @@ public class CoreProperties extends PropertiesBase implements Comparable<CorePro
     @Config(category = Cartography, key = "jm.common.alwaysmapcaves", defaultBoolean = false)
     public final AtomicBoolean alwaysMapCaves = new AtomicBoolean();
 
+    @Config(category = Cartography, key = "jm.common.cave_slice_range", minValue = 0, maxValue = 15, defaultValue = 0)
+    public final AtomicInteger caveSliceRange = new AtomicInteger(0);
+
     @Config(category = Cartography, key = "jm.common.alwaysmapsurface", defaultBoolean = false)
     public final AtomicBoolean alwaysMapSurface = new AtomicBoolean();
 
@@ -140,6 +144,18 @@ public class CoreProperties extends PropertiesBase implements Comparable<CorePro
     @Config(category = Advanced, key = "jm.advanced.tile_render_type", minValue = 1, maxValue = 4, defaultValue = 1)
     public final AtomicInteger tileRenderType = new AtomicInteger(1);
 
+    @Config(category = Advanced, key = "jm.advanced.render_threads", minValue = 0, maxValue = 32, defaultValue = 0)
+    public final AtomicInteger renderThreads = new AtomicInteger(0);
+
+    @Config(category = Advanced, key = "jm.advanced.region_cache_mb", minValue = 0, maxValue = 4096, defaultValue = 0)
+    public final AtomicInteger regionCacheMegabytes = new AtomicInteger(0);
+
+    @Config(category = Advanced, key = "jm.advanced.png_compression", minValue = 0, maxValue = 9, defaultValue = 4)
+    public final AtomicInteger regionPngCompression = new AtomicInteger(4);
+
+    @Config(category = Advanced, key = "jm.advanced.png_filter", defaultEnum = "Paeth")
+    public final AtomicReference<PngjHelper.RowFilter> regionPngFilter = new AtomicReference<PngjHelper.RowFilter>(PngjHelper.RowFilter.Paeth);
+
     public final GridSpecs gridSpecs = new GridSpecs();
     public final AtomicBoolean mappingEnabled = new AtomicBoolean(true);
     public final AtomicReference<String> renderOverlayEventTypeName = new AtomicReference<String>(RenderGameOverlayEvent.ElementType.ALL.name());
@@ -235,12 +251,13 @@ public class CoreProperties extends PropertiesBase implements Comparable<CorePro
     public int hashCode()
     {
         return Objects.hashCode(announceMod, autoMapPoll, browserPoll, cacheAnimalsData, cacheMobsData, cachePlayerData,
-                cachePlayersData, cacheVillagersData, caveIgnoreGlass, checkUpdates, renderDelay, hideSneakingEntities,
+                cachePlayersData, cacheVillagersData, caveIgnoreGlass, caveSliceRange, checkUpdates, renderDelay, hideSneakingEntities,
                 logLevel, mapAntialiasing, mapBathymetry, mapCaveLighting, mapCrops, mapPlants, mapPlantShadows,
                 mapSurfaceAboveCaves, mapTransparency, maxAnimalsData, maxMobsData, maxPlayersData, maxVillagersData,
-                name, radarLateralDistance, radarVerticalDistance, recordCacheStats, renderOverlayEventTypeName,
-                renderOverlayPreEvent, renderDistanceCaveMin, renderDistanceCaveMax, renderDistanceSurfaceMin,
-                renderDistanceSurfaceMax, revealShape, themeName, gridSpecs);
+                name, radarLateralDistance, radarVerticalDistance, recordCacheStats, regionCacheMegabytes,
+                regionPngCompression, regionPngFilter, renderOverlayEventTypeName, renderOverlayPreEvent,
+                renderDistanceCaveMin, renderDistanceCaveMax, renderDistanceSurfaceMin, renderDistanceSurfaceMax,
+                renderThreads, revealShape, themeName, gridSpecs);
     }
 
     @Override
@@ -256,6 +273,7 @@ public class CoreProperties extends PropertiesBase implements Comparable<CorePro
                 .add("cachePlayersData", cachePlayersData)
                 .add("cacheVillagersData", cacheVillagersData)
                 .add("caveIgnoreGlass", caveIgnoreGlass)
+                .add("caveSliceRange", caveSliceRange)
                 .add("isUpdateCheckEnabled", checkUpdates)
                 .add("renderDelay", renderDelay)
                 .add("hideSneakingEntities", hideSneakingEntities)
@@ -277,12 +295,16 @@ public class CoreProperties extends PropertiesBase implements Comparable<CorePro
                 .add("radarLateralDistance", radarLateralDistance)
                 .add("radarVerticalDistance", radarVerticalDistance)
                 .add("recordCacheStats", recordCacheStats)
+                .add("regionCacheMegabytes", regionCacheMegabytes)
+                .add("regionPngCompression", regionPngCompression)
+                .add("regionPngFilter", regionPngFilter)
                 .add("renderOverlayEventTypeName", renderOverlayEventTypeName)
                 .add("renderOverlayPreEvent", renderOverlayPreEvent)
                 .add("renderDistanceCaveMin", renderDistanceCaveMin)
                 .add("renderDistanceCaveMax", renderDistanceCaveMax)
                 .add("renderDistanceSurfaceMin", renderDistanceSurfaceMin)
                 .add("renderDistanceSurfaceMax", renderDistanceSurfaceMax)
+                .add("renderThreads", renderThreads)
                 .add("revealShape", revealShape)
                 .add("themeName", themeName)
                 .add("tileRenderType", tileRenderType)
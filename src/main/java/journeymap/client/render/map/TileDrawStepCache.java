@@ -9,12 +9,15 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import journeymap.client.model.MapType;
 import journeymap.client.model.RegionCoord;
 import journeymap.common.Journeymap;
 import org.apache.logging.log4j.Logger;
 
 import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -60,21 +63,31 @@ public class TileDrawStepCache
         instance().invalidateAll();
     }
 
-    private TileDrawStep _getOrCreate(final MapType mapType, RegionCoord regionCoord, Integer zoom, boolean highQuality, int sx1, int sy1, int sx2, int sy2)
+    private TileDrawStep _getOrCreate(final MapType mapType, final RegionCoord regionCoord, final Integer zoom, final boolean highQuality,
+                                      final int sx1, final int sy1, final int sx2, final int sy2)
     {
         checkWorldChange(regionCoord);
 
         final String key = TileDrawStep.toCacheKey(regionCoord, mapType, zoom, highQuality, sx1, sy1, sx2, sy2);
-        TileDrawStep tileDrawStep = drawStepCache.getIfPresent(key);
-        if (tileDrawStep == null)
+        try
         {
-            tileDrawStep = new TileDrawStep(regionCoord, mapType, zoom, highQuality, sx1, sy1, sx2, sy2);
-            drawStepCache.put(key, tileDrawStep);
+            // Created atomically, so concurrent callers never make duplicate steps
+            return drawStepCache.get(key, new Callable<TileDrawStep>()
+            {
+                @Override
+                public TileDrawStep call() throws Exception
+                {
+                    return new TileDrawStep(regionCoord, mapType, zoom, highQuality, sx1, sy1, sx2, sy2);
+                }
+            });
+        }
+        catch (ExecutionException e)
+        {
+            throw new UncheckedExecutionException(e.getCause());
         }
-        return tileDrawStep;
     }
 
-    private void checkWorldChange(RegionCoord regionCoord)
+    private synchronized void checkWorldChange(RegionCoord regionCoord)
     {
         if (!regionCoord.dimDir.equals(lastDimDir))
         {
@@ -14,14 +14,19 @@ import net.minecraft.client.renderer.texture.AbstractTexture;
 import net.minecraft.client.resources.IResourceManager;
 import org.lwjgl.opengl.GL11;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferInt;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class TextureImpl extends AbstractTexture
 {
+    private static final int MAX_DIRTY_REGIONS = 64;
     private static IRenderHelper renderHelper = ForgeHelper.INSTANCE.getRenderHelper();
     private final ReentrantLock bufferLock = new ReentrantLock();
     protected BufferedImage image;
@@ -36,6 +41,16 @@ public class TextureImpl extends AbstractTexture
     protected ByteBuffer buffer;
     protected boolean bindNeeded;
 
+    /**
+     * Whether the whole buffer must be sent with glTexImage2D, rather than just the dirty regions.
+     */
+    protected boolean fullUploadNeeded;
+
+    /**
+     * Regions updated since the last bind, to be sent with glTexSubImage2D.
+     */
+    protected final List<Rectangle> dirtyRegions = new ArrayList<Rectangle>();
+
     /**
      * Must be called on thread with OpenGL Context.  Texture is immediately bound.
      */
@@ -140,6 +155,87 @@ public class TextureImpl extends AbstractTexture
             }
             buffer.flip();
             buffer.rewind();
+            dirtyRegions.clear();
+            fullUploadNeeded = true;
+            bindNeeded = true;
+        }
+        finally
+        {
+            bufferLock.unlock();
+        }
+        this.lastImageUpdate = System.currentTimeMillis();
+    }
+
+    /**
+     * Re-converts only the given area of the retained image, which is then uploaded with glTexSubImage2D
+     * the next time the texture is bound.  Falls back to {@link #setImage} if there's no buffer to update.
+     * Can be safely called without the OpenGL Context.
+     */
+    public void updateImageRegion(int x, int y, int regionWidth, int regionHeight)
+    {
+        if (image == null)
+        {
+            return;
+        }
+
+        try
+        {
+            bufferLock.lock();
+
+            if (buffer == null || image.getWidth() != width || image.getHeight() != height)
+            {
+                setImage(image, true);
+                return;
+            }
+
+            final int[] pixels;
+            final int offset;
+            final int scanSize;
+            if (image.getType() == BufferedImage.TYPE_INT_ARGB && image.getRaster().getParent() == null
+                    && image.getRaster().getDataBuffer() instanceof DataBufferInt)
+            {
+                pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+                offset = (y * width) + x;
+                scanSize = width;
+            }
+            else
+            {
+                final int pixelAmount = regionWidth * regionHeight;
+                if (pixelBuffer == null || pixelBuffer.length < pixelAmount)
+                {
+                    pixelBuffer = new int[pixelAmount];
+                }
+                pixels = image.getRGB(x, y, regionWidth, regionHeight, pixelBuffer, 0, regionWidth);
+                offset = 0;
+                scanSize = regionWidth;
+            }
+
+            // Only the affected rows and columns are converted
+            final ByteBuffer buff = buffer;
+            for (int row = 0; row < regionHeight; row++)
+            {
+                int src = offset + (row * scanSize);
+                int dest = (((y + row) * width) + x) * 4;
+                for (int col = 0; col < regionWidth; col++, dest += 4)
+                {
+                    final int argb = pixels[src++];
+                    buff.putInt(dest, (argb << 8) | ((argb >> 24) & 0xFF));
+                }
+            }
+
+            if (!fullUploadNeeded)
+            {
+                if (dirtyRegions.size() < MAX_DIRTY_REGIONS)
+                {
+                    dirtyRegions.add(new Rectangle(x, y, regionWidth, regionHeight));
+                }
+                else
+                {
+                    // Too fragmented to be worth it
+                    dirtyRegions.clear();
+                    fullUploadNeeded = true;
+                }
+            }
             bindNeeded = true;
         }
         finally
@@ -177,18 +273,38 @@ public class TextureImpl extends AbstractTexture
                 renderHelper.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
                 renderHelper.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
 
-                GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA8, width, height, 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, buffer);
+                if (fullUploadNeeded || dirtyRegions.isEmpty())
+                {
+                    GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA8, width, height, 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, buffer);
+                }
+                else
+                {
+                    // Upload only the changed areas, reading them in place from the full-size buffer
+                    GL11.glPixelStorei(GL11.GL_UNPACK_ROW_LENGTH, width);
+                    for (Rectangle region : dirtyRegions)
+                    {
+                        GL11.glPixelStorei(GL11.GL_UNPACK_SKIP_PIXELS, region.x);
+                        GL11.glPixelStorei(GL11.GL_UNPACK_SKIP_ROWS, region.y);
+                        GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, region.x, region.y, region.width, region.height, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, buffer);
+                    }
+                    GL11.glPixelStorei(GL11.GL_UNPACK_ROW_LENGTH, 0);
+                    GL11.glPixelStorei(GL11.GL_UNPACK_SKIP_PIXELS, 0);
+                    GL11.glPixelStorei(GL11.GL_UNPACK_SKIP_ROWS, 0);
+                }
 
                 int glErr = GL11.glGetError();
                 if (glErr != GL11.GL_NO_ERROR)
                 {
                     Journeymap.getLogger().warn("GL Error in TextureImpl after glTexImage2D: {}", glErr);
+                    fullUploadNeeded = true;
                 }
                 else
                 {
                     bindNeeded = false;
+                    fullUploadNeeded = false;
                     lastBound = System.currentTimeMillis();
                 }
+                dirtyRegions.clear();
             }
             catch (Throwable t)
             {
@@ -265,6 +381,26 @@ public class TextureImpl extends AbstractTexture
         return image;
     }
 
+    /**
+     * Approximate memory held by the retained image and the direct buffer.
+     */
+    public long getRetainedBytes()
+    {
+        long bytes = 0;
+        BufferedImage img = image;
+        if (img != null)
+        {
+            DataBuffer dataBuffer = img.getRaster().getDataBuffer();
+            bytes += (long) dataBuffer.getSize() * dataBuffer.getNumBanks() * (DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8);
+        }
+        ByteBuffer buff = buffer;
+        if (buff != null)
+        {
+            bytes += buff.capacity();
+        }
+        return bytes;
+    }
+
     public boolean isDefunct()
     {
         return this.glTextureId == -1 && image == null && buffer == null;
@@ -302,6 +438,7 @@ public class TextureImpl extends AbstractTexture
     {
         bufferLock.lock();
         this.buffer = null;
+        this.dirtyRegions.clear();
         bufferLock.unlock();
         this.image = null;
         this.bindNeeded = false;
@@ -7,13 +7,10 @@ package journeymap.client.task.multi;
 
 import journeymap.client.JourneymapClient;
 import journeymap.client.cartography.ChunkRenderController;
-import journeymap.client.data.DataCache;
 import journeymap.client.forge.helper.ForgeHelper;
 import journeymap.client.log.LogFormatter;
 import journeymap.client.log.StatTimer;
-import journeymap.client.model.ChunkMD;
 import journeymap.client.model.MapType;
-import journeymap.client.model.RegionCoord;
 import journeymap.client.model.RegionImageCache;
 import journeymap.common.Journeymap;
 import net.minecraft.client.Minecraft;
@@ -24,12 +21,12 @@ import org.apache.logging.log4j.Logger;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.Collection;
-import java.util.Iterator;
 
 public abstract class BaseMapTask implements ITask
 {
     static final Logger logger = Journeymap.getLogger();
-    protected static ChunkCoordIntPair[] keepAliveOffsets = new ChunkCoordIntPair[]{new ChunkCoordIntPair(0, -1), new ChunkCoordIntPair(-1, 0), new ChunkCoordIntPair(-1, -1)};
+    protected static ChunkCoordIntPair[] keepAliveOffsets = new ChunkCoordIntPair[]{new ChunkCoordIntPair(0, -1), new ChunkCoordIntPair(-1, 0), new ChunkCoordIntPair(-1, -1),
+            new ChunkCoordIntPair(0, 1), new ChunkCoordIntPair(1, 0), new ChunkCoordIntPair(1, 1)};
     private static BufferedImage blankChunkImage = null;
     private static BufferedImage blankChunkImageUnderground = null;
     final World world;
@@ -74,8 +71,6 @@ public abstract class BaseMapTask implements ITask
                 return;
             }
 
-            final Iterator<ChunkCoordIntPair> chunkIter = chunkCoords.iterator();
-
             // Check the dimension
             int currentDimension = ForgeHelper.INSTANCE.getPlayerDimension();
             if (currentDimension != mapType.dimension)
@@ -90,40 +85,7 @@ public abstract class BaseMapTask implements ITask
             }
 
             // Map the chunks
-            while (chunkIter.hasNext())
-            {
-                if (!jm.isMapping())
-                {
-                    if (threadLogging)
-                    {
-                        logger.debug("JM isn't mapping, aborting"); //$NON-NLS-1$
-                    }
-                    timer.cancel();
-                    this.complete(count, true, false);
-                    return;
-                }
-
-                if (Thread.interrupted())
-                {
-                    throw new InterruptedException();
-                }
-
-                ChunkCoordIntPair coord = chunkIter.next();
-                ChunkMD chunkMd = DataCache.instance().getChunkMD(ChunkCoordIntPair.chunkXZ2Int(coord.chunkXPos, coord.chunkZPos));
-                if (chunkMd != null && chunkMd.hasChunk())
-                {
-                    try
-                    {
-                        RegionCoord rCoord = RegionCoord.fromChunkPos(jmWorldDir, mapType, chunkMd.getCoord().chunkXPos, chunkMd.getCoord().chunkZPos);
-                        renderController.renderChunk(rCoord, mapType, chunkMd);
-                        count++;
-                    }
-                    catch (Throwable t)
-                    {
-                        logger.warn("Error rendering chunk {}: {}", chunkMd, t.getMessage());
-                    }
-                }
-            }
+            count = renderController.renderChunks(jmWorldDir, mapType, chunkCoords);
 
             if (!jm.isMapping())
             {
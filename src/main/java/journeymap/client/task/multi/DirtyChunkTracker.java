@@ -0,0 +1,264 @@
+/*
+ * JourneyMap Mod <journeymap.info> for Minecraft
+ * Copyright (c) 2011-2017  Techbrew Interactive, LLC <techbrew.net>.  All Rights Reserved.
+ */
+
+package journeymap.client.task.multi;
+
+import gnu.trove.iterator.TLongLongIterator;
+import gnu.trove.map.hash.TLongLongHashMap;
+import journeymap.client.data.DataCache;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.world.ChunkCoordIntPair;
+import net.minecraft.world.IWorldAccess;
+import net.minecraft.world.World;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps track of chunks whose blocks or light have changed since they were last mapped,
+ * so MapPlayerTask can re-render just those instead of sweeping every ring around the player.
+ * <p>
+ * Registered as an IWorldAccess on the client world, which is how the vanilla renderer hears
+ * about block changes, light updates and chunk data arriving from the server.
+ */
+public class DirtyChunkTracker implements IWorldAccess
+{
+    /**
+     * How many milliseconds of waiting make up for one chunk of distance from the player.
+     */
+    private static final long MILLIS_PER_CHUNK = 1000;
+
+    /**
+     * Blocks a surface or cave chunk reads west and north of itself when shading slopes.
+     */
+    private static final int SLOPE_REACH = 2;
+
+    /**
+     * Chunk key to the time it was first marked dirty.
+     */
+    private final TLongLongHashMap dirtyChunks = new TLongLongHashMap();
+    private volatile World world;
+
+    private DirtyChunkTracker()
+    {
+    }
+
+    public static DirtyChunkTracker instance()
+    {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Start listening to the world, forgetting anything from the previous one.
+     */
+    public synchronized void attach(World world)
+    {
+        detach();
+        world.addWorldAccess(this);
+        this.world = world;
+    }
+
+    /**
+     * Stop listening to the current world, if any.
+     */
+    public synchronized void detach()
+    {
+        if (world != null)
+        {
+            world.removeWorldAccess(this);
+            world = null;
+        }
+        clear();
+    }
+
+    public boolean isAttached(World world)
+    {
+        return world != null && this.world == world;
+    }
+
+    public void clear()
+    {
+        synchronized (dirtyChunks)
+        {
+            dirtyChunks.clear();
+        }
+    }
+
+    public boolean hasDirtyChunks()
+    {
+        synchronized (dirtyChunks)
+        {
+            return !dirtyChunks.isEmpty();
+        }
+    }
+
+    public void markDirty(int chunkX, int chunkZ)
+    {
+        long key = ChunkCoordIntPair.chunkXZ2Int(chunkX, chunkZ);
+        synchronized (dirtyChunks)
+        {
+            dirtyChunks.putIfAbsent(key, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Mark the chunk containing a block, plus each neighbor whose slope shading reads the block's column:
+     * those to the east and south read up to two blocks into this chunk, and topo shading in those to the
+     * west and north reads the column next to them.
+     */
+    public void markBlockDirty(int x, int z)
+    {
+        for (int chunkX = (x - 1) >> 4; chunkX <= (x + SLOPE_REACH) >> 4; chunkX++)
+        {
+            for (int chunkZ = (z - 1) >> 4; chunkZ <= (z + SLOPE_REACH) >> 4; chunkZ++)
+            {
+                markDirty(chunkX, chunkZ);
+            }
+        }
+    }
+
+    /**
+     * Remove up to maxChunks dirty chunks within the render distance, nearest and longest-waiting first.
+     * Dirty chunks out of range are discarded; the sweep after the player moves will pick them up.
+     */
+    public List<ChunkCoordIntPair> drain(ChunkCoordIntPair playerCoord, RenderSpec renderSpec, int maxChunks)
+    {
+        final int renderDistance = renderSpec.getMaxSecondaryRenderDistance();
+        final RenderSpec.RevealShape revealShape = renderSpec.getRevealShape();
+        final long now = System.currentTimeMillis();
+
+        PriorityQueue<DirtyChunk> queue;
+        synchronized (dirtyChunks)
+        {
+            queue = new PriorityQueue<DirtyChunk>(Math.max(1, dirtyChunks.size()));
+            TLongLongIterator iter = dirtyChunks.iterator();
+            while (iter.hasNext())
+            {
+                iter.advance();
+                ChunkCoordIntPair coord = new ChunkCoordIntPair((int) iter.key(), (int) (iter.key() >> 32));
+                if (!RenderSpec.inRange(playerCoord, coord, renderDistance, revealShape))
+                {
+                    // Drop its ChunkMD, so it's seen as changed when a sweep reaches it
+                    DataCache.instance().invalidateChunkMD(coord);
+                    iter.remove();
+                    continue;
+                }
+
+                int distance = Math.max(Math.abs(coord.chunkXPos - playerCoord.chunkXPos), Math.abs(coord.chunkZPos - playerCoord.chunkZPos));
+                queue.add(new DirtyChunk(coord, distance * MILLIS_PER_CHUNK - (now - iter.value())));
+            }
+
+            List<ChunkCoordIntPair> coords = new ArrayList<ChunkCoordIntPair>(Math.min(maxChunks, queue.size()));
+            while (coords.size() < maxChunks && !queue.isEmpty())
+            {
+                ChunkCoordIntPair coord = queue.poll().coord;
+                dirtyChunks.remove(ChunkCoordIntPair.chunkXZ2Int(coord.chunkXPos, coord.chunkZPos));
+                coords.add(coord);
+            }
+            return coords;
+        }
+    }
+
+    @Override
+    public void markBlockForUpdate(int x, int y, int z)
+    {
+        markBlockDirty(x, z);
+    }
+
+    @Override
+    public void markBlockForRenderUpdate(int x, int y, int z)
+    {
+        // Light changes
+        markBlockDirty(x, z);
+    }
+
+    @Override
+    public void markBlockRangeForRenderUpdate(int x1, int y1, int z1, int x2, int y2, int z2)
+    {
+        // Chunk data received, or a range of light changes.  Widened to the neighbors whose shading reads the range, as above.
+        for (int chunkX = (x1 - 1) >> 4; chunkX <= (x2 + SLOPE_REACH) >> 4; chunkX++)
+        {
+            for (int chunkZ = (z1 - 1) >> 4; chunkZ <= (z2 + SLOPE_REACH) >> 4; chunkZ++)
+            {
+                markDirty(chunkX, chunkZ);
+            }
+        }
+    }
+
+    @Override
+    public void playSound(String soundName, double x, double y, double z, float volume, float pitch)
+    {
+    }
+
+    @Override
+    public void playSoundToNearExcept(EntityPlayer player, String soundName, double x, double y, double z, float volume, float pitch)
+    {
+    }
+
+    @Override
+    public void spawnParticle(String particleName, double x, double y, double z, double velocityX, double velocityY, double velocityZ)
+    {
+    }
+
+    @Override
+    public void onEntityCreate(Entity entity)
+    {
+    }
+
+    @Override
+    public void onEntityDestroy(Entity entity)
+    {
+    }
+
+    @Override
+    public void playRecord(String recordName, int x, int y, int z)
+    {
+    }
+
+    @Override
+    public void broadcastSound(int soundId, int x, int y, int z, int data)
+    {
+    }
+
+    @Override
+    public void playAuxSFX(EntityPlayer player, int sfxType, int x, int y, int z, int data)
+    {
+    }
+
+    @Override
+    public void destroyBlockPartially(int breakerId, int x, int y, int z, int progress)
+    {
+    }
+
+    @Override
+    public void onStaticEntitiesChanged()
+    {
+    }
+
+    private static class DirtyChunk implements Comparable<DirtyChunk>
+    {
+        final ChunkCoordIntPair coord;
+        final long priority;
+
+        DirtyChunk(ChunkCoordIntPair coord, long priority)
+        {
+            this.coord = coord;
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(DirtyChunk other)
+        {
+            return Long.compare(priority, other.priority);
+        }
+    }
+
+    private static class Holder
+    {
+        private static final DirtyChunkTracker INSTANCE = new DirtyChunkTracker();
+    }
+}
@@ -12,6 +12,8 @@ import journeymap.client.data.DataCache;
 import journeymap.client.feature.Feature;
 import journeymap.client.feature.FeatureManager;
 import journeymap.client.forge.helper.ForgeHelper;
+import journeymap.client.model.ChunkMD;
+import journeymap.client.model.ChunkSnapshot;
 import journeymap.client.model.EntityDTO;
 import journeymap.client.model.MapType;
 import journeymap.common.Journeymap;
@@ -24,23 +26,29 @@ import java.io.File;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 public class MapPlayerTask extends BaseMapTask
 {
+    private static final int MAX_DIRTY_CHUNKS = 64;
     private static DecimalFormat decFormat = new DecimalFormat("##.#");
     private static volatile long lastTaskCompleted;
     private static long lastTaskTime;
     private static double lastTaskAvgChunkTime;
+    private static volatile MapType lastSweepMapType;
+    private static volatile boolean ringsPending = true;
     private final int maxRuntime = JourneymapClient.getCoreProperties().renderDelay.get() * 3000;
+    private final boolean sweep;
     private int scheduledChunks = 0;
     private long startNs;
     private long elapsedNs;
 
-    private MapPlayerTask(ChunkRenderController chunkRenderController, World world, MapType mapType, Collection<ChunkCoordIntPair> chunkCoords)
+    private MapPlayerTask(ChunkRenderController chunkRenderController, World world, MapType mapType, Collection<ChunkCoordIntPair> chunkCoords, boolean sweep)
     {
         super(chunkRenderController, world, mapType, chunkCoords, false, true, 10000);
+        this.sweep = sweep;
     }
 
     public static void forceNearbyRemap()
@@ -52,6 +60,15 @@ public class MapPlayerTask extends BaseMapTask
     }
 
     public static MapPlayerTaskBatch create(ChunkRenderController chunkRenderController, final EntityDTO player)
+    {
+        return create(chunkRenderController, player, false);
+    }
+
+    /**
+     * Create a batch which sweeps the rings around the player, or which only renders
+     * the nearest chunks waiting in the DirtyChunkTracker.  Returns null if there's nothing to do.
+     */
+    public static MapPlayerTaskBatch create(ChunkRenderController chunkRenderController, final EntityDTO player, boolean dirtyOnly)
     {
         final boolean cavesAllowed = FeatureManager.isAllowed(Feature.MapCaves);
         final EntityLivingBase playerEntity = player.entityLivingRef.get();
@@ -85,25 +102,42 @@ public class MapPlayerTask extends BaseMapTask
             mapType = (time < 13800) ? MapType.day(player) : MapType.night(player);
         }
 
+        List<ChunkCoordIntPair> dirtyCoords = null;
+        if (dirtyOnly)
+        {
+            RenderSpec renderSpec = underground ? RenderSpec.getUndergroundSpec() : RenderSpec.getSurfaceSpec();
+            ChunkCoordIntPair playerCoord = new ChunkCoordIntPair(playerEntity.chunkCoordX, playerEntity.chunkCoordZ);
+            dirtyCoords = DirtyChunkTracker.instance().drain(playerCoord, renderSpec, MAX_DIRTY_CHUNKS);
+            if (dirtyCoords.isEmpty())
+            {
+                return null;
+            }
+        }
+
         List<ITask> tasks = new ArrayList<ITask>(2);
-        tasks.add(new MapPlayerTask(chunkRenderController, playerEntity.worldObj, mapType, new ArrayList<ChunkCoordIntPair>()));
+        tasks.add(new MapPlayerTask(chunkRenderController, playerEntity.worldObj, mapType, chunkCoords(dirtyCoords), !dirtyOnly));
 
         if (underground)
         {
             if (worldHasSky && JourneymapClient.getCoreProperties().alwaysMapSurface.get())
             {
-                tasks.add(new MapPlayerTask(chunkRenderController, playerEntity.worldObj, MapType.day(player), new ArrayList<ChunkCoordIntPair>()));
+                tasks.add(new MapPlayerTask(chunkRenderController, playerEntity.worldObj, MapType.day(player), chunkCoords(dirtyCoords), !dirtyOnly));
             }
         }
         else
         {
             if (cavesAllowed && JourneymapClient.getCoreProperties().alwaysMapCaves.get())
             {
-                tasks.add(new MapPlayerTask(chunkRenderController, playerEntity.worldObj, MapType.underground(player), new ArrayList<ChunkCoordIntPair>()));
+                tasks.add(new MapPlayerTask(chunkRenderController, playerEntity.worldObj, MapType.underground(player), chunkCoords(dirtyCoords), !dirtyOnly));
             }
         }
 
-        return new MapPlayerTaskBatch(tasks);
+        return new MapPlayerTaskBatch(tasks, mapType, dirtyCoords);
+    }
+
+    private static List<ChunkCoordIntPair> chunkCoords(List<ChunkCoordIntPair> dirtyCoords)
+    {
+        return dirtyCoords == null ? new ArrayList<ChunkCoordIntPair>() : new ArrayList<ChunkCoordIntPair>(dirtyCoords);
     }
 
     public static String[] getDebugStats()
@@ -193,12 +227,66 @@ public class MapPlayerTask extends BaseMapTask
     public void initTask(Minecraft minecraft, JourneymapClient jm, File jmWorldDir, boolean threadLogging) throws InterruptedException
     {
         startNs = System.nanoTime();
-
-        final RenderSpec renderSpec = mapType.isUnderground() ? RenderSpec.getUndergroundSpec() : RenderSpec.getSurfaceSpec();
-        chunkCoords.addAll(renderSpec.getRenderAreaCoords());
         this.scheduledChunks = chunkCoords.size();
     }
 
+    /**
+     * Gather the chunks to map: those which are new or have changed since they were rendered for the map type.
+     * Snapshot them and the neighbors their slopes are shaded from, so workers never read a live chunk,
+     * adding the ones not already snapshotted to captured.  Must be called on the client thread.
+     */
+    void captureChunks(List<ChunkMD> captured)
+    {
+        if (sweep)
+        {
+            final RenderSpec renderSpec = mapType.isUnderground() ? RenderSpec.getUndergroundSpec() : RenderSpec.getSurfaceSpec();
+            Collection<ChunkCoordIntPair> renderAreaCoords = renderSpec.getRenderAreaCoords();
+            ChunkSnapshot.ensurePoolCapacity(renderAreaCoords.size());
+            chunkCoords.addAll(renderAreaCoords);
+        }
+
+        Iterator<ChunkCoordIntPair> iterator = chunkCoords.iterator();
+        while (iterator.hasNext())
+        {
+            ChunkMD chunkMd = getCurrentChunkMD(iterator.next());
+            if (chunkMd == null || chunkMd.isRendered(mapType))
+            {
+                iterator.remove();
+            }
+            else if (chunkMd.captureSnapshot())
+            {
+                captured.add(chunkMd);
+            }
+        }
+
+        for (ChunkCoordIntPair coord : chunkCoords)
+        {
+            for (ChunkCoordIntPair offset : keepAliveOffsets)
+            {
+                ChunkMD neighbor = getCurrentChunkMD(new ChunkCoordIntPair(coord.chunkXPos + offset.chunkXPos, coord.chunkZPos + offset.chunkZPos));
+                if (neighbor != null && neighbor.captureSnapshot())
+                {
+                    captured.add(neighbor);
+                }
+            }
+        }
+    }
+
+    /**
+     * The cached ChunkMD, replaced if the chunk it wraps has since been unloaded.
+     */
+    private static ChunkMD getCurrentChunkMD(ChunkCoordIntPair coord)
+    {
+        long key = ChunkCoordIntPair.chunkXZ2Int(coord.chunkXPos, coord.chunkZPos);
+        ChunkMD chunkMd = DataCache.instance().getChunkMD(key);
+        if (chunkMd != null && chunkMd.isUnloaded())
+        {
+            DataCache.instance().invalidateChunkMD(coord);
+            chunkMd = DataCache.instance().getChunkMD(key);
+        }
+        return chunkMd;
+    }
+
     @Override
     protected void complete(int mappedChunks, boolean cancelled, boolean hadError)
     {
@@ -220,7 +308,14 @@ public class MapPlayerTask extends BaseMapTask
     {
         final int mapTaskDelay = JourneymapClient.getCoreProperties().renderDelay.get() * 1000;
 
+        /**
+         * Chunks that change are picked up from the DirtyChunkTracker, so the rings around
+         * a stationary player only need to be swept again this often.
+         */
+        final int sweepInterval = mapTaskDelay * 10;
+
         boolean enabled;
+        ChunkCoordIntPair lastSweepCoord;
 
         @Override
         public Class<? extends BaseMapTask> getTaskClass()
@@ -253,10 +348,41 @@ public class MapPlayerTask extends BaseMapTask
             // Ensure player chunk is loaded
             if (enabled && minecraft.thePlayer.addedToChunk)
             {
-                if ((System.currentTimeMillis() - lastTaskCompleted) >= mapTaskDelay)
+                DirtyChunkTracker tracker = DirtyChunkTracker.instance();
+                if (!tracker.isAttached(minecraft.theWorld))
+                {
+                    tracker.attach(minecraft.theWorld);
+                }
+
+                long sinceLastSweep = System.currentTimeMillis() - lastTaskCompleted;
+                if (sinceLastSweep < mapTaskDelay && !tracker.hasDirtyChunks())
+                {
+                    return null;
+                }
+
+                ChunkRenderController chunkRenderController = JourneymapClient.getInstance().getChunkRenderController();
+                if (sinceLastSweep >= mapTaskDelay)
+                {
+                    // Sweep when the player has moved, the map type has changed, or the outer rings aren't done yet
+                    ChunkCoordIntPair playerCoord = new ChunkCoordIntPair(minecraft.thePlayer.chunkCoordX, minecraft.thePlayer.chunkCoordZ);
+                    MapPlayerTaskBatch batch = MapPlayerTask.create(chunkRenderController, DataCache.getPlayer());
+                    if (batch != null && (ringsPending || sinceLastSweep >= sweepInterval
+                            || !playerCoord.equals(lastSweepCoord) || !batch.mapType.equals(lastSweepMapType)))
+                    {
+                        lastSweepCoord = playerCoord;
+                        batch.captureChunks();
+                        return batch;
+                    }
+                }
+
+                if (tracker.hasDirtyChunks())
                 {
-                    ChunkRenderController chunkRenderController = JourneymapClient.getInstance().getChunkRenderController();
-                    return MapPlayerTask.create(chunkRenderController, DataCache.getPlayer());
+                    MapPlayerTaskBatch batch = MapPlayerTask.create(chunkRenderController, DataCache.getPlayer(), true);
+                    if (batch != null)
+                    {
+                        batch.captureChunks();
+                    }
+                    return batch;
                 }
             }
 
@@ -271,24 +397,80 @@ public class MapPlayerTask extends BaseMapTask
 
     }
 
+    /**
+     * The tasks of a batch share their ChunkMDs, which are snapshotted on the client thread when the batch
+     * is handed out, and released once the batch has been rendered.
+     */
     public static class MapPlayerTaskBatch extends TaskBatch
     {
-        public MapPlayerTaskBatch(List<ITask> tasks)
+        final MapType mapType;
+        final List<ChunkCoordIntPair> dirtyCoords;
+        final List<ChunkMD> capturedChunks = new ArrayList<ChunkMD>();
+
+        public MapPlayerTaskBatch(List<ITask> tasks, MapType mapType, List<ChunkCoordIntPair> dirtyCoords)
         {
             super(tasks);
+            this.mapType = mapType;
+            this.dirtyCoords = dirtyCoords;
+        }
+
+        /**
+         * Refresh the ChunkMDs of changed chunks and snapshot the chunks of every task.  Must be called on
+         * the client thread.  Sweeps keep the ChunkMDs of unchanged chunks, which the DirtyChunkTracker
+         * would have reported otherwise, so only chunks new to the render area are copied.
+         */
+        void captureChunks()
+        {
+            if (dirtyCoords != null)
+            {
+                for (ChunkCoordIntPair coord : dirtyCoords)
+                {
+                    DataCache.instance().invalidateChunkMD(coord);
+                }
+            }
+
+            for (ITask task : taskList)
+            {
+                if (task instanceof MapPlayerTask)
+                {
+                    ((MapPlayerTask) task).captureChunks(capturedChunks);
+                }
+            }
         }
 
         @Override
         public void performTask(Minecraft mc, JourneymapClient jm, File jmWorldDir, boolean threadLogging) throws InterruptedException
+        {
+            try
+            {
+                performBatch(mc, jm, jmWorldDir, threadLogging);
+            }
+            finally
+            {
+                for (ChunkMD chunkMd : capturedChunks)
+                {
+                    chunkMd.releaseSnapshot();
+                }
+                capturedChunks.clear();
+            }
+        }
+
+        private void performBatch(Minecraft mc, JourneymapClient jm, File jmWorldDir, boolean threadLogging) throws InterruptedException
         {
             if (mc.thePlayer == null)
             {
                 return;
             }
 
+            if (dirtyCoords != null)
+            {
+                // Leave the sweep stats alone
+                super.performTask(mc, jm, jmWorldDir, threadLogging);
+                return;
+            }
+
             startNs = System.nanoTime();
             List<ITask> tasks = new ArrayList<ITask>(taskList);
-            DataCache.instance().invalidateChunkMDCache();
 
             super.performTask(mc, jm, jmWorldDir, threadLogging);
 
@@ -296,22 +478,20 @@ public class MapPlayerTask extends BaseMapTask
             lastTaskTime = TimeUnit.NANOSECONDS.toMillis(elapsedNs);
             lastTaskCompleted = System.currentTimeMillis();
 
+            lastSweepMapType = mapType;
+
             // Report on timing
             int chunkCount = 0;
+            boolean pending = false;
             for (ITask task : tasks)
             {
                 if (task instanceof MapPlayerTask)
                 {
                     MapPlayerTask mapPlayerTask = (MapPlayerTask) task;
                     chunkCount += mapPlayerTask.scheduledChunks;
-                    if (mapPlayerTask.mapType.isUnderground())
-                    {
-                        RenderSpec.getUndergroundSpec().setLastTaskInfo(mapPlayerTask.scheduledChunks, mapPlayerTask.elapsedNs);
-                    }
-                    else
-                    {
-                        RenderSpec.getSurfaceSpec().setLastTaskInfo(mapPlayerTask.scheduledChunks, mapPlayerTask.elapsedNs);
-                    }
+                    RenderSpec renderSpec = mapPlayerTask.mapType.isUnderground() ? RenderSpec.getUndergroundSpec() : RenderSpec.getSurfaceSpec();
+                    renderSpec.setLastTaskInfo(mapPlayerTask.scheduledChunks, mapPlayerTask.elapsedNs);
+                    pending |= renderSpec.getLastSecondaryRenderDistance() < renderSpec.getMaxSecondaryRenderDistance();
                 }
                 else
                 {
@@ -319,6 +499,7 @@ public class MapPlayerTask extends BaseMapTask
                 }
             }
             lastTaskAvgChunkTime = elapsedNs / Math.max(1, chunkCount) / 1000000D;
+            ringsPending = pending;
         }
     }
 
@@ -5,6 +5,8 @@
 
 package journeymap.client.task.multi;
 
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
 import journeymap.client.JourneymapClient;
 import journeymap.client.cartography.ChunkRenderController;
 import journeymap.client.data.DataCache;
@@ -13,132 +15,341 @@ import journeymap.client.feature.FeatureManager;
 import journeymap.client.forge.helper.ForgeHelper;
 import journeymap.client.io.FileHandler;
 import journeymap.client.io.nbt.ChunkLoader;
+import journeymap.client.io.nbt.ChunkSectionReader;
+import journeymap.client.io.nbt.RegionHeaderIndex;
 import journeymap.client.io.nbt.RegionLoader;
 import journeymap.client.log.ChatLog;
 import journeymap.client.log.LogFormatter;
+import journeymap.client.log.StatTimer;
 import journeymap.client.model.*;
 import journeymap.common.Journeymap;
+import journeymap.common.thread.JMThreadFactory;
 import net.minecraft.client.Minecraft;
 import net.minecraft.world.ChunkCoordIntPair;
-import net.minecraft.world.World;
-import net.minecraft.world.chunk.storage.AnvilChunkLoader;
 import org.apache.logging.log4j.Logger;
 
 import java.io.File;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Maps an entire Minecraft region (512x512)
+ * Maps the Minecraft regions (512x512) found by a RegionLoader, several at a time.
+ * <p/>
+ * Each region worker has its own ChunkSectionReader and ChunkRenderWorker: it claims the next region from the
+ * loader, reads the region's chunks into snapshots, renders them on its own thread, and writes the region's
+ * images before claiming another.  Workers that finish early just claim more regions, so uneven regions don't
+ * leave cores idle.  A worker won't start a region unless the heap has room for it, while at least one region
+ * is always in progress.
  */
-public class MapRegionTask extends BaseMapTask
+public class MapRegionTask implements ITask
 {
     private static final int MAX_RUNTIME = 30000;
     private static final Logger logger = Journeymap.getLogger();
     private static volatile long lastTaskCompleted;
 
-    final RegionCoord rCoord;
-    final Collection<ChunkCoordIntPair> retainedCoords;
+    /**
+     * Rough heap needed by a region in progress: its chunks and their neighbors, plus region images.
+     */
+    private static final long REGION_BYTES = 128L * 1024 * 1024;
 
-    private MapRegionTask(ChunkRenderController renderController, World world, MapType mapType, RegionCoord rCoord, Collection<ChunkCoordIntPair> chunkCoords, Collection<ChunkCoordIntPair> retainCoords)
-    {
-        super(renderController, world, mapType, chunkCoords, true, false, 5000);
-        this.rCoord = rCoord;
-        this.retainedCoords = retainCoords;
-    }
+    /**
+     * How long a worker waits for another region to finish before checking the heap again.
+     */
+    private static final long MEMORY_WAIT_MS = 500;
 
-    public static BaseMapTask create(ChunkRenderController renderController, RegionCoord rCoord, MapType mapType, Minecraft minecraft)
-    {
+    /**
+     * Chunks in a region plus the neighbors retained for it.
+     */
+    private static final int REGION_CHUNKS = 34 * 34;
 
-        int missing = 0;
+    final ChunkRenderController renderController;
+    final RegionLoader regionLoader;
+    final MapType mapType;
+    final int workerCount;
 
-        final World world = minecraft.theWorld;
+    /**
+     * Number of regions in progress which need each chunk, so a chunk shared by neighboring regions
+     * stays in the DataCache until both are done with it.  Guards loadedChunks as well.
+     */
+    private final TLongIntHashMap chunkUsers = new TLongIntHashMap();
 
-        final List<ChunkCoordIntPair> renderCoords = rCoord.getChunkCoordsInRegion();
-        final List<ChunkCoordIntPair> retainedCoords = new ArrayList<ChunkCoordIntPair>(renderCoords.size());
+    /**
+     * The chunks read by this task and put in the DataCache, whose snapshots go back to the pool once
+     * no region needs them.
+     */
+    private final TLongObjectHashMap<ChunkMD> loadedChunks = new TLongObjectHashMap<ChunkMD>();
+    private final ChunkSnapshot.Pool snapshotPool;
+    private final Object memoryLock = new Object();
+    private final AtomicInteger regionsMapped;
+    private int regionsInProgress;
+    private volatile boolean cancelled;
+    private boolean finished;
+
+    private MapRegionTask(ChunkRenderController renderController, RegionLoader regionLoader, int workerCount)
+    {
+        this.renderController = renderController;
+        this.regionLoader = regionLoader;
+        this.mapType = regionLoader.getMapType();
+        this.workerCount = Math.max(1, workerCount);
+        this.regionsMapped = new AtomicInteger(regionLoader.getRegionsFound() - regionLoader.getRegions().size());
+        this.snapshotPool = new ChunkSnapshot.Pool(this.workerCount * REGION_CHUNKS);
+    }
+
+    public static MapRegionTask create(ChunkRenderController renderController, RegionLoader regionLoader)
+    {
+        return new MapRegionTask(renderController, regionLoader, renderController.getWorkerCount());
+    }
 
-        HashMap<RegionCoord, Boolean> existingRegions = new HashMap<RegionCoord, Boolean>();
+    /**
+     * Saved chunks around the region which are needed for slope calculations, the same neighbors its chunks'
+     * fingerprints cover.
+     */
+    static List<ChunkCoordIntPair> getRetainedCoords(RegionHeaderIndex headerIndex, List<ChunkCoordIntPair> renderCoords)
+    {
+        final List<ChunkCoordIntPair> retainedCoords = new ArrayList<ChunkCoordIntPair>();
+        final HashSet<ChunkCoordIntPair> renderSet = new HashSet<ChunkCoordIntPair>(renderCoords);
+        final HashSet<ChunkCoordIntPair> retainedSet = new HashSet<ChunkCoordIntPair>();
 
-        // Ensure chunks north, west, nw are loaded for slope calculations
         for (ChunkCoordIntPair coord : renderCoords)
         {
-            for (ChunkCoordIntPair keepAliveOffset : keepAliveOffsets)
+            for (ChunkCoordIntPair keepAliveOffset : BaseMapTask.keepAliveOffsets)
             {
                 ChunkCoordIntPair keepAliveCoord = new ChunkCoordIntPair(coord.chunkXPos + keepAliveOffset.chunkXPos, coord.chunkZPos + keepAliveOffset.chunkZPos);
-                RegionCoord neighborRCoord = RegionCoord.fromChunkPos(rCoord.worldDir, mapType, keepAliveCoord.chunkXPos, keepAliveCoord.chunkZPos);
-                if (!existingRegions.containsKey(neighborRCoord))
-                {
-                    existingRegions.put(neighborRCoord, neighborRCoord.exists());
-                }
-
-                if (!renderCoords.contains(keepAliveCoord) && existingRegions.get(neighborRCoord))
+                if (!renderSet.contains(keepAliveCoord) && headerIndex.chunkExists(keepAliveCoord.chunkXPos, keepAliveCoord.chunkZPos)
+                        && retainedSet.add(keepAliveCoord))
                 {
                     retainedCoords.add(keepAliveCoord);
                 }
             }
         }
+        return retainedCoords;
+    }
 
-        return new MapRegionTask(renderController, world, mapType, rCoord, renderCoords, retainedCoords);
+    /**
+     * Have the workers stop after the regions they're on, and the task write and clear the region image
+     * cache once they've all stopped.
+     *
+     * @return false if the task has already finished, in which case the caller has to do that itself
+     */
+    synchronized boolean cancel()
+    {
+        if (finished)
+        {
+            return false;
+        }
+        cancelled = true;
+        return true;
+    }
 
+    /**
+     * Whether regions should stop being claimed or loaded.
+     */
+    private boolean isCancelled()
+    {
+        return cancelled || Thread.currentThread().isInterrupted();
     }
 
     @Override
     public final void performTask(Minecraft mc, JourneymapClient jm, File jmWorldDir, boolean threadLogging) throws InterruptedException
     {
-        AnvilChunkLoader loader = new AnvilChunkLoader(FileHandler.getWorldSaveDir(mc));
+        StatTimer timer = StatTimer.get(getClass().getSimpleName() + ".performTask").start();
 
-        int missing = 0;
-        for (ChunkCoordIntPair coord : retainedCoords)
+        // The calling thread is one of the region workers, so the pool only needs the rest
+        int helpers = Math.min(workerCount - 1, regionLoader.getRegions().size() - 1);
+        ExecutorService executor = null;
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        try
         {
-            ChunkMD chunkMD = ChunkLoader.getChunkMD(loader, mc, coord, true);
-            if (chunkMD != null)
+            if (helpers > 0)
             {
-                DataCache.instance().addChunkMD(chunkMD);
+                executor = Executors.newFixedThreadPool(helpers, new JMThreadFactory("automap"));
+                for (int i = 0; i < helpers; i++)
+                {
+                    futures.add(executor.submit(new RegionWorker(mc, jm, jmWorldDir)));
+                }
             }
+
+            new RegionWorker(mc, jm, jmWorldDir).call();
+
+            for (Future<Void> future : futures)
+            {
+                try
+                {
+                    future.get();
+                }
+                catch (ExecutionException e)
+                {
+                    logger.error("Unexpected error in region worker: {}", LogFormatter.toString(e.getCause()));
+                }
+            }
+            timer.stop();
         }
+        catch (InterruptedException t)
+        {
+            logger.warn("Task thread interrupted: {}", this);
+            timer.cancel();
+            throw t;
+        }
+        finally
+        {
+            for (Future<Void> future : futures)
+            {
+                future.cancel(true);
+            }
+            if (executor != null)
+            {
+                executor.shutdownNow();
+                try
+                {
+                    executor.awaitTermination(MAX_RUNTIME, TimeUnit.MILLISECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
 
-        for (ChunkCoordIntPair coord : chunkCoords)
+            boolean wasCancelled;
+            synchronized (this)
+            {
+                finished = true;
+                wasCancelled = cancelled;
+            }
+            if (wasCancelled)
+            {
+                // Now that no worker is painting into them, write the files synchronously before clearing
+                RegionImageCache.instance().flushToDisk(false);
+                RegionImageCache.instance().clear();
+            }
+            lastTaskCompleted = System.currentTimeMillis();
+            if (threadLogging)
+            {
+                timer.report();
+            }
+        }
+    }
+
+    /**
+     * Take the next region off the loader, or null if there are none left.
+     */
+    private RegionCoord claimRegion()
+    {
+        Stack<RegionCoord> regions = regionLoader.getRegions();
+        synchronized (regions)
         {
-            ChunkMD chunkMD = ChunkLoader.getChunkMD(loader, mc, coord, true);
-            if (chunkMD != null)
+            return regions.isEmpty() ? null : regions.pop();
+        }
+    }
+
+    /**
+     * Wait until the heap has room for another region, or nothing else is in progress.
+     */
+    private void awaitMemory() throws InterruptedException
+    {
+        synchronized (memoryLock)
+        {
+            while (regionsInProgress > 0 && getHeadroom() < REGION_BYTES)
             {
-                DataCache.instance().addChunkMD(chunkMD);
+                memoryLock.wait(MEMORY_WAIT_MS);
             }
-            else
+            regionsInProgress++;
+        }
+    }
+
+    private void releaseMemory()
+    {
+        synchronized (memoryLock)
+        {
+            regionsInProgress--;
+            memoryLock.notifyAll();
+        }
+    }
+
+    /**
+     * Heap available beyond the quarter kept free for the game.
+     */
+    private static long getHeadroom()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        return runtime.maxMemory() - used - (runtime.maxMemory() / 4);
+    }
+
+    private void addChunkUsers(Collection<ChunkCoordIntPair> coords)
+    {
+        synchronized (chunkUsers)
+        {
+            for (ChunkCoordIntPair coord : coords)
             {
-                missing++;
+                chunkUsers.adjustOrPutValue(ChunkCoordIntPair.chunkXZ2Int(coord.chunkXPos, coord.chunkZPos), 1, 1);
             }
         }
+    }
 
-        if (chunkCoords.size() - missing > 0)
+    /**
+     * Invalidate the cached chunks no other region in progress still needs, and release their snapshots.
+     */
+    private void removeChunkUsers(Collection<ChunkCoordIntPair> coords)
+    {
+        synchronized (chunkUsers)
         {
-            logger.info("Potential chunks to map in {}: {} (out of {})", rCoord, chunkCoords.size() - missing, chunkCoords.size());
-            super.performTask(mc, jm, jmWorldDir, threadLogging);
+            for (ChunkCoordIntPair coord : coords)
+            {
+                long key = ChunkCoordIntPair.chunkXZ2Int(coord.chunkXPos, coord.chunkZPos);
+                if (chunkUsers.adjustOrPutValue(key, -1, 0) <= 0)
+                {
+                    chunkUsers.remove(key);
+                    DataCache.instance().invalidateChunkMD(coord);
+                    ChunkMD chunkMD = loadedChunks.remove(key);
+                    if (chunkMD != null)
+                    {
+                        chunkMD.releaseSnapshot();
+                    }
+                }
+            }
         }
-        else
+    }
+
+    private boolean isLoaded(ChunkCoordIntPair coord)
+    {
+        synchronized (chunkUsers)
         {
-            logger.info("Skipping empty region: {}", rCoord);
+            return loadedChunks.containsKey(ChunkCoordIntPair.chunkXZ2Int(coord.chunkXPos, coord.chunkZPos));
         }
     }
 
-    @Override
-    protected void complete(int mappedChunks, boolean cancelled, boolean hadError)
+    /**
+     * Put the chunk in the DataCache, unless another worker read it first, in which case the copy is released.
+     */
+    private void addLoaded(ChunkMD chunkMD)
     {
-        lastTaskCompleted = System.currentTimeMillis();
+        synchronized (chunkUsers)
+        {
+            if (loadedChunks.containsKey(chunkMD.asLong()))
+            {
+                chunkMD.releaseSnapshot();
+            }
+            else
+            {
+                loadedChunks.put(chunkMD.asLong(), chunkMD);
+                DataCache.instance().addChunkMD(chunkMD);
+            }
+        }
+    }
 
-        // Flush any images to disk, but do it synchronously on this thread.
-        RegionImageCache.instance().flushToDisk(false);
-        DataCache.instance().invalidateChunkMDCache();
-        if (hadError || cancelled)
+    private void announceProgress()
+    {
+        float total = 1F * regionLoader.getRegionsFound();
+        String percent = new DecimalFormat("##.#").format(regionsMapped.incrementAndGet() * 100 / total) + "%";
+        if (regionLoader.isUnderground())
         {
-            logger.warn("MapRegionTask cancelled %s hadError %s", cancelled, hadError);
+            ChatLog.announceI18N("jm.common.automap_status_underground", regionLoader.getVSlice(), percent);
         }
         else
         {
-            logger.info("Actual chunks mapped in {}: {} ", rCoord, mappedChunks);
+            ChatLog.announceI18N("jm.common.automap_status", percent);
         }
     }
 
@@ -148,6 +359,161 @@ public class MapRegionTask extends BaseMapTask
         return MAX_RUNTIME;
     }
 
+    @Override
+    public String toString()
+    {
+        return "MapRegionTask{" +
+                "mapType=" + mapType +
+                ", workerCount=" + workerCount +
+                ", regionsMapped=" + regionsMapped +
+                ", regionsFound=" + regionLoader.getRegionsFound() +
+                '}';
+    }
+
+    /**
+     * Claims and maps regions until there are none left or mapping stops.
+     */
+    class RegionWorker implements Callable<Void>
+    {
+        final Minecraft mc;
+        final JourneymapClient jm;
+        final File jmWorldDir;
+        final ChunkSectionReader reader;
+
+        RegionWorker(Minecraft mc, JourneymapClient jm, File jmWorldDir)
+        {
+            this.mc = mc;
+            this.jm = jm;
+            this.jmWorldDir = jmWorldDir;
+            this.reader = new ChunkSectionReader(FileHandler.getWorldSaveDir(mc), snapshotPool);
+        }
+
+        @Override
+        public Void call() throws InterruptedException
+        {
+            while (true)
+            {
+                if (isCancelled() || !jm.isMapping() || mc.theWorld == null)
+                {
+                    return null;
+                }
+
+                if (ForgeHelper.INSTANCE.getPlayerDimension() != mapType.dimension)
+                {
+                    logger.debug("Dimension changed, auto-map obsolete.");
+                    regionLoader.getRegions().clear();
+                    return null;
+                }
+
+                awaitMemory();
+                try
+                {
+                    RegionCoord rCoord = claimRegion();
+                    if (rCoord == null)
+                    {
+                        return null;
+                    }
+                    mapRegion(rCoord);
+                    announceProgress();
+                }
+                finally
+                {
+                    releaseMemory();
+                }
+            }
+        }
+
+        private void mapRegion(RegionCoord rCoord) throws InterruptedException
+        {
+            final List<ChunkCoordIntPair> renderCoords = rCoord.getChunkCoordsInRegion();
+            final List<ChunkCoordIntPair> retainedCoords = getRetainedCoords(regionLoader.getHeaderIndex(), renderCoords);
+
+            addChunkUsers(retainedCoords);
+            addChunkUsers(renderCoords);
+            try
+            {
+                for (ChunkCoordIntPair coord : retainedCoords)
+                {
+                    loadChunk(coord);
+                }
+
+                int loaded = 0;
+                for (ChunkCoordIntPair coord : renderCoords)
+                {
+                    if (Thread.interrupted())
+                    {
+                        throw new InterruptedException();
+                    }
+                    if (cancelled)
+                    {
+                        return;
+                    }
+                    if (loadChunk(coord))
+                    {
+                        loaded++;
+                    }
+                }
+
+                if (loaded == 0)
+                {
+                    logger.info("Skipping empty region: {}", rCoord);
+                    return;
+                }
+
+                logger.info("Potential chunks to map in {}: {} (out of {})", rCoord, loaded, renderCoords.size());
+                int mapped = renderController.renderChunks(jmWorldDir, mapType, renderCoords, 1);
+                if (Thread.interrupted())
+                {
+                    throw new InterruptedException();
+                }
+                boolean written = RegionImageCache.instance().flushRegion(rCoord);
+                logger.info("Actual chunks mapped in {}: {} ", rCoord, mapped);
+
+                // As of when the region file's header was read, so chunks saved since then are seen as changed
+                RegionHeaderIndex.Header header = regionLoader.getHeaderIndex().get(rCoord.regionX, rCoord.regionZ);
+                if (written && header != null && jm.isMapping())
+                {
+                    regionLoader.getJournal().markComplete(rCoord.regionX, rCoord.regionZ, header.getLastModified());
+                }
+            }
+            catch (InterruptedException e)
+            {
+                throw e;
+            }
+            catch (Throwable t)
+            {
+                logger.error("Unexpected error mapping region {}: {}", rCoord, LogFormatter.toString(t));
+            }
+            finally
+            {
+                removeChunkUsers(retainedCoords);
+                removeChunkUsers(renderCoords);
+            }
+        }
+
+        private boolean loadChunk(ChunkCoordIntPair coord)
+        {
+            if (!regionLoader.getHeaderIndex().chunkExists(coord.chunkXPos, coord.chunkZPos))
+            {
+                return false;
+            }
+
+            if (isLoaded(coord))
+            {
+                // Already read by the neighboring region
+                return true;
+            }
+
+            ChunkMD chunkMD = ChunkLoader.getChunkMD(reader, mc, coord);
+            if (chunkMD != null)
+            {
+                addLoaded(chunkMD);
+                return true;
+            }
+            return false;
+        }
+    }
+
     /**
      * Stateful ITaskManager for MapRegionTasks
      *
@@ -158,6 +524,7 @@ public class MapRegionTask extends BaseMapTask
         final int mapTaskDelay = 0;
 
         RegionLoader regionLoader;
+        MapRegionTask task;
         boolean enabled;
 
         @Override
@@ -260,17 +627,22 @@ public class MapRegionTask extends BaseMapTask
 
             if (regionLoader != null)
             {
-                // Write files synchronously before clearing
-                RegionImageCache.instance().flushToDisk(false);
-                RegionImageCache.instance().clear();
                 regionLoader.getRegions().clear();
+
+                // A running task writes files and clears the cache itself once its workers have stopped
+                if (task == null || !task.cancel())
+                {
+                    RegionImageCache.instance().flushToDisk(false);
+                    RegionImageCache.instance().clear();
+                }
+                task = null;
                 regionLoader = null;
             }
 
         }
 
         @Override
-        public BaseMapTask getTask(Minecraft minecraft)
+        public MapRegionTask getTask(Minecraft minecraft)
         {
 
             if (!enabled)
@@ -284,29 +656,18 @@ public class MapRegionTask extends BaseMapTask
                 return null;
             }
 
-            RegionCoord rCoord = regionLoader.getRegions().peek();
             ChunkRenderController chunkRenderController = JourneymapClient.getInstance().getChunkRenderController();
-            BaseMapTask baseMapTask = MapRegionTask.create(chunkRenderController, rCoord, regionLoader.getMapType(), minecraft);
-            return baseMapTask;
+            task = MapRegionTask.create(chunkRenderController, regionLoader);
+            return task;
         }
 
         @Override
         public void taskAccepted(ITask task, boolean accepted)
         {
-            if (accepted)
+            // Regions are claimed by the task's workers as they go
+            if (!accepted && task == this.task)
             {
-                regionLoader.getRegions().pop();
-                float total = 1F * regionLoader.getRegionsFound();
-                float remaining = total - regionLoader.getRegions().size();
-                String percent = new DecimalFormat("##.#").format(remaining * 100 / total) + "%";
-                if (regionLoader.isUnderground())
-                {
-                    ChatLog.announceI18N("jm.common.automap_status_underground", regionLoader.getVSlice(), percent);
-                }
-                else
-                {
-                    ChatLog.announceI18N("jm.common.automap_status", percent);
-                }
+                this.task = null;
             }
         }
     }
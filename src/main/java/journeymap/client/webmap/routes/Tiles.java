@@ -1,13 +1,23 @@
 package journeymap.client.webmap.routes;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
 import cpw.mods.fml.client.FMLClientHandler;
 import io.javalin.http.ContentType;
 import io.javalin.http.Context;
 import journeymap.client.JourneymapClient;
+import journeymap.client.data.DataCache;
 import journeymap.client.data.WorldData;
 import journeymap.client.io.FileHandler;
+import journeymap.client.io.PngjHelper;
 import journeymap.client.io.RegionImageHandler;
+import journeymap.client.io.TilePyramid;
+import journeymap.client.log.LogFormatter;
 import journeymap.client.model.MapType;
+import journeymap.client.model.RegionCoord;
+import journeymap.client.model.RegionImageCache;
+import journeymap.client.properties.CoreProperties;
 import journeymap.client.render.map.Tile;
 import journeymap.common.Journeymap;
 import net.minecraft.client.Minecraft;
@@ -15,16 +25,38 @@ import net.minecraft.world.ChunkCoordIntPair;
 import net.minecraft.world.World;
 import org.apache.logging.log4j.Logger;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
 
 public class Tiles
 {
     private static final Logger logger = Journeymap.getLogger();
+    private static final int MAX_CACHE_KB = 32 * 1024;
+
+    /**
+     * Encoded PNGs of recently requested tiles, keyed by world, map type, position and zoom.
+     */
+    private static final Cache<String, EncodedTile> encodedTiles = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_CACHE_KB)
+            .weigher(new Weigher<String, EncodedTile>()
+            {
+                @Override
+                public int weigh(String key, EncodedTile value)
+                {
+                    return 1 + (value.bytes.length / 1024);
+                }
+            })
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
+
+    static
+    {
+        DataCache.instance().addPrivateCache("WebMapTiles", encodedTiles);
+    }
 
     public static void get(Context ctx)
     {
@@ -43,12 +75,14 @@ public class Tiles
             logger.warn("Tiles requested before world loaded");
             ctx.status(400);
             ctx.result("World not loaded");
+            return;
         }
         if (!JourneymapClient.getInstance().isMapping())
         {
             logger.warn("Tiles requested before JourneyMap started");
             ctx.status(400);
             ctx.result("JourneyMap is still starting");
+            return;
         }
         File worldDir = FileHandler.getJMWorldDir(minecraft);
         try
@@ -58,6 +92,7 @@ public class Tiles
                 logger.warn("JM world directory not found");
                 ctx.status(404);
                 ctx.result("World not found");
+                return;
             }
         }
         catch (NullPointerException e)
@@ -65,6 +100,7 @@ public class Tiles
             logger.warn("NPE occurred while locating JM world directory");
             ctx.status(404);
             ctx.result("World not found");
+            return;
         }
         MapType.Name mapTypeName = null;
         try
@@ -76,6 +112,7 @@ public class Tiles
             logger.warn("Invalid map type supplied during tiles request: {}", mapTypeString);
             ctx.status(400);
             ctx.result("Invalid map type: " + mapTypeString);
+            return;
         }
         if (mapTypeName != MapType.Name.underground)
         {
@@ -85,40 +122,82 @@ public class Tiles
         {
             logger.debug("Blank tile returned for underground view on a hardcore server");
 
-            try
+            writeFile(ctx, RegionImageHandler.getBlank512x512ImageFile());
+            return;
+        }
+        MapType mapType = new MapType(mapTypeName, y, dimension);
+        if (zoom < 0)
+        {
+            // Zoomed out: send the pre-rendered pyramid tile without decoding it
+            File tileFile = null;
+            if (-zoom <= TilePyramid.MAX_LEVEL)
             {
-                OutputStream output = ctx.res.getOutputStream();
-                ctx.contentType(ContentType.IMAGE_PNG);
-                output.write(Files.readAllBytes(RegionImageHandler.getBlank512x512ImageFile().toPath()));
-                output.flush();
+                File imageDir = RegionImageHandler.getImageDir(new RegionCoord(worldDir, 0, 0, dimension), mapType);
+                tileFile = TilePyramid.getOrBuildTile(imageDir, -zoom, x, z);
             }
-            catch (IOException e)
+
+            if (tileFile == null)
+            {
+                writeFile(ctx, RegionImageHandler.getBlank512x512ImageFile());
+            }
+            else
             {
-                logger.info("Connection closed while writing image response. Webmap probably reloaded.");
-                ctx.result("Connection closed while writing image response. Webmap probably reloaded.");
+                String etag = "\"" + Long.toHexString(tileFile.lastModified()) + "\"";
+                if (!isNotModified(ctx, etag, tileFile.lastModified()))
+                {
+                    writeFile(ctx, tileFile);
+                }
             }
             return;
         }
+
         int scale = (int) Math.pow(2, zoom);
         int distance = 32 / scale;
         int minChunkX = x * distance;
         int minChunkY = z * distance;
         int maxChunkX = minChunkX + distance - 1;
         int maxChunkY = minChunkY + distance - 1;
-        ChunkCoordIntPair startCoord = new ChunkCoordIntPair(minChunkX, minChunkY);
-        ChunkCoordIntPair endCoord = new ChunkCoordIntPair(maxChunkX, maxChunkY);
         boolean showGrid = JourneymapClient.getWebMapProperties().showGrid.get();
-        MapType mapType = new MapType(mapTypeName, y, dimension);
-        BufferedImage img = RegionImageHandler.getMergedChunks(
-                worldDir, startCoord, endCoord, mapType, true, null,
-                Tile.TILESIZE, Tile.TILESIZE, false, showGrid
-        );
+
+        // Tiles at zoom >= 0 never span more than one region
+        RegionCoord rCoord = RegionCoord.fromRegionPos(worldDir, RegionCoord.getRegionPos(minChunkX), RegionCoord.getRegionPos(minChunkY), dimension);
+        long version = RegionImageCache.instance().getImageVersion(rCoord, mapType);
+        String etag = "\"" + Long.toHexString(version) + (showGrid ? "g" : "") + "\"";
+        if (isNotModified(ctx, etag, version))
+        {
+            return;
+        }
+
+        String cacheKey = worldDir + mapType.toCacheKey() + x + "," + z + "@" + zoom + showGrid;
+        EncodedTile encodedTile = encodedTiles.getIfPresent(cacheKey);
+        if (encodedTile == null || !encodedTile.etag.equals(etag))
+        {
+            ChunkCoordIntPair startCoord = new ChunkCoordIntPair(minChunkX, minChunkY);
+            ChunkCoordIntPair endCoord = new ChunkCoordIntPair(maxChunkX, maxChunkY);
+            BufferedImage img = RegionImageHandler.getMergedChunks(
+                    worldDir, startCoord, endCoord, mapType, false, null,
+                    Tile.TILESIZE, Tile.TILESIZE, false, showGrid
+            );
+
+            try
+            {
+                CoreProperties coreProperties = JourneymapClient.getCoreProperties();
+                encodedTile = new EncodedTile(etag, PngjHelper.encodeImage(img, coreProperties.regionPngCompression.get(), coreProperties.regionPngFilter.get()));
+                encodedTiles.put(cacheKey, encodedTile);
+            }
+            catch (IOException e)
+            {
+                logger.error("Couldn't encode tile image: {}", LogFormatter.toPartialString(e));
+                ctx.status(500);
+                return;
+            }
+        }
 
         try
         {
             OutputStream output = ctx.res.getOutputStream();
             ctx.contentType(ContentType.IMAGE_PNG);
-            ImageIO.write(img, "png", output);
+            output.write(encodedTile.bytes);
             output.flush();
         }
         catch (IOException e)
@@ -126,6 +205,74 @@ public class Tiles
             logger.info("Connection closed while writing image response. Webmap probably reloaded.");
             ctx.result("Connection closed while writing image response. Webmap probably reloaded.");
         }
+    }
 
+    /**
+     * Set the validators on the response, and answer with 304 if the browser's copy is current.
+     *
+     * @return true if the 304 was sent
+     */
+    private static boolean isNotModified(Context ctx, String etag, long lastModified)
+    {
+        ctx.header("ETag", etag);
+        if (lastModified > 0)
+        {
+            ctx.res.setDateHeader("Last-Modified", lastModified);
+        }
+
+        String ifNoneMatch = ctx.req.getHeader("If-None-Match");
+        boolean notModified;
+        if (ifNoneMatch != null)
+        {
+            notModified = ifNoneMatch.equals(etag);
+        }
+        else
+        {
+            long ifModifiedSince;
+            try
+            {
+                ifModifiedSince = ctx.req.getDateHeader("If-Modified-Since");
+            }
+            catch (IllegalArgumentException e)
+            {
+                ifModifiedSince = -1;
+            }
+            // HTTP dates only have second precision
+            notModified = lastModified > 0 && ifModifiedSince >= 0 && (lastModified / 1000) <= (ifModifiedSince / 1000);
+        }
+
+        if (notModified)
+        {
+            ctx.status(304);
+        }
+        return notModified;
+    }
+
+    private static void writeFile(Context ctx, File pngFile)
+    {
+        try
+        {
+            OutputStream output = ctx.res.getOutputStream();
+            ctx.contentType(ContentType.IMAGE_PNG);
+            output.write(Files.readAllBytes(pngFile.toPath()));
+            output.flush();
+        }
+        catch (IOException e)
+        {
+            logger.info("Connection closed while writing image response. Webmap probably reloaded.");
+            ctx.result("Connection closed while writing image response. Webmap probably reloaded.");
+        }
+    }
+
+    static class EncodedTile
+    {
+        final String etag;
+        final byte[] bytes;
+
+        EncodedTile(String etag, byte[] bytes)
+        {
+            this.etag = etag;
+            this.bytes = bytes;
+        }
     }
 }